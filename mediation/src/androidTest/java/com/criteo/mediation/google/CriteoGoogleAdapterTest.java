@@ -116,6 +116,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadNativeAd(serverParameter, nativeCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(nativeCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -129,6 +130,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadNativeAd(serverParameter, nativeCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(nativeCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -173,6 +175,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadBannerAd(serverParameter, new AdSize(320, 50), bannerCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(bannerCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -186,6 +189,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadBannerAd(serverParameter, new AdSize(320, 50), bannerCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(bannerCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -230,6 +234,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadInterstitialAd(serverParameter, interstitialCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(interstitialCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -243,6 +248,7 @@ public class CriteoGoogleAdapterTest {
         String serverParameter = serverParams.toString();
 
         adapterHelper.loadInterstitialAd(serverParameter, interstitialCallback);
+        mockedDependenciesRule.waitForIdleState();
 
         verify(interstitialCallback).onFailure(argThat(new IsEqualToOtherAdError(AdErrorKt.noFillError())));
     }
@@ -21,6 +21,7 @@ import android.content.Context
 import android.graphics.drawable.Drawable
 import android.provider.Settings
 import android.view.View
+import android.view.ViewGroup
 import android.widget.ImageView
 import android.widget.LinearLayout
 import android.widget.TextView
@@ -284,7 +285,9 @@ class CriteoNativeAdapterTest {
   }
 
   private fun MediaView.findDrawable(): Drawable? {
-    return NativeInternalForAdMob.getImageView(getChildAt(0) as CriteoMediaView).drawable
+    // The product media view is created lazily, inside the container given to AdMob
+    val container = getChildAt(0) as ViewGroup
+    return NativeInternalForAdMob.getImageView(container.getChildAt(0) as CriteoMediaView).drawable
   }
 
   private fun View.assertClickRedirectTo(
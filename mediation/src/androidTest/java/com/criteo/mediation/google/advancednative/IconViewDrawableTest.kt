@@ -16,15 +16,19 @@
 
 package com.criteo.mediation.google.advancednative
 
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Rect
+import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
 import android.widget.ImageView
 import androidx.test.rule.ActivityTestRule
 import com.criteo.mediation.google.activity.DummyActivity
 import com.criteo.publisher.concurrent.ThreadingUtil.runOnMainThreadAndWait
-import com.criteo.publisher.concurrent.ThreadingUtil.waitForMessageQueueToBeIdle
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Rule
 import org.junit.Test
+import java.lang.ref.WeakReference
 
 class IconViewDrawableTest {
 
@@ -61,27 +65,151 @@ class IconViewDrawableTest {
         .describedAs("An empty drawable should not have intrinsic size")
         .isEqualTo(-1)
 
+    // Updates are synchronous: no delayed task is involved
     runOnMainThreadAndWait {
       delegateImageView.setImageDrawable(drawable1)
+      drawable.onImageChanged()
+      assertThat(drawable.intrinsicWidth).isEqualTo(drawable1.intrinsicWidth)
     }
-    waitForIdleState()
-
-    assertThat(drawable.intrinsicWidth).isEqualTo(drawable1.intrinsicWidth)
 
     runOnMainThreadAndWait {
       delegateImageView.setImageDrawable(drawable2)
+      drawable.onImageChanged()
+      assertThat(drawable.intrinsicWidth).isEqualTo(drawable2.intrinsicWidth)
     }
-    waitForIdleState()
+  }
+
+  @Test
+  fun draw_GivenDrawableChangedWithoutNotification_UpdateAccordingly() {
+    lateinit var imageDrawable: Drawable
+    lateinit var delegateImageView: ImageView
 
-    assertThat(drawable.intrinsicWidth).isEqualTo(drawable2.intrinsicWidth)
+    testRule.runOnUiThread {
+      val activity = testRule.activity
+      imageDrawable = activity.getDrawable(android.R.drawable.ic_delete)!!
+      delegateImageView = ImageView(activity)
+    }
+
+    val drawable = IconViewDrawable(delegateImageView)
+
+    runOnMainThreadAndWait {
+      delegateImageView.setImageDrawable(imageDrawable)
+      assertThat(drawable.intrinsicWidth).isEqualTo(-1)
+
+      drawable.draw(Canvas())
+      assertThat(drawable.intrinsicWidth).isEqualTo(imageDrawable.intrinsicWidth)
+    }
   }
 
-  private fun waitForIdleState() {
-    // Unfortunately, the tested code rely on delayed async tasks, and waitForMessageQueueToBeIdle
-    // does not seem to support this well. Hence, an additional sleep is required.
-    Thread.sleep(IconViewDrawable.UPDATE_DELAY_MS)
+  @Test
+  fun draw_GivenPlaceholderThenLoadedImage_NotifyOnlyFirstDrawOfLoadedImage() {
+    lateinit var placeholder: Drawable
+    lateinit var image: Drawable
+    lateinit var delegateImageView: ImageView
 
-    // At this point, the update step might be running. We must wait for it.
-    waitForMessageQueueToBeIdle()
+    testRule.runOnUiThread {
+      val activity = testRule.activity
+      placeholder = activity.getDrawable(android.R.drawable.ic_delete)!!
+      image = activity.getDrawable(android.R.drawable.ic_secure)!!
+      delegateImageView = ImageView(activity)
+    }
+
+    var drawnImageCount = 0
+    val drawable = IconViewDrawable(delegateImageView) { drawnImageCount++ }
+
+    runOnMainThreadAndWait {
+      delegateImageView.setImageDrawable(placeholder)
+      drawable.onImageChanged()
+      drawable.draw(Canvas())
+      assertThat(drawnImageCount).isZero()
+
+      delegateImageView.setImageDrawable(image)
+      drawable.onImageLoaded()
+      assertThat(drawnImageCount)
+          .describedAs("Picking up the image is not drawing it")
+          .isZero()
+
+      drawable.draw(Canvas())
+      drawable.draw(Canvas())
+      assertThat(drawnImageCount).isEqualTo(1)
+    }
+  }
+
+  @Test
+  fun onImageChanged_GivenNewDrawable_GiveItBoundsStateAndLevel() {
+    lateinit var drawable1: Drawable
+    lateinit var drawable2: Drawable
+    lateinit var delegateImageView: ImageView
+
+    testRule.runOnUiThread {
+      val activity = testRule.activity
+      drawable1 = activity.getDrawable(android.R.drawable.ic_delete)!!
+      drawable2 = activity.getDrawable(android.R.drawable.ic_secure)!!
+      delegateImageView = ImageView(activity)
+    }
+
+    val drawable = IconViewDrawable(delegateImageView)
+    val state = intArrayOf(android.R.attr.state_pressed)
+
+    runOnMainThreadAndWait {
+      drawable.setBounds(1, 2, 30, 40)
+      drawable.setState(state)
+      drawable.setLevel(42)
+
+      delegateImageView.setImageDrawable(drawable1)
+      drawable.onImageChanged()
+
+      assertThat(drawable1.bounds).isEqualTo(Rect(1, 2, 30, 40))
+      assertThat(drawable1.state).isEqualTo(state)
+      assertThat(drawable1.level).isEqualTo(42)
+      assertThat(drawable1.callback).isSameAs(drawable)
+
+      delegateImageView.setImageDrawable(drawable2)
+      drawable.onImageChanged()
+      drawable.setBounds(5, 6, 70, 80)
+
+      assertThat(drawable2.bounds).isEqualTo(Rect(5, 6, 70, 80))
+      assertThat(drawable2.callback).isSameAs(drawable)
+      assertThat(drawable1.callback).isNull()
+      assertThat(drawable1.bounds).isEqualTo(Rect(1, 2, 30, 40))
+    }
+  }
+
+  @Test
+  fun onImageChanged_GivenManyUpdates_RetainOnlyCurrentImage() {
+    lateinit var delegateImageView: ImageView
+
+    testRule.runOnUiThread {
+      delegateImageView = ImageView(testRule.activity)
+    }
+
+    val drawable = IconViewDrawable(delegateImageView)
+    val bitmaps = mutableListOf<WeakReference<Bitmap>>()
+
+    repeat(10) {
+      runOnMainThreadAndWait {
+        val bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        bitmaps += WeakReference(bitmap)
+        delegateImageView.setImageDrawable(BitmapDrawable(testRule.activity.resources, bitmap))
+        drawable.onImageChanged()
+      }
+
+      assertThat(retainedBytes(bitmaps)).isEqualTo(100 * 100 * 4)
+    }
+
+    runOnMainThreadAndWait {
+      assertThat(drawable.current).isSameAs(delegateImageView.drawable)
+    }
+  }
+
+  /**
+   * Bytes of the given bitmaps that are still reachable after garbage collections.
+   */
+  private fun retainedBytes(bitmaps: List<WeakReference<Bitmap>>): Int {
+    repeat(3) {
+      Runtime.getRuntime().gc()
+      System.runFinalization()
+    }
+    return bitmaps.mapNotNull { it.get() }.sumOf { it.byteCount }
   }
 }
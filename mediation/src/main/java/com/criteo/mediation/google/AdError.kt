@@ -22,6 +22,12 @@ import com.google.android.gms.ads.AdRequest
 
 internal const val ERROR_CODE_DOMAIN = BuildConfig.LIBRARY_PACKAGE_NAME
 
+/**
+ * Code of the error given when a load does not finish before its deadline. It is specific to this
+ * adapter, so it is distinguishable from the errors reported by the SDK.
+ */
+internal const val ERROR_CODE_LOAD_TIMEOUT = 100
+
 internal fun CriteoErrorCode.toAdMobAdError(): AdError {
   return when (this) {
     CriteoErrorCode.ERROR_CODE_NO_FILL -> AdError(
@@ -61,4 +67,9 @@ internal fun readingServerParameterError() =
 internal fun adapterInitializationError() =
   AdError(AdRequest.ERROR_CODE_INTERNAL_ERROR, "Adapter failed to initialize", ERROR_CODE_DOMAIN)
 
+internal fun networkError() = CriteoErrorCode.ERROR_CODE_NETWORK_ERROR.toAdMobAdError()
+
 internal fun noFillError() = AdError(AdRequest.ERROR_CODE_NO_FILL, "No fill", ERROR_CODE_DOMAIN)
+
+internal fun loadTimeoutError() =
+  AdError(ERROR_CODE_LOAD_TIMEOUT, "Load timed out", ERROR_CODE_DOMAIN)
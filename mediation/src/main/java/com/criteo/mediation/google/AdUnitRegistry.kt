@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.AdUnit
+import com.criteo.publisher.model.BannerAdUnit
+import com.criteo.publisher.model.InterstitialAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+
+/**
+ * Interns Criteo [AdUnit]s by format, ad unit ID and size.
+ *
+ * AdMob gives the ad unit on each request, so without this, a new [AdUnit] would be created on each
+ * load. Reusing the same instance gives the SDK stable identities for its bid cache and prefetch.
+ *
+ * Ad units are never evicted: there are as many of them as placements configured on AdMob.
+ */
+internal class AdUnitRegistry {
+
+    private val adUnits = LinkedHashMap<Key, AdUnit>()
+
+    fun banner(adUnitId: String, size: AdSize): BannerAdUnit {
+        return intern(Key(BANNER, adUnitId, size.width, size.height)) {
+            BannerAdUnit(adUnitId, size)
+        }
+    }
+
+    fun interstitial(adUnitId: String): InterstitialAdUnit {
+        return intern(Key(INTERSTITIAL, adUnitId)) { InterstitialAdUnit(adUnitId) }
+    }
+
+    fun native(adUnitId: String): NativeAdUnit {
+        return intern(Key(NATIVE, adUnitId)) { NativeAdUnit(adUnitId) }
+    }
+
+    /**
+     * Return the same instance as the one registered for this ad unit, registering it if needed.
+     */
+    fun intern(adUnit: AdUnit): AdUnit {
+        return when (adUnit) {
+            is BannerAdUnit -> intern(
+                Key(BANNER, adUnit.adUnitId, adUnit.size.width, adUnit.size.height)
+            ) { adUnit }
+            is InterstitialAdUnit -> intern(Key(INTERSTITIAL, adUnit.adUnitId)) { adUnit }
+            is NativeAdUnit -> intern(Key(NATIVE, adUnit.adUnitId)) { adUnit }
+            else -> adUnit
+        }
+    }
+
+    /**
+     * Snapshot of all the ad units seen so far, in the order they were first seen.
+     */
+    fun knownAdUnits(): List<AdUnit> {
+        return synchronized(adUnits) { adUnits.values.toList() }
+    }
+
+    private inline fun <T : AdUnit> intern(key: Key, create: () -> T): T {
+        synchronized(adUnits) {
+            @Suppress("UNCHECKED_CAST")
+            return adUnits.getOrPut(key, create) as T
+        }
+    }
+
+    private data class Key(
+        val format: Int,
+        val adUnitId: String,
+        val width: Int = 0,
+        val height: Int = 0
+    )
+
+    private companion object {
+        const val BANNER = 0
+        const val INTERSTITIAL = 1
+        const val NATIVE = 2
+    }
+}
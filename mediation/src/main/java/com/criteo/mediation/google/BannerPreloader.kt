@@ -0,0 +1,293 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Activity
+import android.content.Context
+import android.os.Handler
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.CriteoBannerAdListener
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.model.BannerAdUnit
+
+/**
+ * Loads the next banner of refreshed slots off-screen, ahead of the refresh.
+ *
+ * The cadence of the filled loads of each slot (a context and an ad unit) is tracked. When a slot
+ * looks refreshed, that is when two filled loads are between [MIN_REFRESH_INTERVAL_MS] and
+ * [MAX_REFRESH_INTERVAL_MS] apart, its next banner is loaded [PRELOAD_LEAD_MS] before the expected
+ * refresh. The next load of the slot then takes this banner, which is usually already rendered.
+ *
+ * A preloaded banner that is not taken within [MAX_PRELOAD_AGE_MS] is given back to the
+ * [BannerViewPool]. Slots of an activity are forgotten when it is destroyed.
+ *
+ * This is opt-in, with [ServerParameters.preloadBanners], because preloaded banners that are never
+ * displayed still cost a bid request. So nothing is preloaded while offline or while the
+ * [CriteoAdapter.circuitBreaker] is not closed.
+ */
+internal class BannerPreloader(
+    private val handler: Handler,
+    private val bannerViewPool: BannerViewPool,
+    private val canPreload: () -> Boolean = {
+        CriteoInitializer.isInitialized() &&
+            !CriteoInitializer.connectivityMonitor.isOffline() &&
+            !CriteoAdapter.circuitBreaker.isOpen()
+    },
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+    private val createView: (Context, BannerAdUnit) -> CriteoBannerView = { context, adUnit ->
+        CriteoBannerView(context, adUnit)
+    }
+) {
+
+    private val slots = object : LinkedHashMap<Slot, SlotState>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Slot, SlotState>): Boolean {
+            if (size <= MAX_SLOTS) {
+                return false
+            }
+            discard(eldest.key, eldest.value)
+            return true
+        }
+    }
+
+    init {
+        bannerViewPool.addActivityDestroyedListener { forget(it) }
+    }
+
+    /**
+     * Record that the given slot got a banner, and schedule the preload of its next banner if the
+     * slot looks refreshed.
+     *
+     * This should only be called for filled loads: loads rejected by the no-fill back-off or the
+     * circuit breaker, or failing, should not cost more bids in preloads.
+     */
+    fun onLoadFilled(context: Context, adUnit: BannerAdUnit) {
+        bannerViewPool.watchActivities(context)
+        val slot = Slot(context, adUnit)
+        val now = clock()
+        synchronized(slots) {
+            val state = slots.getOrPut(slot) { SlotState(slot) }
+            val refreshIntervalMs = state.lastLoadMs?.let { now - it }
+            state.lastLoadMs = now
+
+            handler.removeCallbacks(state.scheduledPreload)
+            if (refreshIntervalMs != null &&
+                refreshIntervalMs in MIN_REFRESH_INTERVAL_MS..MAX_REFRESH_INTERVAL_MS
+            ) {
+                handler.postDelayed(state.scheduledPreload, refreshIntervalMs - PRELOAD_LEAD_MS)
+            }
+        }
+    }
+
+    /**
+     * Forget the slots of the given context, with their scheduled and preloaded banners.
+     */
+    fun forget(context: Context) {
+        val removedSlots = synchronized(slots) {
+            val removedSlots = mutableListOf<Pair<Slot, SlotState>>()
+            val iterator = slots.entries.iterator()
+            while (iterator.hasNext()) {
+                val (slot, state) = iterator.next()
+                if (slot.context === context) {
+                    removedSlots += slot to state
+                    iterator.remove()
+                }
+            }
+            removedSlots
+        }
+        removedSlots.forEach { (slot, state) -> discard(slot, state) }
+    }
+
+    /**
+     * Return the banner preloaded for the given slot, if any, either already received or still
+     * loading. It is returned only once.
+     */
+    fun take(context: Context, adUnit: BannerAdUnit): PreloadedBanner? {
+        val slot = Slot(context, adUnit)
+        val preloadedBanner = synchronized(slots) {
+            val state = slots[slot] ?: return null
+            state.preloadedBanner.also { state.preloadedBanner = null }
+        } ?: return null
+
+        handler.removeCallbacks(preloadedBanner.expiration)
+        if (preloadedBanner.isFailed()) {
+            release(slot, preloadedBanner)
+            return null
+        }
+        return preloadedBanner
+    }
+
+    @VisibleForTesting
+    internal fun slotCount(): Int = synchronized(slots) { slots.size }
+
+    private fun preload(slot: Slot) {
+        if (!canPreload() || slot.context.isDestroyedActivity()) {
+            return
+        }
+
+        synchronized(slots) {
+            val state = slots[slot] ?: return
+            if (state.preloadedBanner != null || state.isPreloading) {
+                return
+            }
+            // The view is created outside of the lock
+            state.isPreloading = true
+        }
+
+        val view = bannerViewPool.acquire(slot.context, slot.adUnit)
+            ?: createView(slot.context, slot.adUnit)
+        val preloadedBanner = PreloadedBanner(view) { expire(slot, it) }
+
+        val isSlotKept = synchronized(slots) {
+            val state = slots[slot]
+            if (state != null && state.isPreloading) {
+                state.isPreloading = false
+                state.preloadedBanner = preloadedBanner
+                true
+            } else {
+                false
+            }
+        }
+        if (!isSlotKept) {
+            bannerViewPool.release(slot.context, slot.adUnit, view)
+            return
+        }
+
+        view.setCriteoBannerAdListener(preloadedBanner)
+        view.loadAd()
+        handler.postDelayed(preloadedBanner.expiration, MAX_PRELOAD_AGE_MS)
+    }
+
+    private fun discard(slot: Slot, state: SlotState) {
+        handler.removeCallbacks(state.scheduledPreload)
+        val preloadedBanner = state.preloadedBanner
+        state.preloadedBanner = null
+        state.isPreloading = false
+        if (preloadedBanner != null) {
+            handler.removeCallbacks(preloadedBanner.expiration)
+            release(slot, preloadedBanner)
+        }
+    }
+
+    private fun expire(slot: Slot, preloadedBanner: PreloadedBanner) {
+        val isExpired = synchronized(slots) {
+            val state = slots[slot]
+            if (state?.preloadedBanner === preloadedBanner) {
+                state.preloadedBanner = null
+                true
+            } else {
+                false
+            }
+        }
+        if (isExpired) {
+            release(slot, preloadedBanner)
+        }
+    }
+
+    private fun release(slot: Slot, preloadedBanner: PreloadedBanner) {
+        preloadedBanner.view.setCriteoBannerAdListener(null)
+        bannerViewPool.release(slot.context, slot.adUnit, preloadedBanner.view)
+    }
+
+    private fun Context.isDestroyedActivity(): Boolean {
+        return this is Activity && (isDestroyed || isFinishing)
+    }
+
+    private data class Slot(val context: Context, val adUnit: BannerAdUnit)
+
+    private inner class SlotState(slot: Slot) {
+        var lastLoadMs: Long? = null
+        var preloadedBanner: PreloadedBanner? = null
+        var isPreloading = false
+        val scheduledPreload = Runnable { preload(slot) }
+    }
+
+    /**
+     * Banner loaded ahead of its slot refresh.
+     *
+     * Until it is handed over to the loader of the slot, the events of its view are received here.
+     */
+    class PreloadedBanner internal constructor(
+        internal val view: CriteoBannerView,
+        onExpired: (PreloadedBanner) -> Unit
+    ) : CriteoBannerAdListener {
+
+        private var listener: CriteoBannerAdListener? = null
+        private var isReceived = false
+        private var isFailed = false
+
+        internal val expiration = Runnable { onExpired(this) }
+
+        internal fun isFailed(): Boolean = synchronized(this) { isFailed }
+
+        /**
+         * Give the events of this banner to the given listener from now on. If the banner is
+         * already received, this is notified directly.
+         */
+        internal fun handOver(listener: CriteoBannerAdListener) {
+            val isReceived = synchronized(this) {
+                this.listener = listener
+                isReceived
+            }
+            view.setCriteoBannerAdListener(listener)
+            if (isReceived) {
+                listener.onAdReceived(view)
+            }
+        }
+
+        override fun onAdReceived(view: CriteoBannerView) {
+            val listener = synchronized(this) {
+                isReceived = true
+                listener
+            }
+            listener?.onAdReceived(view)
+        }
+
+        override fun onAdFailedToReceive(code: CriteoErrorCode) {
+            val listener = synchronized(this) {
+                isFailed = true
+                listener
+            }
+            listener?.onAdFailedToReceive(code)
+        }
+
+        override fun onAdLeftApplication() {
+            synchronized(this) { listener }?.onAdLeftApplication()
+        }
+
+        override fun onAdClicked() {
+            synchronized(this) { listener }?.onAdClicked()
+        }
+
+        override fun onAdOpened() {
+            synchronized(this) { listener }?.onAdOpened()
+        }
+
+        override fun onAdClosed() {
+            synchronized(this) { listener }?.onAdClosed()
+        }
+    }
+
+    companion object {
+        const val MIN_REFRESH_INTERVAL_MS = 15_000L
+        const val MAX_REFRESH_INTERVAL_MS = 3 * 60 * 1000L
+        const val PRELOAD_LEAD_MS = 5_000L
+        const val MAX_PRELOAD_AGE_MS = 60_000L
+        const val MAX_SLOTS = 16
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Activity
+import android.app.Application
+import android.content.Context
+import android.os.Bundle
+import android.view.View
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.model.BannerAdUnit
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Pool of banner views, reused across the refreshes of a banner slot.
+ *
+ * Creating a [CriteoBannerView] creates a WebView, which is one of the most expensive things done
+ * on the main thread, while AdMob refreshes banners every 30 to 60 seconds. So once a banner view
+ * is removed from its slot, it is kept to serve the next load of the same ad unit in the same
+ * context.
+ *
+ * At most [maxViewsPerSlot] views are kept per context and ad unit. Views of an activity are
+ * destroyed with it.
+ */
+internal class BannerViewPool(private val maxViewsPerSlot: Int = MAX_VIEWS_PER_SLOT) {
+
+    private val views = HashMap<Key, ArrayDeque<CriteoBannerView>>()
+
+    /**
+     * Views already watched by [releaseWhenDetached], so that a reused view is not watched twice.
+     */
+    private val watchedViews: MutableSet<CriteoBannerView> =
+        Collections.newSetFromMap(WeakHashMap())
+
+    private var isWatchingActivities = false
+
+    private val activityDestroyedListeners = CopyOnWriteArrayList<(Activity) -> Unit>()
+
+    /**
+     * Return a pooled view for the given context and ad unit, or `null` if there is none.
+     */
+    fun acquire(context: Context, adUnit: BannerAdUnit): CriteoBannerView? {
+        watchActivities(context)
+        synchronized(views) {
+            val slotViews = views[Key(context, adUnit)] ?: return null
+            // A detached view may still be in its parent, for instance in a scrolled RecyclerView
+            val view = slotViews.firstOrNull { it.parent == null } ?: return null
+            slotViews.remove(view)
+            return view
+        }
+    }
+
+    /**
+     * Give back an unused view, for instance because its load failed.
+     */
+    fun release(context: Context, adUnit: BannerAdUnit, view: CriteoBannerView) {
+        if (context.isDestroyedActivity()) {
+            view.destroy()
+            return
+        }
+
+        val evictedView = synchronized(views) {
+            val slotViews = views.getOrPut(Key(context, adUnit)) { ArrayDeque() }
+            if (slotViews.contains(view)) {
+                return
+            }
+            slotViews.addLast(view)
+            if (slotViews.size > maxViewsPerSlot) slotViews.removeFirst() else null
+        }
+
+        if (evictedView != null && evictedView.parent == null) {
+            evictedView.destroy()
+        }
+    }
+
+    /**
+     * Give back the given view once it is removed from the screen, typically when its slot is
+     * refreshed with a new banner.
+     */
+    fun releaseWhenDetached(context: Context, adUnit: BannerAdUnit, view: CriteoBannerView) {
+        if (!synchronized(views) { watchedViews.add(view) }) {
+            return
+        }
+
+        view.addOnAttachStateChangeListener(object : View.OnAttachStateChangeListener {
+            override fun onViewAttachedToWindow(v: View) {
+                synchronized(views) {
+                    views[Key(context, adUnit)]?.remove(view)
+                }
+            }
+
+            override fun onViewDetachedFromWindow(v: View) {
+                release(context, adUnit, view)
+            }
+        })
+    }
+
+    /**
+     * Destroy all pooled views of the given context.
+     */
+    fun clear(context: Context) {
+        val removedViews = synchronized(views) {
+            val removedViews = mutableListOf<CriteoBannerView>()
+            val iterator = views.entries.iterator()
+            while (iterator.hasNext()) {
+                val (key, slotViews) = iterator.next()
+                if (key.context === context) {
+                    removedViews.addAll(slotViews)
+                    iterator.remove()
+                }
+            }
+            removedViews
+        }
+        removedViews.forEach { it.destroy() }
+    }
+
+    /**
+     * Invoke the given listener each time an activity is destroyed, before its pooled views are
+     * destroyed. Activities are only watched once [watchActivities] or [acquire] is called.
+     */
+    fun addActivityDestroyedListener(listener: (Activity) -> Unit) {
+        activityDestroyedListeners += listener
+    }
+
+    @VisibleForTesting
+    internal fun size(): Int = synchronized(views) { views.values.sumOf { it.size } }
+
+    /**
+     * Start watching the destruction of the activities of the application of the given context,
+     * if not already done.
+     */
+    fun watchActivities(context: Context) {
+        val application = context.applicationContext as? Application ?: return
+        synchronized(views) {
+            if (isWatchingActivities) {
+                return
+            }
+            isWatchingActivities = true
+        }
+        application.registerActivityLifecycleCallbacks(ActivityDestroyedCallbacks())
+    }
+
+    private fun Context.isDestroyedActivity(): Boolean {
+        return this is Activity && (isDestroyed || isFinishing)
+    }
+
+    private data class Key(val context: Context, val adUnit: BannerAdUnit)
+
+    private inner class ActivityDestroyedCallbacks : Application.ActivityLifecycleCallbacks {
+        override fun onActivityDestroyed(activity: Activity) {
+            activityDestroyedListeners.forEach { it(activity) }
+            clear(activity)
+        }
+
+        override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) = Unit
+        override fun onActivityStarted(activity: Activity) = Unit
+        override fun onActivityResumed(activity: Activity) = Unit
+        override fun onActivityPaused(activity: Activity) = Unit
+        override fun onActivityStopped(activity: Activity) = Unit
+        override fun onActivitySaveInstanceState(activity: Activity, outState: Bundle) = Unit
+    }
+
+    companion object {
+        const val MAX_VIEWS_PER_SLOT = 2
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.SystemClock
+import com.criteo.publisher.Bid
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.model.AdUnit
+
+/**
+ * Prefetches bids for ad units discovered after the Criteo SDK was initialized.
+ *
+ * The SDK only prefetches the ad units given to [Criteo.Builder.adUnits]. Ad units discovered later
+ * (for instance by an AdMob initialization happening after the SDK was started from an ad request
+ * or from [CriteoAdapterInitProvider]) are prefetched here with [Criteo.loadBid]. The returned bid
+ * is kept until the next load of this ad unit, which can then be served without waiting for the
+ * network.
+ */
+internal class BidPrefetcher(
+    private val maxBidAgeMs: Long = MAX_BID_AGE_MS,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    private val lock = Any()
+
+    /**
+     * Ad units for which bids are already fetched, either by the SDK or by this prefetcher.
+     */
+    private val fetchedAdUnits = HashSet<AdUnit>()
+
+    private val bids = HashMap<AdUnit, PrefetchedBid>()
+
+    /**
+     * Indicate that bids for the given ad units are already fetched elsewhere, so there is no need
+     * to prefetch them. This is the case of the ad units given to the SDK at initialization, and of
+     * the ones being loaded.
+     */
+    fun markAsFetched(adUnits: Collection<AdUnit>) {
+        synchronized(lock) {
+            fetchedAdUnits.addAll(adUnits)
+        }
+    }
+
+    /**
+     * Fetch a bid in background for each of the given ad units that were never fetched yet.
+     */
+    fun prefetch(criteo: Criteo, adUnits: Collection<AdUnit>) {
+        val adUnitsToFetch = synchronized(lock) {
+            adUnits.filter { fetchedAdUnits.add(it) }
+        }
+
+        for (adUnit in adUnitsToFetch) {
+            criteo.loadBid(adUnit) { bid ->
+                // Without bid, the SDK still fills its own cache for the next load
+                if (bid != null) {
+                    synchronized(lock) {
+                        bids[adUnit] = PrefetchedBid(bid, clock())
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the given bid, fetched for a load that is already over, until the next load of its ad
+     * unit. It replaces the bid already kept for this ad unit, if any.
+     */
+    fun keepBid(adUnit: AdUnit, bid: Bid) {
+        synchronized(lock) {
+            bids[adUnit] = PrefetchedBid(bid, clock())
+        }
+    }
+
+    /**
+     * Return the prefetched bid of the given ad unit, if any and if it is still fresh. The bid is
+     * removed, so it is given at most once.
+     */
+    fun takeBid(adUnit: AdUnit): Bid? {
+        val prefetchedBid = synchronized(lock) { bids.remove(adUnit) } ?: return null
+        if (clock() - prefetchedBid.receivedAtMs > maxBidAgeMs) {
+            return null
+        }
+        return prefetchedBid.bid
+    }
+
+    private class PrefetchedBid(val bid: Bid, val receivedAtMs: Long)
+
+    companion object {
+        /**
+         * Conservative age after which a prefetched bid is not used anymore. The SDK also checks the
+         * expiration of the bid when it is consumed.
+         */
+        const val MAX_BID_AGE_MS = 3 * 60 * 1000L
+    }
+}
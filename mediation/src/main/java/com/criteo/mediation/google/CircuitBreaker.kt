@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.SystemClock
+import com.google.android.gms.ads.AdError
+import com.google.android.gms.ads.AdRequest
+
+/**
+ * Process-wide circuit breaker in front of the bid requests of all ad units.
+ *
+ * When the network is unusable (offline, captive portal, outage of Criteo servers), every load would
+ * still wait for the network timeout before AdMob can continue its waterfall. So after a burst of
+ * [failureThreshold] network errors within [burstWindowMs], the circuit opens and loads are failed
+ * directly for [openDurationMs]. Then a single probe load is let through: the circuit closes if it
+ * reaches the servers, and opens again if not.
+ *
+ * Only network errors count as failures. Any other answer, even a no-fill, means the servers were
+ * reached. Timeouts say nothing about the network, except for the probe.
+ */
+internal class CircuitBreaker(
+    private val failureThreshold: Int = FAILURE_THRESHOLD,
+    private val burstWindowMs: Long = BURST_WINDOW_MS,
+    private val openDurationMs: Long = OPEN_DURATION_MS,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    private enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    private var state = State.CLOSED
+    private var failureCount = 0
+    private var firstFailureMs = 0L
+    private var openedAtMs = 0L
+    private var probeStartedAtMs = 0L
+
+    /**
+     * Indicate if a load may request a bid. If not, it should be failed with a network error.
+     *
+     * In half-open state, only the first caller is let through as a probe. If the probe never
+     * reports its result, another one is let through after [openDurationMs].
+     */
+    fun tryAcquire(): Boolean {
+        val now = clock()
+        synchronized(this) {
+            return when (state) {
+                State.CLOSED -> true
+                State.OPEN -> {
+                    if (now - openedAtMs < openDurationMs) {
+                        return false
+                    }
+                    state = State.HALF_OPEN
+                    probeStartedAtMs = now
+                    true
+                }
+                State.HALF_OPEN -> {
+                    if (now - probeStartedAtMs < openDurationMs) {
+                        return false
+                    }
+                    probeStartedAtMs = now
+                    true
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the circuit with the result of a load let through by [tryAcquire]: `null` if it was
+     * filled, or the error it was answered with.
+     */
+    fun onLoadFinished(error: AdError?) {
+        val now = clock()
+        val isNetworkError = error?.code == AdRequest.ERROR_CODE_NETWORK_ERROR
+        val isTimeout = error?.code == ERROR_CODE_LOAD_TIMEOUT
+        synchronized(this) {
+            when (state) {
+                State.CLOSED -> {
+                    if (isNetworkError) {
+                        onNetworkError(now)
+                    } else if (!isTimeout) {
+                        failureCount = 0
+                    }
+                }
+                State.OPEN -> Unit
+                State.HALF_OPEN -> {
+                    if (isNetworkError || isTimeout) {
+                        open(now)
+                    } else {
+                        state = State.CLOSED
+                        failureCount = 0
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether loads are currently rejected or probing the server, without acquiring a probe.
+     */
+    fun isOpen(): Boolean = synchronized(this) { state != State.CLOSED }
+
+    private fun onNetworkError(now: Long) {
+        if (failureCount == 0 || now - firstFailureMs > burstWindowMs) {
+            failureCount = 0
+            firstFailureMs = now
+        }
+        failureCount++
+        if (failureCount >= failureThreshold) {
+            open(now)
+        }
+    }
+
+    private fun open(now: Long) {
+        state = State.OPEN
+        openedAtMs = now
+        failureCount = 0
+    }
+
+    companion object {
+        const val FAILURE_THRESHOLD = 5
+        const val BURST_WINDOW_MS = 10_000L
+        const val OPEN_DURATION_MS = 30_000L
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.util.Log
+
+/**
+ * Snapshot of the connectivity of the device, kept up to date by a network callback.
+ *
+ * Reading the snapshot is only a volatile read, so it can be checked before each load to fail it
+ * directly while the device is offline, instead of creating views and listeners that would only
+ * end with a network error.
+ *
+ * A network is considered as available as soon as it is connected to the Internet, even if it is
+ * not validated yet: unusable networks, such as captive portals, are handled by [CircuitBreaker].
+ */
+internal class ConnectivityMonitor {
+
+    @Volatile
+    private var isStarted = false
+
+    @Volatile
+    private var isOffline = false
+
+    private val lock = Any()
+    private val availableNetworks = HashSet<Network>()
+    private var hasNetworkUpdate = false
+
+    private val networkCallback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+            synchronized(lock) {
+                hasNetworkUpdate = true
+                availableNetworks.add(network)
+                isOffline = false
+            }
+        }
+
+        override fun onLost(network: Network) {
+            synchronized(lock) {
+                hasNetworkUpdate = true
+                availableNetworks.remove(network)
+                isOffline = availableNetworks.isEmpty()
+            }
+        }
+    }
+
+    /**
+     * Start to monitor the connectivity. Only the first call has an effect.
+     *
+     * If the connectivity cannot be monitored, for instance because the publisher removed the
+     * `ACCESS_NETWORK_STATE` permission, the device is always considered as online.
+     */
+    fun start(context: Context) {
+        if (isStarted) {
+            return
+        }
+        synchronized(lock) {
+            if (isStarted) {
+                return
+            }
+            isStarted = true
+        }
+
+        val connectivityManager = context.applicationContext
+            ?.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager ?: return
+
+        try {
+            val request = NetworkRequest.Builder()
+                .apply { addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) }
+                .build()
+            connectivityManager.registerNetworkCallback(request, networkCallback)
+
+            // Callbacks are only invoked on changes, or asynchronously for the current networks
+            @Suppress("DEPRECATION")
+            val isConnected = connectivityManager.activeNetworkInfo?.isConnected == true
+            synchronized(lock) {
+                if (!hasNetworkUpdate) {
+                    isOffline = !isConnected
+                }
+            }
+        } catch (e: RuntimeException) {
+            Log.w(TAG, "Connectivity cannot be monitored", e)
+        }
+    }
+
+    fun isOffline(): Boolean = isOffline
+
+    private companion object {
+        private val TAG = ConnectivityMonitor::class.java.simpleName
+    }
+}
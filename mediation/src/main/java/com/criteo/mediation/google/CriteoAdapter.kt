@@ -16,16 +16,21 @@
 
 package com.criteo.mediation.google
 
-import android.app.Application
 import android.content.Context
 import android.util.Log
+import androidx.annotation.VisibleForTesting
 import com.criteo.mediation.google.advancednative.CriteoNativeEventLoader
+import com.criteo.mediation.google.metrics.AdapterTrace
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.mediation.google.metrics.Phase
+import com.criteo.publisher.Bid
 import com.criteo.publisher.Criteo
 import com.criteo.publisher.CriteoInitException
 import com.criteo.publisher.model.AdUnit
-import com.criteo.publisher.model.BannerAdUnit
-import com.criteo.publisher.model.InterstitialAdUnit
-import com.criteo.publisher.model.NativeAdUnit
+import com.google.android.gms.ads.AdError
+import com.google.android.gms.ads.AdFormat
 import com.google.android.gms.ads.AdSize
 import com.google.android.gms.ads.mediation.Adapter
 import com.google.android.gms.ads.mediation.InitializationCompleteCallback
@@ -43,35 +48,70 @@ import com.google.android.gms.ads.mediation.MediationNativeAdConfiguration
 import com.google.android.gms.ads.mediation.UnifiedNativeAdMapper
 import com.google.android.gms.ads.mediation.VersionInfo
 import org.json.JSONException
-import org.json.JSONObject
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * AdMob mediation adapter for Criteo.
+ *
+ * A single adapter instance may serve several loads at the same time, so no state of a load is kept
+ * in the adapter itself: each load gets its own event loader, held in [inFlightLoaders] until the
+ * load is over.
+ */
 class CriteoAdapter : Adapter() {
 
-    private lateinit var bannerAdUnit: BannerAdUnit
-    private lateinit var interstitialAdUnit: InterstitialAdUnit
-    private lateinit var nativeAdUnit: NativeAdUnit
-
-    private lateinit var bannerEventLoader: CriteoBannerEventLoader
-    private lateinit var interstitialEventLoader: CriteoInterstitialEventLoader
-    private lateinit var nativeEventLoader: CriteoNativeEventLoader
-
-    private enum class FormatType {
-        BANNER, INTERSTITIAL, NATIVE
-    }
-
     override fun loadBannerAd(
         configuration: MediationBannerAdConfiguration,
         callback: MediationAdLoadCallback<MediationBannerAd, MediationBannerAdCallback>
     ) {
-        if (initialize(
+        AdapterTrace.section(AdapterTrace.LOAD_BANNER_AD) {
+            val parameters = readServerParameters(configuration, callback, Format.BANNER) ?: return
+            val adUnit = LoadMetrics.measure(
+                Format.BANNER,
+                parameters.adUnitId,
+                Phase.CREATE_AD_UNIT
+            ) {
+                CriteoInitializer.adUnitRegistry.banner(
+                    parameters.adUnitId,
+                    configuration.adSize.toCriteoAdSize()
+                )
+            }
+            loadWhenInitialized(
+                Format.BANNER,
                 configuration,
-                FormatType.BANNER,
+                parameters,
+                adUnit,
                 callback,
                 configuration.taggedForChildDirectedTreatment().toCriteoChildDirectedTreatmentFlag()
-            )
-        ) {
-            bannerEventLoader = CriteoBannerEventLoader(configuration, callback, bannerAdUnit)
-            bannerEventLoader.loadAd()
+            ) { loadTimeoutMs, bid, onLoadFinished ->
+                lateinit var loader: CriteoBannerEventLoader
+                loader = CriteoBannerEventLoader(
+                    configuration,
+                    callback,
+                    adUnit,
+                    loadTimeoutMs
+                ) {
+                    inFlightLoaders.remove(loader)
+                    if (it == null && parameters.preloadBanners) {
+                        CriteoInitializer.bannerPreloader.onLoadFilled(
+                            configuration.context,
+                            adUnit
+                        )
+                    }
+                    onLoadFinished(it)
+                }
+                inFlightLoaders.add(loader)
+                val preloadedBanner = if (bid == null && parameters.preloadBanners) {
+                    CriteoInitializer.bannerPreloader.take(configuration.context, adUnit)
+                } else {
+                    null
+                }
+                if (preloadedBanner != null) {
+                    loader.loadAd(preloadedBanner)
+                } else {
+                    loader.loadAd(bid ?: takePrefetchedBid(Format.BANNER, adUnit))
+                }
+            }
         }
     }
 
@@ -79,15 +119,50 @@ class CriteoAdapter : Adapter() {
         configuration: MediationInterstitialAdConfiguration,
         callback: MediationAdLoadCallback<MediationInterstitialAd, MediationInterstitialAdCallback>
     ) {
-        if (initialize(
+        AdapterTrace.section(AdapterTrace.LOAD_INTERSTITIAL_AD) {
+            val parameters =
+                readServerParameters(configuration, callback, Format.INTERSTITIAL) ?: return
+            val adUnit = LoadMetrics.measure(
+                Format.INTERSTITIAL,
+                parameters.adUnitId,
+                Phase.CREATE_AD_UNIT
+            ) {
+                CriteoInitializer.adUnitRegistry.interstitial(parameters.adUnitId)
+            }
+            loadWhenInitialized(
+                Format.INTERSTITIAL,
                 configuration,
-                FormatType.INTERSTITIAL,
+                parameters,
+                adUnit,
                 callback,
                 configuration.taggedForChildDirectedTreatment().toCriteoChildDirectedTreatmentFlag()
-            )
-        ) {
-            interstitialEventLoader = CriteoInterstitialEventLoader(callback, interstitialAdUnit)
-            interstitialEventLoader.loadAd()
+            ) { loadTimeoutMs, bid, onLoadFinished ->
+                lateinit var loader: CriteoInterstitialEventLoader
+                loader = CriteoInterstitialEventLoader(callback, adUnit, loadTimeoutMs) {
+                    inFlightLoaders.remove(loader)
+                    if (it == null && parameters.interstitialPoolSize > 0) {
+                        // Only refill once a load passed the back-off and circuit breaker and got
+                        // a fill, so that pools do not request bids that would most likely fail
+                        CriteoInitializer.interstitialPool.refill(
+                            adUnit,
+                            parameters.interstitialPoolSize,
+                            parameters.interstitialPoolTtlMs
+                        )
+                    }
+                    onLoadFinished(it)
+                }
+                inFlightLoaders.add(loader)
+                val pooledInterstitial = if (bid == null && parameters.interstitialPoolSize > 0) {
+                    CriteoInitializer.interstitialPool.take(adUnit)
+                } else {
+                    null
+                }
+                if (pooledInterstitial != null) {
+                    loader.loadAd(pooledInterstitial)
+                } else {
+                    loader.loadAd(bid ?: takePrefetchedBid(Format.INTERSTITIAL, adUnit))
+                }
+            }
         }
     }
 
@@ -95,15 +170,37 @@ class CriteoAdapter : Adapter() {
         configuration: MediationNativeAdConfiguration,
         callback: MediationAdLoadCallback<UnifiedNativeAdMapper, MediationNativeAdCallback>
     ) {
-        if (initialize(
+        AdapterTrace.section(AdapterTrace.LOAD_NATIVE_AD) {
+            val parameters = readServerParameters(configuration, callback, Format.NATIVE) ?: return
+            val adUnit = LoadMetrics.measure(
+                Format.NATIVE,
+                parameters.adUnitId,
+                Phase.CREATE_AD_UNIT
+            ) {
+                CriteoInitializer.adUnitRegistry.native(parameters.adUnitId)
+            }
+            loadWhenInitialized(
+                Format.NATIVE,
                 configuration,
-                FormatType.NATIVE,
+                parameters,
+                adUnit,
                 callback,
                 configuration.taggedForChildDirectedTreatment().toCriteoChildDirectedTreatmentFlag()
-            )
-        ) {
-            nativeEventLoader = CriteoNativeEventLoader(configuration, callback, nativeAdUnit)
-            nativeEventLoader.loadAd()
+            ) { loadTimeoutMs, bid, onLoadFinished ->
+                lateinit var loader: CriteoNativeEventLoader
+                loader = CriteoNativeEventLoader(
+                    configuration,
+                    callback,
+                    adUnit,
+                    loadTimeoutMs,
+                    parameters.cacheNativeImages
+                ) {
+                    inFlightLoaders.remove(loader)
+                    onLoadFinished(it)
+                }
+                inFlightLoaders.add(loader)
+                loader.loadAd(bid ?: takePrefetchedBid(Format.NATIVE, adUnit))
+            }
         }
     }
 
@@ -112,6 +209,69 @@ class CriteoAdapter : Adapter() {
         initializationCompleteCallback: InitializationCompleteCallback,
         list: MutableList<MediationConfiguration>
     ) {
+        // Monitor the connectivity early, so that its state is known at the first ad request
+        CriteoInitializer.connectivityMonitor.start(context)
+
+        // Warm up the SDK with all the ad units configured on AdMob so that the prefetch can start
+        // before the first ad request.
+        var initParameters: ServerParameters? = null
+        var webViewWarmUpCount = 0
+        for (configuration in list) {
+            val serverParameter = configuration.serverParameters.getString(
+                SERVER_PARAMETER_KEY, ""
+            )
+            if (serverParameter.isNullOrEmpty()) {
+                continue
+            }
+
+            val parameters = try {
+                ServerParameters.parse(serverParameter)
+            } catch (e: JSONException) {
+                Log.w(TAG, readingServerParameterError().message, e)
+                continue
+            }
+
+            initParameters = initParameters ?: parameters
+            webViewWarmUpCount = maxOf(webViewWarmUpCount, parameters.webViewWarmUpCount)
+
+            // Banner sizes are only known at request time, so banner ad units are not prefetched
+            val format = when (configuration.format) {
+                AdFormat.INTERSTITIAL -> Format.INTERSTITIAL
+                AdFormat.NATIVE -> Format.NATIVE
+                else -> null
+            }
+            if (format != null) {
+                registerAdUnit(format, parameters.adUnitId, null)
+            }
+        }
+
+        if (initParameters == null) {
+            initializationCompleteCallback.onInitializationSucceeded()
+            return
+        }
+
+        if (CriteoInitializer.isInitialized()) {
+            CriteoInitializer.prefetchNewAdUnits()
+        } else {
+            try {
+                CriteoInitializer.initialize(
+                    context,
+                    initParameters.criteoPublisherId,
+                    initParameters.inventoryGroupId,
+                    CriteoInitializer.adUnitRegistry.knownAdUnits(),
+                    null
+                )
+            } catch (e: CriteoInitException) {
+                val error = adapterInitializationError()
+                Log.e(TAG, error.message, e)
+                initializationCompleteCallback.onInitializationFailed(error.message)
+                return
+            }
+        }
+
+        // Start the WebView provider at idle time, before the first banners and interstitials
+        CriteoInitializer.webViewWarmUpPool.start(context, webViewWarmUpCount)
+
         initializationCompleteCallback.onInitializationSucceeded()
     }
 
@@ -147,12 +307,12 @@ class CriteoAdapter : Adapter() {
         return DEFAULT_VERSION_INFO
     }
 
-    private fun initialize(
+    private fun readServerParameters(
         mediationAdConfiguration: MediationAdConfiguration,
-        formatType: FormatType,
         listener: MediationAdLoadCallback<*, *>,
-        tagForChildDirectedTreatment: Boolean?
-    ): Boolean {
+        format: Format
+    ): ServerParameters? {
+        val startNanos = LoadMetrics.now()
         val serverParameter = mediationAdConfiguration.serverParameters.getString(
             SERVER_PARAMETER_KEY, ""
         )
@@ -160,76 +320,164 @@ class CriteoAdapter : Adapter() {
             val error = emptyServerParameterError()
             listener.onFailure(error)
             Log.e(TAG, error.message)
-            return false
+            return null
         }
 
-        val criteoPublisherId: String
-        val inventoryGroupId: String?
-        val adUnitId: String
-        try {
-            val parameters = JSONObject(serverParameter)
-            criteoPublisherId = parameters.getString(CRITEO_PUBLISHER_ID)
-            inventoryGroupId = parameters.optString(INVENTORY_GROUP_ID) ?: null
-            adUnitId = parameters.getString(AD_UNIT_ID)
+        return try {
+            ServerParameters.parse(serverParameter).also {
+                LoadMetrics.recordSince(
+                    format,
+                    it.adUnitId,
+                    Phase.PARSE_SERVER_PARAMETERS,
+                    startNanos
+                )
+            }
         } catch (e: JSONException) {
+            LoadMetrics.recordSince(format, null, Phase.PARSE_SERVER_PARAMETERS, startNanos)
             val error = readingServerParameterError()
             listener.onFailure(error)
             Log.e(TAG, error.message, e)
-            return false
+            null
+        }
+    }
+
+    /**
+     * Execute the given load directly if the Criteo SDK is already initialized.
+     *
+     * Else the SDK is initialized and the load is parked until the initialization is over. If it is
+     * not over before [ServerParameters.initQueueTimeoutMs], the load is answered with a no-fill.
+     *
+     * In both cases, if a load of the same ad unit is running, the load is given a bid of its own,
+     * or waits for the outcome of the running load (see [LoadCoalescer]). The given load should use
+     * the bid it is given, if any.
+     *
+     * Loads are directly answered with a network error while the device is offline (see
+     * [ConnectivityMonitor]).
+     *
+     * Loads of an ad unit that keeps returning no-fills are directly answered with a no-fill (see
+     * [NoFillBackoff]), and loads are directly answered with a network error while the network is
+     * unusable (see [CircuitBreaker]).
+     */
+    private fun loadWhenInitialized(
+        format: Format,
+        mediationAdConfiguration: MediationAdConfiguration,
+        parameters: ServerParameters,
+        adUnit: AdUnit,
+        listener: MediationAdLoadCallback<*, *>,
+        tagForChildDirectedTreatment: Boolean?,
+        load: (loadTimeoutMs: Long, bid: Bid?, onLoadFinished: (AdError?) -> Unit) -> Unit
+    ) {
+        LoadMetrics.count(format, adUnit.adUnitId, Counter.LOAD)
+
+        val context = mediationAdConfiguration.context
+        CriteoInitializer.connectivityMonitor.start(context)
+        if (CriteoInitializer.connectivityMonitor.isOffline()) {
+            LoadMetrics.count(format, adUnit.adUnitId, Counter.OFFLINE)
+            listener.onFailure(networkError())
+            return
+        }
+
+        if (noFillBackoff.isBackingOff(adUnit)) {
+            LoadMetrics.count(format, adUnit.adUnitId, Counter.NO_FILL_BACKOFF)
+            listener.onFailure(noFillError())
+            return
         }
 
-        val adUnit = initAdUnit(
-            formatType,
-            adUnitId,
-            (mediationAdConfiguration as? MediationBannerAdConfiguration)?.adSize
+        CriteoInitializer.initSnapshotStore.record(
+            context,
+            parameters,
+            listOf(adUnit),
+            tagForChildDirectedTreatment
         )
-        try {
-            Criteo.getInstance().setTagForChildDirectedTreatment(tagForChildDirectedTreatment)
-            return true
-        } catch (ex: Exception) {
-            try {
-                Criteo.Builder(
-                    (mediationAdConfiguration.context.applicationContext as Application),
-                    criteoPublisherId
-                )
-                    // TODO: move AdUnit creation to separate loaders when prefetch feature is removed
-                    .adUnits(listOf(adUnit))
-                    .inventoryGroupId(inventoryGroupId)
-                    .tagForChildDirectedTreatment(tagForChildDirectedTreatment)
-                    .init()
-            } catch (e: CriteoInitException) {
-                val error = adapterInitializationError()
-                listener.onFailure(error)
-                Log.e(TAG, error.message, e)
-                return false
+
+        // This load fetches a bid itself, and then the SDK keeps its cache warm for this ad unit
+        CriteoInitializer.bidPrefetcher.markAsFetched(listOf(adUnit))
+
+        val coalescedLoad = {
+            loadCoalescer.load(
+                adUnit,
+                parameters.loadTimeoutMs,
+                { error ->
+                    if (error.code == ERROR_CODE_LOAD_TIMEOUT) {
+                        LoadMetrics.count(format, adUnit.adUnitId, Counter.TIMEOUT)
+                    }
+                    listener.onFailure(error)
+                }
+            ) { loadTimeoutMs, bid, onLoadFinished ->
+                if (circuitBreaker.tryAcquire()) {
+                    load(loadTimeoutMs, bid) { error ->
+                        circuitBreaker.onLoadFinished(error)
+                        noFillBackoff.onLoadFinished(adUnit, error, parameters)
+                        onLoadFinished(error)
+                    }
+                } else {
+                    LoadMetrics.count(format, adUnit.adUnitId, Counter.CIRCUIT_OPEN)
+                    val error = networkError()
+                    listener.onFailure(error)
+                    onLoadFinished(error)
+                }
             }
-            listener.onFailure(noFillError())
-            return false
+        }
+
+        val isInitialized = LoadMetrics.measure(
+            format,
+            adUnit.adUnitId,
+            Phase.CHECK_INITIALIZATION
+        ) {
+            CriteoInitializer.isInitialized()
+        }
+        if (isInitialized) {
+            Criteo.getInstance().setTagForChildDirectedTreatment(tagForChildDirectedTreatment)
+            coalescedLoad()
+            return
+        }
+
+        try {
+            CriteoInitializer.initialize(
+                context,
+                parameters.criteoPublisherId,
+                parameters.inventoryGroupId,
+                CriteoInitializer.adUnitRegistry.knownAdUnits(),
+                tagForChildDirectedTreatment
+            )
+        } catch (e: CriteoInitException) {
+            val error = adapterInitializationError()
+            listener.onFailure(error)
+            Log.e(TAG, error.message, e)
+            return
+        }
+
+        LoadMetrics.count(format, adUnit.adUnitId, Counter.INIT_QUEUE_WAIT)
+        CriteoInitializer.pendingLoads.park(parameters.initQueueTimeoutMs, coalescedLoad) {
+            listener.onFailure(it)
         }
     }
 
-    private fun initAdUnit(
-        formatType: FormatType,
+    private fun takePrefetchedBid(format: Format, adUnit: AdUnit): Bid? {
+        val bid = CriteoInitializer.bidPrefetcher.takeBid(adUnit)
+        if (bid != null) {
+            LoadMetrics.count(format, adUnit.adUnitId, Counter.PREFETCHED_BID_USED)
+        }
+        return bid
+    }
+
+    private fun registerAdUnit(
+        format: Format,
         adUnitId: String,
         size: AdSize?
     ): AdUnit {
-        return when (formatType) {
-            FormatType.BANNER -> {
-                val adMobSize = com.criteo.publisher.model.AdSize(
-                    size!!.width,
-                    size.height
-                )
-                BannerAdUnit(adUnitId, adMobSize).also { bannerAdUnit = it }
-            }
-            FormatType.INTERSTITIAL -> InterstitialAdUnit(adUnitId).also {
-                interstitialAdUnit = it
-            }
-            FormatType.NATIVE -> NativeAdUnit(adUnitId).also {
-                nativeAdUnit = it
-            }
+        val registry = CriteoInitializer.adUnitRegistry
+        return when (format) {
+            Format.BANNER -> registry.banner(adUnitId, size!!.toCriteoAdSize())
+            Format.INTERSTITIAL -> registry.interstitial(adUnitId)
+            Format.NATIVE -> registry.native(adUnitId)
         }
     }
 
+    private fun AdSize.toCriteoAdSize(): com.criteo.publisher.model.AdSize {
+        return com.criteo.publisher.model.AdSize(width, height)
+    }
+
     private fun Int.toCriteoChildDirectedTreatmentFlag(): Boolean? {
         return when (this) {
             MediationAdConfiguration.TAG_FOR_CHILD_DIRECTED_TREATMENT_TRUE -> true
@@ -243,12 +491,45 @@ class CriteoAdapter : Adapter() {
 
         internal const val SERVER_PARAMETER_KEY = "parameter"
 
+        /**
+         * Event loaders whose load is running.
+         *
+         * Nothing else is guaranteed to hold a loader until its callback is invoked (the native
+         * loader is even thrown away directly), so they are held here to not be garbage collected
+         * in the middle of their load.
+         */
+        private val inFlightLoaders: MutableSet<Any> =
+            Collections.newSetFromMap(ConcurrentHashMap<Any, Boolean>())
+
+        @VisibleForTesting
+        internal fun inFlightLoaderCount(): Int = inFlightLoaders.size
+
+        @VisibleForTesting
+        internal var loadCoalescer = LoadCoalescer(
+            CriteoInitializer.mainHandler,
+            fetchBid = { adUnit, onBid ->
+                // While the circuit breaker is open or probing, waiting loads send no bid requests
+                if (circuitBreaker.isOpen()) {
+                    false
+                } else {
+                    Criteo.getInstance().loadBid(adUnit) { onBid(it) }
+                    true
+                }
+            },
+            keepLeftoverBid = { adUnit, bid ->
+                CriteoInitializer.bidPrefetcher.keepBid(adUnit, bid)
+            }
+        )
+
+        private val noFillBackoff = NoFillBackoff()
+
+        /**
+         * Shared by all loads, and by the [BannerPreloader]. It is only replaced in tests.
+         */
+        internal var circuitBreaker = CircuitBreaker()
+
         @JvmStatic
         internal val DEFAULT_VERSION_INFO = VersionInfo(0, 0, 0)
-
-        private const val CRITEO_PUBLISHER_ID = "cpId"
-        private const val INVENTORY_GROUP_ID = "inventoryGroupId"
-        private const val AD_UNIT_ID = "adUnitId"
     }
 
 }
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.net.Uri
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.CriteoInitException
+
+/**
+ * Optional entry point initializing the Criteo SDK when the application starts.
+ *
+ * The SDK is initialized from the last parameters seen by the adapter (see [InitSnapshotStore]),
+ * so the prefetch of bids can run in parallel with AdMob initialization instead of waiting for the
+ * first ad request. Nothing is done on the very first launch, when no snapshot exists yet, nor
+ * when the snapshot is unreadable.
+ *
+ * This provider is disabled by default. Publishers can enable it by overriding the
+ * `criteo_adapter_early_initialization` boolean resource to `true` in their application.
+ */
+class CriteoAdapterInitProvider : ContentProvider() {
+
+    override fun onCreate(): Boolean {
+        val context = context ?: return false
+        return initializeFromSnapshot(context)
+    }
+
+    override fun query(
+        uri: Uri,
+        projection: Array<out String>?,
+        selection: String?,
+        selectionArgs: Array<out String>?,
+        sortOrder: String?
+    ): Cursor? = null
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = 0
+
+    override fun update(
+        uri: Uri,
+        values: ContentValues?,
+        selection: String?,
+        selectionArgs: Array<out String>?
+    ): Int = 0
+
+    internal companion object {
+        private val TAG = CriteoAdapterInitProvider::class.java.simpleName
+
+        /**
+         * Initialize the SDK from the snapshot, if any, and return whether there was one.
+         */
+        @VisibleForTesting
+        internal fun initializeFromSnapshot(context: Context): Boolean {
+            val snapshot = CriteoInitializer.initSnapshotStore.read(context) ?: return false
+
+            if (!CriteoInitializer.isInitialized()) {
+                try {
+                    CriteoInitializer.initialize(
+                        context,
+                        snapshot.criteoPublisherId,
+                        snapshot.inventoryGroupId,
+                        snapshot.adUnits.map { CriteoInitializer.adUnitRegistry.intern(it) },
+                        snapshot.tagForChildDirectedTreatment
+                    )
+                } catch (e: CriteoInitException) {
+                    Log.w(TAG, "Early initialization of the Criteo SDK failed", e)
+                }
+            }
+            return true
+        }
+    }
+}
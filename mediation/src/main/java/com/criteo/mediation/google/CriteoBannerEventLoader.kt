@@ -16,39 +16,133 @@
 
 package com.criteo.mediation.google
 
+import android.content.Context
+import android.os.Handler
 import android.view.View
+import android.view.ViewGroup
+import com.criteo.mediation.google.metrics.AdapterTrace
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.mediation.google.metrics.Phase
+import com.criteo.publisher.Bid
 import com.criteo.publisher.CriteoBannerAdListener
 import com.criteo.publisher.CriteoBannerView
 import com.criteo.publisher.CriteoErrorCode
 import com.criteo.publisher.model.BannerAdUnit
+import com.google.android.gms.ads.AdError
 import com.google.android.gms.ads.mediation.MediationAdLoadCallback
 import com.google.android.gms.ads.mediation.MediationBannerAd
 import com.google.android.gms.ads.mediation.MediationBannerAdCallback
 import com.google.android.gms.ads.mediation.MediationBannerAdConfiguration
 
-class CriteoBannerEventLoader(
+class CriteoBannerEventLoader internal constructor(
     private val mediationBannerAdConfiguration: MediationBannerAdConfiguration,
     private val mediationAdLoadCallback: MediationAdLoadCallback<MediationBannerAd, MediationBannerAdCallback>,
-    private val bannerAdUnit: BannerAdUnit
+    private val bannerAdUnit: BannerAdUnit,
+    loadTimeoutMs: Long = 0,
+    handler: Handler = CriteoInitializer.mainHandler,
+    private val bannerViewPool: BannerViewPool = CriteoInitializer.bannerViewPool,
+    private val onLoadFinished: (AdError?) -> Unit = {}
 ) : CriteoBannerAdListener, MediationBannerAd {
 
+    constructor(
+        mediationBannerAdConfiguration: MediationBannerAdConfiguration,
+        mediationAdLoadCallback: MediationAdLoadCallback<MediationBannerAd, MediationBannerAdCallback>,
+        bannerAdUnit: BannerAdUnit
+    ) : this(mediationBannerAdConfiguration, mediationAdLoadCallback, bannerAdUnit, 0)
+
     private lateinit var mediationBannerAdCallback: MediationBannerAdCallback
     private lateinit var bannerView: CriteoBannerView
 
-    fun loadAd() {
-        bannerView = CriteoBannerView(mediationBannerAdConfiguration.context, bannerAdUnit)
+    /**
+     * Context in which [bannerView] is requested, and to which it is given back once unused.
+     */
+    private var bannerViewContext: Context? = null
+
+    private val loadDeadline = LoadDeadline(handler, loadTimeoutMs) { onLoadTimeout() }
+    private var loadStartNanos = 0L
+    private var bidWaitTraceCookie = 0
+
+    /**
+     * Load an ad, from the given prefetched bid if any.
+     */
+    @JvmOverloads
+    fun loadAd(bid: Bid? = null) {
+        val context = mediationBannerAdConfiguration.context
+        bannerViewContext = context
+        bannerView = bannerViewPool.acquire(context, bannerAdUnit)
+            ?: CriteoBannerView(context, bannerAdUnit)
         bannerView.setCriteoBannerAdListener(this)
-        bannerView.loadAd()
+        startLoad()
+        if (bid == null) {
+            bannerView.loadAd()
+        } else {
+            bannerView.loadAd(bid)
+        }
+    }
+
+    /**
+     * Load an ad from a banner preloaded by the [BannerPreloader], which may already be received.
+     */
+    internal fun loadAd(preloadedBanner: BannerPreloader.PreloadedBanner) {
+        bannerViewContext = mediationBannerAdConfiguration.context
+        bannerView = preloadedBanner.view
+        startLoad()
+        count(Counter.PRELOADED_BANNER_USED)
+        preloadedBanner.handOver(this)
+    }
+
+    private fun startLoad() {
+        loadDeadline.start()
+        loadStartNanos = LoadMetrics.now()
+        bidWaitTraceCookie = AdapterTrace.beginAsyncSection(AdapterTrace.BANNER_BID_WAIT)
     }
 
     override fun onAdReceived(view: CriteoBannerView) {
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.BANNER_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        count(Counter.FILL)
         bannerView = view
-        mediationBannerAdCallback = mediationAdLoadCallback.onSuccess(this)
+        bannerViewContext?.let { bannerViewPool.releaseWhenDetached(it, bannerAdUnit, view) }
+        mediationBannerAdCallback = measurePhase(Phase.NOTIFY_SUCCESS) {
+            mediationAdLoadCallback.onSuccess(this)
+        }
         mediationBannerAdCallback.reportAdImpression()
+        onLoadFinished(null)
     }
 
     override fun onAdFailedToReceive(code: CriteoErrorCode) {
-        mediationAdLoadCallback.onFailure(code.toAdMobAdError())
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.BANNER_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        countFailure(code)
+        bannerViewContext?.let {
+            bannerView.setCriteoBannerAdListener(null)
+            bannerViewPool.release(it, bannerAdUnit, bannerView)
+        }
+        val error = code.toAdMobAdError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
+    }
+
+    private fun onLoadTimeout() {
+        AdapterTrace.endAsyncSection(AdapterTrace.BANNER_BID_WAIT, bidWaitTraceCookie)
+
+        // Stop the running load, and detach its view: its result would not be used anyway
+        bannerView.setCriteoBannerAdListener(null)
+        (bannerView.parent as? ViewGroup)?.removeView(bannerView)
+        bannerView.destroy()
+
+        count(Counter.TIMEOUT)
+        val error = loadTimeoutError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
     }
 
     override fun onAdLeftApplication() {
@@ -63,4 +157,20 @@ class CriteoBannerEventLoader(
     override fun getView(): View {
         return bannerView
     }
+
+    private fun count(counter: Counter) {
+        LoadMetrics.count(Format.BANNER, bannerAdUnit.adUnitId, counter)
+    }
+
+    private fun countFailure(errorCode: CriteoErrorCode) {
+        LoadMetrics.countFailure(Format.BANNER, bannerAdUnit.adUnitId, errorCode)
+    }
+
+    private fun recordPhaseSince(phase: Phase, startNanos: Long) {
+        LoadMetrics.recordSince(Format.BANNER, bannerAdUnit.adUnitId, phase, startNanos)
+    }
+
+    private inline fun <T> measurePhase(phase: Phase, block: () -> T): T {
+        return LoadMetrics.measure(Format.BANNER, bannerAdUnit.adUnitId, phase, block)
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Application
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import com.criteo.mediation.google.advancednative.NativeImageCache
+import com.criteo.mediation.google.metrics.AdapterTrace
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.CriteoInitException
+import com.criteo.publisher.model.AdUnit
+
+/**
+ * Initializes the Criteo SDK on behalf of the adapter.
+ *
+ * Ad requests received while the SDK is starting can be parked in [pendingLoads]. They are
+ * replayed once the initialization is over.
+ *
+ * Ad units used by the adapter are all interned in [adUnitRegistry]. The ones discovered after the
+ * initialization are prefetched by [bidPrefetcher].
+ */
+internal object CriteoInitializer {
+
+    @JvmStatic
+    val mainHandler = Handler(Looper.getMainLooper())
+
+    @JvmStatic
+    val pendingLoads = PendingLoadQueue(mainHandler)
+
+    @JvmStatic
+    val adUnitRegistry = AdUnitRegistry()
+
+    @JvmStatic
+    val bidPrefetcher = BidPrefetcher()
+
+    @JvmStatic
+    val connectivityMonitor = ConnectivityMonitor()
+
+    @JvmStatic
+    val bannerViewPool = BannerViewPool()
+
+    @JvmStatic
+    val bannerPreloader = BannerPreloader(mainHandler, bannerViewPool)
+
+    @JvmStatic
+    val interstitialPool = InterstitialPool(mainHandler)
+
+    @JvmStatic
+    val webViewWarmUpPool = WebViewWarmUpPool(mainHandler)
+
+    @JvmStatic
+    val nativeImageCache = NativeImageCache(mainHandler)
+
+    @JvmStatic
+    val initSnapshotStore = InitSnapshotStore()
+
+    private var isInitializing = false
+
+    fun isInitialized(): Boolean {
+        return try {
+            Criteo.getInstance()
+            true
+        } catch (ex: Exception) {
+            false
+        }
+    }
+
+    /**
+     * Initialize the Criteo SDK with the given parameters and ad units to prefetch.
+     *
+     * If an initialization is already running, this does nothing: parked loads are replayed when
+     * the running one is over.
+     */
+    @Throws(CriteoInitException::class)
+    fun initialize(
+        context: Context,
+        criteoPublisherId: String,
+        inventoryGroupId: String?,
+        adUnits: List<AdUnit>,
+        tagForChildDirectedTreatment: Boolean?
+    ) {
+        synchronized(this) {
+            if (isInitializing) {
+                return
+            }
+            isInitializing = true
+        }
+
+        try {
+            AdapterTrace.section(AdapterTrace.INIT_CRITEO) {
+                Criteo.Builder(context.applicationContext as Application, criteoPublisherId)
+                    .adUnits(adUnits)
+                    .inventoryGroupId(inventoryGroupId)
+                    .tagForChildDirectedTreatment(tagForChildDirectedTreatment)
+                    .init()
+            }
+        } catch (e: CriteoInitException) {
+            pendingLoads.failAll(adapterInitializationError())
+            throw e
+        } finally {
+            synchronized(this) {
+                isInitializing = false
+            }
+        }
+
+        // Ad units discovered while the SDK was starting were not given to it
+        bidPrefetcher.markAsFetched(adUnits)
+        prefetchNewAdUnits()
+
+        pendingLoads.replayAll()
+    }
+
+    /**
+     * Prefetch bids for the ad units of [adUnitRegistry] that are not known by the SDK yet.
+     *
+     * The SDK should already be initialized.
+     */
+    fun prefetchNewAdUnits() {
+        bidPrefetcher.prefetch(Criteo.getInstance(), adUnitRegistry.knownAdUnits())
+    }
+}
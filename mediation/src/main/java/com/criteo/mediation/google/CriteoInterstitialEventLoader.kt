@@ -17,38 +17,121 @@
 package com.criteo.mediation.google
 
 import android.content.Context
+import android.os.Handler
+import com.criteo.mediation.google.metrics.AdapterTrace
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.mediation.google.metrics.Phase
+import com.criteo.publisher.Bid
 import com.criteo.publisher.CriteoErrorCode
 import com.criteo.publisher.CriteoInterstitial
 import com.criteo.publisher.CriteoInterstitialAdListener
 import com.criteo.publisher.model.InterstitialAdUnit
+import com.google.android.gms.ads.AdError
 import com.google.android.gms.ads.mediation.MediationAdLoadCallback
 import com.google.android.gms.ads.mediation.MediationInterstitialAd
 import com.google.android.gms.ads.mediation.MediationInterstitialAdCallback
 
-class CriteoInterstitialEventLoader(
+class CriteoInterstitialEventLoader internal constructor(
     private val mediationAdLoadCallback: MediationAdLoadCallback<MediationInterstitialAd, MediationInterstitialAdCallback>,
-    private val interstitialAdUnit: InterstitialAdUnit
+    private val interstitialAdUnit: InterstitialAdUnit,
+    loadTimeoutMs: Long = 0,
+    handler: Handler = CriteoInitializer.mainHandler,
+    private val onLoadFinished: (AdError?) -> Unit = {}
 ) : CriteoInterstitialAdListener, MediationInterstitialAd {
 
+    constructor(
+        mediationAdLoadCallback: MediationAdLoadCallback<MediationInterstitialAd, MediationInterstitialAdCallback>,
+        interstitialAdUnit: InterstitialAdUnit
+    ) : this(mediationAdLoadCallback, interstitialAdUnit, 0)
+
     private lateinit var criteoInterstitial: CriteoInterstitial
     private lateinit var mediationInterstitialAdCallback: MediationInterstitialAdCallback
+    private val loadDeadline = LoadDeadline(handler, loadTimeoutMs) { onLoadTimeout() }
+    private var loadStartNanos = 0L
+    private var bidWaitTraceCookie = 0
+    private var isShowing = false
+    private var showStartNanos = 0L
+    private var showTraceCookie = 0
 
-    fun loadAd() {
+    /**
+     * Load an ad, from the given prefetched bid if any.
+     */
+    @JvmOverloads
+    fun loadAd(bid: Bid? = null) {
         val interstitialAd = CriteoInterstitial(interstitialAdUnit)
+        criteoInterstitial = interstitialAd
         interstitialAd.setCriteoInterstitialAdListener(this)
-        interstitialAd.loadAd()
+        startLoad()
+        if (bid == null) {
+            interstitialAd.loadAd()
+        } else {
+            interstitialAd.loadAd(bid)
+        }
+    }
+
+    /**
+     * Load an ad from an interstitial already loaded by the [InterstitialPool].
+     */
+    internal fun loadAd(pooledInterstitial: CriteoInterstitial) {
+        criteoInterstitial = pooledInterstitial
+        pooledInterstitial.setCriteoInterstitialAdListener(this)
+        startLoad()
+        count(Counter.POOLED_INTERSTITIAL_USED)
+        onAdReceived(pooledInterstitial)
+    }
+
+    private fun startLoad() {
+        loadDeadline.start()
+        loadStartNanos = LoadMetrics.now()
+        bidWaitTraceCookie = AdapterTrace.beginAsyncSection(AdapterTrace.INTERSTITIAL_BID_WAIT)
     }
 
     override fun onAdReceived(interstitial: CriteoInterstitial) {
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.INTERSTITIAL_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        count(Counter.FILL)
         criteoInterstitial = interstitial
-        mediationInterstitialAdCallback = mediationAdLoadCallback.onSuccess(this)
+        mediationInterstitialAdCallback = measurePhase(Phase.NOTIFY_SUCCESS) {
+            mediationAdLoadCallback.onSuccess(this)
+        }
+        onLoadFinished(null)
     }
 
     override fun onAdFailedToReceive(code: CriteoErrorCode) {
-        mediationAdLoadCallback.onFailure(code.toAdMobAdError())
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.INTERSTITIAL_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        countFailure(code)
+        val error = code.toAdMobAdError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
+    }
+
+    private fun onLoadTimeout() {
+        AdapterTrace.endAsyncSection(AdapterTrace.INTERSTITIAL_BID_WAIT, bidWaitTraceCookie)
+
+        // The SDK has no way to cancel an interstitial load, but its result is not listened anymore
+        criteoInterstitial.setCriteoInterstitialAdListener(null)
+
+        count(Counter.TIMEOUT)
+        val error = loadTimeoutError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
     }
 
     override fun onAdOpened() {
+        if (isShowing) {
+            isShowing = false
+            AdapterTrace.endAsyncSection(AdapterTrace.INTERSTITIAL_SHOW, showTraceCookie)
+            recordPhaseSince(Phase.SHOW_TO_OPENED, showStartNanos)
+        }
         mediationInterstitialAdCallback.reportAdImpression()
         mediationInterstitialAdCallback.onAdOpened()
     }
@@ -66,6 +149,25 @@ class CriteoInterstitialEventLoader(
     }
 
     override fun showAd(context: Context) {
+        isShowing = true
+        showStartNanos = LoadMetrics.now()
+        showTraceCookie = AdapterTrace.beginAsyncSection(AdapterTrace.INTERSTITIAL_SHOW)
         criteoInterstitial.show()
     }
+
+    private fun count(counter: Counter) {
+        LoadMetrics.count(Format.INTERSTITIAL, interstitialAdUnit.adUnitId, counter)
+    }
+
+    private fun countFailure(errorCode: CriteoErrorCode) {
+        LoadMetrics.countFailure(Format.INTERSTITIAL, interstitialAdUnit.adUnitId, errorCode)
+    }
+
+    private fun recordPhaseSince(phase: Phase, startNanos: Long) {
+        LoadMetrics.recordSince(Format.INTERSTITIAL, interstitialAdUnit.adUnitId, phase, startNanos)
+    }
+
+    private inline fun <T> measurePhase(phase: Phase, block: () -> T): T {
+        return LoadMetrics.measure(Format.INTERSTITIAL, interstitialAdUnit.adUnitId, phase, block)
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.AdUnit
+import com.criteo.publisher.model.BannerAdUnit
+import com.criteo.publisher.model.InterstitialAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parameters required to initialize the Criteo SDK without waiting for AdMob.
+ */
+internal data class InitSnapshot(
+    val criteoPublisherId: String,
+    val inventoryGroupId: String?,
+    val tagForChildDirectedTreatment: Boolean?,
+    val adUnits: List<AdUnit>
+)
+
+/**
+ * Persist the last parameters and ad units seen by the adapter.
+ *
+ * The snapshot is read by [CriteoAdapterInitProvider] at the next application start, so that the
+ * SDK can be initialized, and its prefetch can start, in parallel with AdMob initialization.
+ *
+ * Recording is called on every ad request, on the main thread. So new parameters and ad units are
+ * detected in memory, and only written when new, on the given executor, which should be serial.
+ */
+internal class InitSnapshotStore(
+    private val executor: Executor = createExecutor()
+) {
+
+    private var recordedHeader: Header? = null
+    private val recordedAdUnits = HashSet<String>()
+
+    /**
+     * Read the snapshot, or return `null` if there is none, or if it is unreadable.
+     */
+    fun read(context: Context): InitSnapshot? {
+        val sharedPreferences = context.getSharedPreferences()
+        return try {
+            val criteoPublisherId =
+                sharedPreferences.getString(CRITEO_PUBLISHER_ID, null) ?: return null
+            val adUnits = sharedPreferences.getStringSet(AD_UNITS, null).orEmpty()
+                .mapNotNull { decodeAdUnit(it) }
+
+            InitSnapshot(
+                criteoPublisherId,
+                sharedPreferences.getString(INVENTORY_GROUP_ID, null),
+                if (sharedPreferences.contains(TAG_FOR_CHILD_DIRECTED_TREATMENT)) {
+                    sharedPreferences.getBoolean(TAG_FOR_CHILD_DIRECTED_TREATMENT, false)
+                } else {
+                    null
+                },
+                adUnits
+            )
+        } catch (e: ClassCastException) {
+            // Preferences of another type under the same keys: this is not a snapshot
+            null
+        }
+    }
+
+    /**
+     * Record the given parameters and ad units in the snapshot.
+     *
+     * Only new parameters and ad units are written, in background, so this is cheap to call on
+     * every ad request. Ad units of unknown types are skipped.
+     */
+    fun record(
+        context: Context,
+        parameters: ServerParameters,
+        adUnits: List<AdUnit>,
+        tagForChildDirectedTreatment: Boolean?
+    ) {
+        val header = Header(
+            parameters.criteoPublisherId,
+            parameters.inventoryGroupId,
+            tagForChildDirectedTreatment
+        )
+        val encodedAdUnits = adUnits.mapNotNull { encodeAdUnit(it) }
+
+        synchronized(this) {
+            if (recordedHeader == header && recordedAdUnits.containsAll(encodedAdUnits)) {
+                return
+            }
+            if (recordedHeader?.criteoPublisherId != header.criteoPublisherId) {
+                recordedAdUnits.clear()
+            }
+            recordedHeader = header
+            recordedAdUnits.addAll(encodedAdUnits)
+        }
+
+        val applicationContext = context.applicationContext ?: context
+        executor.execute { write(applicationContext, header, encodedAdUnits) }
+    }
+
+    private fun write(context: Context, header: Header, encodedAdUnits: List<String>) {
+        val sharedPreferences = context.getSharedPreferences()
+
+        // Keep ad units seen during previous sessions, such as banners whose size is only known at
+        // request time. Ad units of another publisher are useless.
+        val adUnitsToWrite = LinkedHashSet<String>()
+        val persistedPublisherId = try {
+            sharedPreferences.getString(CRITEO_PUBLISHER_ID, null)
+        } catch (e: ClassCastException) {
+            null
+        }
+        if (persistedPublisherId == header.criteoPublisherId) {
+            adUnitsToWrite.addAll(sharedPreferences.getStringSet(AD_UNITS, null).orEmpty())
+        }
+        adUnitsToWrite.removeAll(encodedAdUnits.toSet())
+        adUnitsToWrite.addAll(encodedAdUnits)
+        while (adUnitsToWrite.size > MAX_AD_UNITS) {
+            adUnitsToWrite.remove(adUnitsToWrite.first())
+        }
+
+        val editor = sharedPreferences.edit()
+            .putString(CRITEO_PUBLISHER_ID, header.criteoPublisherId)
+            .putString(INVENTORY_GROUP_ID, header.inventoryGroupId)
+            .putStringSet(AD_UNITS, adUnitsToWrite)
+        if (header.tagForChildDirectedTreatment == null) {
+            editor.remove(TAG_FOR_CHILD_DIRECTED_TREATMENT)
+        } else {
+            editor.putBoolean(TAG_FOR_CHILD_DIRECTED_TREATMENT, header.tagForChildDirectedTreatment)
+        }
+        editor.apply()
+    }
+
+    private fun Context.getSharedPreferences(): SharedPreferences {
+        return getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+    }
+
+    private data class Header(
+        val criteoPublisherId: String,
+        val inventoryGroupId: String?,
+        val tagForChildDirectedTreatment: Boolean?
+    )
+
+    companion object {
+        private const val PREFERENCES_NAME = "com.criteo.mediation.google.InitSnapshot"
+        private const val CRITEO_PUBLISHER_ID = "cpId"
+        private const val INVENTORY_GROUP_ID = "inventoryGroupId"
+        private const val TAG_FOR_CHILD_DIRECTED_TREATMENT = "tagForChildDirectedTreatment"
+        private const val AD_UNITS = "adUnits"
+
+        private const val BANNER = "banner"
+        private const val INTERSTITIAL = "interstitial"
+        private const val NATIVE = "native"
+        private const val SEPARATOR = '|'
+
+        /**
+         * Upper bound of persisted ad units, so that the snapshot stays small even if the
+         * publisher keeps creating new ad units.
+         */
+        @VisibleForTesting
+        internal const val MAX_AD_UNITS = 64
+
+        /**
+         * Encode the given ad unit, or return `null` if its type is unknown.
+         */
+        @VisibleForTesting
+        internal fun encodeAdUnit(adUnit: AdUnit): String? {
+            val (format, size) = when (adUnit) {
+                is BannerAdUnit -> BANNER to adUnit.size
+                is InterstitialAdUnit -> INTERSTITIAL to null
+                is NativeAdUnit -> NATIVE to null
+                else -> return null
+            }
+            return listOf(format, size?.width ?: 0, size?.height ?: 0, adUnit.adUnitId)
+                .joinToString(SEPARATOR.toString())
+        }
+
+        @VisibleForTesting
+        internal fun decodeAdUnit(encodedAdUnit: String): AdUnit? {
+            val tokens = encodedAdUnit.split(SEPARATOR, limit = 4)
+            if (tokens.size != 4) {
+                return null
+            }
+
+            val adUnitId = tokens[3]
+            return when (tokens[0]) {
+                BANNER -> {
+                    val width = tokens[1].toIntOrNull() ?: return null
+                    val height = tokens[2].toIntOrNull() ?: return null
+                    BannerAdUnit(adUnitId, AdSize(width, height))
+                }
+                INTERSTITIAL -> InterstitialAdUnit(adUnitId)
+                NATIVE -> NativeAdUnit(adUnitId)
+                else -> null
+            }
+        }
+
+        private fun createExecutor(): Executor {
+            val executor = ThreadPoolExecutor(
+                1,
+                1,
+                30,
+                TimeUnit.SECONDS,
+                LinkedBlockingQueue<Runnable>()
+            ) { runnable -> Thread(runnable, "CriteoAdapterInitSnapshot") }
+            executor.allowCoreThreadTimeOut(true)
+            return executor
+        }
+    }
+}
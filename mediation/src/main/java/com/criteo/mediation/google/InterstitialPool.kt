@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.CriteoInterstitial
+import com.criteo.publisher.CriteoInterstitialAdListener
+import com.criteo.publisher.model.InterstitialAdUnit
+import java.util.ArrayDeque
+
+/**
+ * Interstitials loaded ahead of their ad requests, per ad unit, so that they can be shown at once.
+ *
+ * Each time an interstitial is requested for an ad unit with a pool, a ready interstitial is taken
+ * from it if any. Once that ad request is filled, the pool is refilled in the background up to its
+ * size. Interstitials that are not taken before their TTL, which should match the lifetime of their
+ * bid, are evicted without being shown.
+ *
+ * Pools are only refilled on filled ad requests, so ad units that are not requested anymore, or
+ * whose requests are rejected by the no-fill back-off or the circuit breaker, do not cost more bids
+ * than the ones already in their pool.
+ */
+internal class InterstitialPool(
+    private val handler: Handler,
+    private val canLoad: () -> Boolean = {
+        CriteoInitializer.isInitialized() && !CriteoInitializer.connectivityMonitor.isOffline()
+    },
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+    private val createInterstitial: (InterstitialAdUnit) -> CriteoInterstitial = {
+        CriteoInterstitial(it)
+    }
+) {
+
+    private val pools = HashMap<InterstitialAdUnit, Pool>()
+
+    /**
+     * Return a ready interstitial of the given ad unit, if any. It is not listened by the pool
+     * anymore.
+     */
+    fun take(adUnit: InterstitialAdUnit): CriteoInterstitial? {
+        val now = clock()
+        val entry = synchronized(pools) {
+            val pool = pools[adUnit] ?: return null
+            var entry: Entry?
+            do {
+                entry = pool.ready.pollFirst()
+            } while (entry != null && (entry.expiresAtMs <= now || !entry.interstitial.isAdLoaded))
+            entry
+        } ?: return null
+
+        handler.removeCallbacks(entry.expiration)
+        return entry.interstitial
+    }
+
+    /**
+     * Load new interstitials for the given ad unit, in the background, until it has the given number
+     * of ready or loading interstitials.
+     */
+    fun refill(adUnit: InterstitialAdUnit, size: Int, ttlMs: Long) {
+        handler.post { load(adUnit, size, ttlMs) }
+    }
+
+    @VisibleForTesting
+    internal fun readyCount(adUnit: InterstitialAdUnit): Int {
+        return synchronized(pools) { pools[adUnit]?.ready?.size ?: 0 }
+    }
+
+    private fun load(adUnit: InterstitialAdUnit, size: Int, ttlMs: Long) {
+        if (!canLoad()) {
+            return
+        }
+
+        val missingCount = synchronized(pools) {
+            val pool = pools.getOrPut(adUnit) { Pool() }
+            (size - pool.ready.size - pool.loadingCount).also {
+                if (it > 0) {
+                    pool.loadingCount += it
+                }
+            }
+        }
+
+        repeat(missingCount) {
+            val interstitial = createInterstitial(adUnit)
+            interstitial.setCriteoInterstitialAdListener(Entry(adUnit, interstitial, ttlMs))
+            interstitial.loadAd()
+        }
+    }
+
+    private fun onReceived(entry: Entry) {
+        synchronized(pools) {
+            val pool = pools[entry.adUnit] ?: return
+            if (entry.isLoadFinished) {
+                return
+            }
+            entry.isLoadFinished = true
+            pool.loadingCount--
+            entry.expiresAtMs = clock() + entry.ttlMs
+            pool.ready.addLast(entry)
+        }
+        handler.postDelayed(entry.expiration, entry.ttlMs)
+    }
+
+    private fun onFailed(entry: Entry) {
+        synchronized(pools) {
+            val pool = pools[entry.adUnit] ?: return
+            if (entry.isLoadFinished) {
+                return
+            }
+            entry.isLoadFinished = true
+            pool.loadingCount--
+        }
+        entry.interstitial.setCriteoInterstitialAdListener(null)
+    }
+
+    private fun evict(entry: Entry) {
+        val isEvicted = synchronized(pools) {
+            pools[entry.adUnit]?.ready?.remove(entry) ?: false
+        }
+        if (isEvicted) {
+            entry.interstitial.setCriteoInterstitialAdListener(null)
+        }
+    }
+
+    private class Pool {
+        val ready = ArrayDeque<Entry>()
+        var loadingCount = 0
+    }
+
+    /**
+     * Pooled interstitial, listened by the pool until it is taken.
+     */
+    private inner class Entry(
+        val adUnit: InterstitialAdUnit,
+        val interstitial: CriteoInterstitial,
+        val ttlMs: Long
+    ) : CriteoInterstitialAdListener {
+
+        var isLoadFinished = false
+        var expiresAtMs = Long.MAX_VALUE
+
+        val expiration = Runnable { evict(this) }
+
+        override fun onAdReceived(interstitial: CriteoInterstitial) {
+            onReceived(this)
+        }
+
+        override fun onAdFailedToReceive(code: CriteoErrorCode) {
+            onFailed(this)
+        }
+    }
+}
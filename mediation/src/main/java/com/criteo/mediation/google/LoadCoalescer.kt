@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.Bid
+import com.criteo.publisher.model.AdUnit
+import com.google.android.gms.ads.AdError
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Single-flight of ad loads, keyed by ad unit.
+ *
+ * When several loads of the same ad unit are requested at the same time (AdMob retries, screen
+ * rotations, lists rebinding their views, ...), only the first one is sent to the SDK as is. Each
+ * other one gets a bid of its own with [fetchBid], fetched alongside the running load, and is
+ * started from this bid, on the handler thread, as soon as it is received. So the SDK loads of
+ * these loads skip their own bid request, and they are not delayed by the running load.
+ *
+ * If the running load fails before the bid of a waiting load is received, the waiting load fails
+ * with the same error. Loads answered without bid fail with a no-fill. Bids received for loads
+ * that are already over are kept with [keepLeftoverBid], for the next loads of their ad unit.
+ *
+ * When bids cannot be fetched, waiting loads are started once the running load is over, unless it
+ * failed. A timeout of the running load only tells about this load, so it is not shared.
+ *
+ * Each waiting load keeps its own deadline: a load waiting longer than its timeout fails with a
+ * timeout, and a started load is only given the rest of its timeout.
+ */
+internal class LoadCoalescer(
+    private val handler: Handler,
+    /**
+     * Start fetching a bid for the given ad unit, and give it, or `null` without bid, to the given
+     * callback. Return `false`, without invoking the callback, if no bid can be fetched now.
+     */
+    private val fetchBid: (AdUnit, (Bid?) -> Unit) -> Boolean,
+    private val keepLeftoverBid: (AdUnit, Bid) -> Unit,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    private val flights = HashMap<AdUnit, MutableList<WaitingLoad>>()
+
+    /**
+     * Start the given load now if no other load of this ad unit is running, else from a bid of its
+     * own or once the running one is over. The load should invoke the given `onLoadFinished`
+     * callback once it is over.
+     *
+     * @param timeoutMs deadline of the load, zero or less for none
+     * @param fail invoked instead of the load if the running load of this ad unit failed, if no bid
+     * was found for this load, or if the deadline expired while waiting
+     * @param start the load, given the rest of its timeout and the bid to load from, if any
+     */
+    fun load(
+        adUnit: AdUnit,
+        timeoutMs: Long,
+        fail: (AdError) -> Unit,
+        start: (remainingTimeoutMs: Long, bid: Bid?, onLoadFinished: (AdError?) -> Unit) -> Unit
+    ) {
+        val waitingLoad = WaitingLoad(adUnit, timeoutMs, clock(), start, fail)
+        val isWaiting = synchronized(flights) {
+            val waitingLoads = flights[adUnit]
+            if (waitingLoads == null) {
+                flights[adUnit] = mutableListOf()
+            } else {
+                waitingLoads += waitingLoad
+            }
+            waitingLoads != null
+        }
+
+        if (isWaiting) {
+            waitingLoad.startTimer()
+            waitingLoad.requestBid()
+        } else {
+            start(timeoutMs, null) { error -> onLoadFinished(adUnit, error) }
+        }
+    }
+
+    private fun onLoadFinished(adUnit: AdUnit, error: AdError?) {
+        val waitingLoads = synchronized(flights) { flights.remove(adUnit) } ?: return
+        if (waitingLoads.isEmpty()) {
+            return
+        }
+
+        // A timeout only tells about the running load, not about the next ones
+        val sharedError = error?.takeIf { it.code != ERROR_CODE_LOAD_TIMEOUT }
+        handler.post {
+            waitingLoads.forEach {
+                if (sharedError != null) {
+                    it.fail(sharedError)
+                } else if (!it.isFetchingBid) {
+                    it.start(null)
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    internal fun waitingLoadCount(adUnit: AdUnit): Int {
+        return synchronized(flights) { flights[adUnit]?.size ?: 0 }
+    }
+
+    private inner class WaitingLoad(
+        private val adUnit: AdUnit,
+        private val timeoutMs: Long,
+        private val requestedAtMs: Long,
+        private val onStart: (
+            remainingTimeoutMs: Long,
+            bid: Bid?,
+            onLoadFinished: (AdError?) -> Unit
+        ) -> Unit,
+        private val onFailure: (AdError) -> Unit
+    ) {
+        private val isDone = AtomicBoolean(false)
+
+        @Volatile
+        var isFetchingBid = false
+            private set
+
+        private val timeout = Runnable {
+            leaveFlight()
+            fail(loadTimeoutError())
+        }
+
+        fun startTimer() {
+            if (timeoutMs > 0) {
+                handler.postDelayed(timeout, timeoutMs)
+            }
+        }
+
+        fun requestBid() {
+            isFetchingBid = true
+            isFetchingBid = fetchBid(adUnit) { bid -> handler.post { onBid(bid) } }
+        }
+
+        private fun onBid(bid: Bid?) {
+            leaveFlight()
+            if (isDone.get()) {
+                if (bid != null) {
+                    keepLeftoverBid(adUnit, bid)
+                }
+            } else if (bid == null) {
+                fail(noFillError())
+            } else {
+                start(bid)
+            }
+        }
+
+        fun start(bid: Bid?) {
+            if (!isDone.compareAndSet(false, true)) {
+                return
+            }
+            handler.removeCallbacks(timeout)
+            val remainingTimeoutMs = if (timeoutMs > 0) {
+                (timeoutMs - (clock() - requestedAtMs)).coerceAtLeast(1)
+            } else {
+                timeoutMs
+            }
+
+            // Started loads are not waited for: next loads of this ad unit wait for a new flight
+            onStart(remainingTimeoutMs, bid) {}
+        }
+
+        fun fail(error: AdError) {
+            if (isDone.compareAndSet(false, true)) {
+                handler.removeCallbacks(timeout)
+                onFailure(error)
+            }
+        }
+
+        private fun leaveFlight() {
+            synchronized(flights) {
+                flights[adUnit]?.remove(this)
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Guards the result of one ad load, so AdMob is notified exactly once, and gives up on the load if
+ * it is not over before its deadline.
+ *
+ * The first of [tryFinish] or the deadline wins. Once the deadline fired, [tryFinish] always
+ * returns `false`, so late callbacks from the SDK are ignored.
+ */
+internal class LoadDeadline(
+    private val handler: Handler,
+    private val timeoutMs: Long,
+    onTimeout: () -> Unit
+) {
+
+    private val isFinished = AtomicBoolean(false)
+
+    private val timeout = Runnable {
+        if (isFinished.compareAndSet(false, true)) {
+            onTimeout()
+        }
+    }
+
+    /**
+     * Start the countdown. Nothing is done if the timeout is zero or less.
+     */
+    fun start() {
+        if (timeoutMs > 0) {
+            handler.postDelayed(timeout, timeoutMs)
+        }
+    }
+
+    /**
+     * Return `true` if the load is finished by this call, `false` if it was already finished or if
+     * the deadline already expired.
+     */
+    fun tryFinish(): Boolean {
+        if (!isFinished.compareAndSet(false, true)) {
+            return false
+        }
+        handler.removeCallbacks(timeout)
+        return true
+    }
+}
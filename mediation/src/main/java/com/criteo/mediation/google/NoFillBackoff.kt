@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.SystemClock
+import com.criteo.publisher.model.AdUnit
+import com.google.android.gms.ads.AdError
+import com.google.android.gms.ads.AdRequest
+
+/**
+ * Back-off of the ad units that keep returning no-fills.
+ *
+ * After [ServerParameters.noFillBackoffThreshold] consecutive no-fills of an ad unit, its loads are
+ * directly answered with a no-fill during a back-off window, instead of paying a whole bid round
+ * trip before AdMob can continue its waterfall. The window starts at
+ * [ServerParameters.noFillBackoffMs] and doubles with each new streak of no-fills, up to
+ * [ServerParameters.maxNoFillBackoffMs]. A fill resets everything.
+ *
+ * Other errors, such as network errors or timeouts, say nothing about the demand, so they neither
+ * count as no-fills nor reset the streak.
+ */
+internal class NoFillBackoff(
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    private val states = HashMap<AdUnit, State>()
+
+    /**
+     * Indicate if loads of the given ad unit should be answered with a no-fill without requesting
+     * a bid.
+     */
+    fun isBackingOff(adUnit: AdUnit): Boolean {
+        val state = synchronized(states) { states[adUnit] } ?: return false
+        return clock() < state.backoffEndMs
+    }
+
+    /**
+     * Update the state of the given ad unit with the result of one of its loads: `null` if it was
+     * filled, or the error it was answered with.
+     */
+    fun onLoadFinished(adUnit: AdUnit, error: AdError?, parameters: ServerParameters) {
+        if (error == null) {
+            synchronized(states) { states.remove(adUnit) }
+            return
+        }
+        if (error.code != AdRequest.ERROR_CODE_NO_FILL || parameters.noFillBackoffThreshold <= 0) {
+            return
+        }
+
+        synchronized(states) {
+            val state = states.getOrPut(adUnit) { State() }
+            state.consecutiveNoFills++
+            if (state.consecutiveNoFills < parameters.noFillBackoffThreshold) {
+                return
+            }
+
+            val backoffMs = backoffMsOf(state.streaks, parameters)
+            state.consecutiveNoFills = 0
+            state.streaks++
+            state.backoffEndMs = clock() + backoffMs
+        }
+    }
+
+    private fun backoffMsOf(streaks: Int, parameters: ServerParameters): Long {
+        val maxBackoffMs = parameters.maxNoFillBackoffMs
+        var backoffMs = parameters.noFillBackoffMs.coerceAtMost(maxBackoffMs)
+        repeat(streaks) {
+            if (backoffMs >= maxBackoffMs / 2) {
+                return maxBackoffMs
+            }
+            backoffMs *= 2
+        }
+        return backoffMs
+    }
+
+    private class State {
+        var consecutiveNoFills = 0
+        var streaks = 0
+        var backoffEndMs = Long.MIN_VALUE
+    }
+}
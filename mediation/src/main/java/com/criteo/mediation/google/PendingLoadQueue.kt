@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import androidx.annotation.VisibleForTesting
+import com.google.android.gms.ads.AdError
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Queue of ad requests received while the Criteo SDK is starting.
+ *
+ * Instead of answering those requests with a no-fill, they are parked until the SDK is ready and
+ * then replayed on the handler thread. A request that waits longer than its deadline is answered
+ * with a no-fill so that AdMob can continue its waterfall.
+ */
+internal class PendingLoadQueue(private val handler: Handler) {
+
+    private val pendingLoads = mutableListOf<PendingLoad>()
+
+    private var isReady = false
+
+    /**
+     * Park the given load until [replayAll] is called.
+     *
+     * If the queue is already ready, the load is directly scheduled for replay.
+     */
+    fun park(timeoutMs: Long, replay: () -> Unit, fail: (AdError) -> Unit) {
+        val pendingLoad = PendingLoad(replay, fail)
+        val isReplayable = synchronized(this) {
+            if (!isReady) {
+                pendingLoads.add(pendingLoad)
+            }
+            isReady
+        }
+
+        if (isReplayable) {
+            handler.post { pendingLoad.replay() }
+        } else {
+            handler.postDelayed(pendingLoad.timeout, timeoutMs)
+        }
+    }
+
+    /**
+     * Replay all parked loads, and directly replay the next ones.
+     */
+    fun replayAll() {
+        val loads = synchronized(this) {
+            isReady = true
+            drain()
+        }
+        handler.post {
+            loads.forEach { it.replay() }
+        }
+    }
+
+    /**
+     * Fail all parked loads with the given error. Next loads are parked again.
+     */
+    fun failAll(error: AdError) {
+        val loads = synchronized(this) {
+            isReady = false
+            drain()
+        }
+        loads.forEach { it.fail(error) }
+    }
+
+    @VisibleForTesting
+    internal fun size(): Int = synchronized(this) { pendingLoads.size }
+
+    private fun drain(): List<PendingLoad> {
+        val loads = pendingLoads.toList()
+        pendingLoads.clear()
+        return loads
+    }
+
+    private inner class PendingLoad(
+        private val onReplay: () -> Unit,
+        private val onFailure: (AdError) -> Unit
+    ) {
+        private val isDone = AtomicBoolean(false)
+
+        val timeout = Runnable {
+            synchronized(this@PendingLoadQueue) {
+                pendingLoads.remove(this)
+            }
+            fail(noFillError())
+        }
+
+        fun replay() {
+            if (isDone.compareAndSet(false, true)) {
+                handler.removeCallbacks(timeout)
+                onReplay()
+            }
+        }
+
+        fun fail(error: AdError) {
+            if (isDone.compareAndSet(false, true)) {
+                handler.removeCallbacks(timeout)
+                onFailure(error)
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import com.criteo.mediation.google.metrics.AdapterTrace
+import org.json.JSONException
+
+/**
+ * Parameters configured on the AdMob UI for a Criteo ad unit and given to the adapter, as a JSON
+ * string, through the [CriteoAdapter.SERVER_PARAMETER_KEY] entry of the server parameters bundle.
+ */
+internal data class ServerParameters(
+    val criteoPublisherId: String,
+    val inventoryGroupId: String?,
+    val adUnitId: String,
+    val initQueueTimeoutMs: Long = DEFAULT_INIT_QUEUE_TIMEOUT_MS,
+    val loadTimeoutMs: Long = DEFAULT_LOAD_TIMEOUT_MS,
+    val noFillBackoffThreshold: Int = DEFAULT_NO_FILL_BACKOFF_THRESHOLD,
+    val noFillBackoffMs: Long = DEFAULT_NO_FILL_BACKOFF_MS,
+    val maxNoFillBackoffMs: Long = DEFAULT_MAX_NO_FILL_BACKOFF_MS,
+
+    /**
+     * Whether the next banner of a refreshed slot is loaded ahead of the refresh (see
+     * [BannerPreloader]). Banners only.
+     */
+    val preloadBanners: Boolean = false,
+
+    /**
+     * Number of interstitials kept loaded and ready to show for this ad unit (see
+     * [InterstitialPool]). A value of zero disables the pool. Interstitials only.
+     */
+    val interstitialPoolSize: Int = 0,
+
+    /**
+     * Duration after which a pooled interstitial is evicted without being shown, as its bid is
+     * expired.
+     */
+    val interstitialPoolTtlMs: Long = DEFAULT_INTERSTITIAL_POOL_TTL_MS,
+
+    /**
+     * Number of WebViews created at idle time once the adapter is initialized, to start the WebView
+     * provider before the first ads (see [WebViewWarmUpPool]). A value of zero disables this
+     * warm-up.
+     */
+    val webViewWarmUpCount: Int = 0,
+
+    /**
+     * Whether images of native ads are downloaded by the adapter and cached in memory and on disk
+     * (see [NativeImageCache][com.criteo.mediation.google.advancednative.NativeImageCache]),
+     * rather than loaded by the SDK image loader, or by the one set by the publisher, with their
+     * placeholder. Natives only.
+     */
+    val cacheNativeImages: Boolean = false
+) {
+
+    companion object {
+        /**
+         * Maximum duration an ad request waits for the SDK initialization before being answered
+         * with a no-fill.
+         */
+        internal const val DEFAULT_INIT_QUEUE_TIMEOUT_MS = 2_000L
+
+        /**
+         * Maximum duration of a load, once started, before it is answered with a timeout so that
+         * AdMob can continue its waterfall. A value of zero or less disables this deadline.
+         */
+        internal const val DEFAULT_LOAD_TIMEOUT_MS = 5_000L
+
+        /**
+         * Number of consecutive no-fills of an ad unit after which its next loads are directly
+         * answered with a no-fill, without requesting a bid. A value of zero or less disables this
+         * back-off.
+         */
+        internal const val DEFAULT_NO_FILL_BACKOFF_THRESHOLD = 3
+
+        /**
+         * Duration of the first back-off of an ad unit. It doubles with each new streak of
+         * no-fills, up to [DEFAULT_MAX_NO_FILL_BACKOFF_MS].
+         */
+        internal const val DEFAULT_NO_FILL_BACKOFF_MS = 30_000L
+
+        internal const val DEFAULT_MAX_NO_FILL_BACKOFF_MS = 10 * 60 * 1000L
+
+        /**
+         * Criteo bids are valid 15 minutes by default. Pooled interstitials are evicted a bit
+         * earlier so that they are not shown at the very end of the life of their bid.
+         */
+        internal const val DEFAULT_INTERSTITIAL_POOL_TTL_MS = 14 * 60 * 1000L
+
+        internal const val MAX_INTERSTITIAL_POOL_SIZE = 5
+
+        private const val CACHE_SIZE = 32
+
+        private val cache = ServerParametersCache(CACHE_SIZE) {
+            ServerParametersParser.parse(it)
+        }
+
+        /**
+         * Parse the given server parameter, or return the cached result of a previous parsing.
+         */
+        @Throws(JSONException::class)
+        fun parse(serverParameter: String): ServerParameters {
+            return AdapterTrace.section(AdapterTrace.PARSE_SERVER_PARAMETERS) {
+                cache.get(serverParameter)
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import org.json.JSONException
+
+/**
+ * Bounded LRU cache of parsed [ServerParameters], keyed by the raw server parameter string.
+ *
+ * AdMob gives the same handful of server parameters again and again (especially in feeds loading
+ * many native ads), so parsing them only once avoids the JSON parsing and its allocations on every
+ * ad request. Parsing errors are cached as well.
+ */
+internal class ServerParametersCache(
+    private val maxSize: Int,
+    private val parser: (String) -> ServerParameters
+) {
+
+    private val cache = object : LinkedHashMap<String, Result<ServerParameters>>(
+        maxSize,
+        0.75f,
+        true
+    ) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Result<ServerParameters>>?): Boolean {
+            return size > maxSize
+        }
+    }
+
+    @Throws(JSONException::class)
+    fun get(serverParameter: String): ServerParameters {
+        val cachedResult = synchronized(cache) { cache[serverParameter] }
+        val result = cachedResult ?: parse(serverParameter).also {
+            synchronized(cache) { cache[serverParameter] = it }
+        }
+        return result.getOrThrow()
+    }
+
+    private fun parse(serverParameter: String): Result<ServerParameters> {
+        return try {
+            Result.success(parser(serverParameter))
+        } catch (e: JSONException) {
+            Result.failure(e)
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import org.json.JSONException
+
+/**
+ * Single-pass parser dedicated to the [ServerParameters] JSON.
+ *
+ * This replaces [org.json.JSONObject] which builds a whole map for a payload of few fields. Only
+ * the values of the known fields are materialized: other values are validated and skipped without
+ * allocation.
+ *
+ * The accepted syntax and the results are the same as with Android's JSONObject: lenient syntax
+ * (comments, unquoted and single-quoted strings, `=` and `;` separators) is accepted, non-string
+ * values are converted as `getString`, `optString` and `optLong` would do, and any malformed input
+ * or missing mandatory field yields a [JSONException]. The only exception is a nested object or
+ * array given for a known field: its raw text is used instead of its re-serialization.
+ */
+internal class ServerParametersParser private constructor(private val input: String) {
+
+    private var pos = 0
+
+    // Description of the last value read by readValue
+    private var valueType = STRING
+    private var valueStart = 0
+    private var valueEnd = 0
+    private var valueHasEscape = false
+    private var booleanValue = false
+    private var longValue = 0L
+    private var doubleValue = 0.0
+
+    private var criteoPublisherId: String? = null
+    private var inventoryGroupId: String? = null
+    private var adUnitId: String? = null
+    private var initQueueTimeoutMs = ServerParameters.DEFAULT_INIT_QUEUE_TIMEOUT_MS
+    private var loadTimeoutMs = ServerParameters.DEFAULT_LOAD_TIMEOUT_MS
+    private var noFillBackoffThreshold = ServerParameters.DEFAULT_NO_FILL_BACKOFF_THRESHOLD
+    private var noFillBackoffMs = ServerParameters.DEFAULT_NO_FILL_BACKOFF_MS
+    private var maxNoFillBackoffMs = ServerParameters.DEFAULT_MAX_NO_FILL_BACKOFF_MS
+    private var preloadBanners = false
+    private var interstitialPoolSize = 0
+    private var interstitialPoolTtlMs = ServerParameters.DEFAULT_INTERSTITIAL_POOL_TTL_MS
+    private var webViewWarmUpCount = 0
+    private var cacheNativeImages = false
+
+    private fun parseServerParameters(): ServerParameters {
+        if (input.startsWith('\uFEFF')) {
+            pos = 1
+        }
+
+        val first = nextClean()
+        if (first != '{'.code) {
+            if (first != -1) {
+                pos--
+            }
+            readValue()
+            throw JSONException("Value cannot be converted to JSONObject")
+        }
+        readObject(isRoot = true)
+
+        return ServerParameters(
+            criteoPublisherId = criteoPublisherId ?: throw missingValue(CRITEO_PUBLISHER_ID),
+            inventoryGroupId = inventoryGroupId ?: "",
+            adUnitId = adUnitId ?: throw missingValue(AD_UNIT_ID),
+            initQueueTimeoutMs = initQueueTimeoutMs,
+            loadTimeoutMs = loadTimeoutMs,
+            noFillBackoffThreshold = noFillBackoffThreshold,
+            noFillBackoffMs = noFillBackoffMs,
+            maxNoFillBackoffMs = maxNoFillBackoffMs,
+            preloadBanners = preloadBanners,
+            interstitialPoolSize = interstitialPoolSize,
+            interstitialPoolTtlMs = interstitialPoolTtlMs,
+            webViewWarmUpCount = webViewWarmUpCount,
+            cacheNativeImages = cacheNativeImages
+        )
+    }
+
+    private fun readObject(isRoot: Boolean) {
+        val first = nextClean()
+        if (first == '}'.code) {
+            return
+        } else if (first != -1) {
+            pos--
+        }
+
+        while (true) {
+            readValue()
+            if (valueType != STRING && valueType != LITERAL_STRING) {
+                throw syntaxError("Names must be strings")
+            }
+            val nameStart = valueStart
+            val nameEnd = valueEnd
+            val nameHasEscape = valueHasEscape
+
+            val separator = nextClean()
+            if (separator != ':'.code && separator != '='.code) {
+                throw syntaxError("Expected ':' after name")
+            }
+            if (pos < input.length && input[pos] == '>') {
+                pos++
+            }
+
+            readValue()
+            if (valueType == DOUBLE && (doubleValue.isNaN() || doubleValue.isInfinite())) {
+                throw JSONException("Forbidden numeric value: $doubleValue")
+            }
+
+            if (isRoot) {
+                when {
+                    isName(CRITEO_PUBLISHER_ID, nameStart, nameEnd, nameHasEscape) ->
+                        criteoPublisherId = valueAsString()
+                    isName(INVENTORY_GROUP_ID, nameStart, nameEnd, nameHasEscape) ->
+                        inventoryGroupId = valueAsString()
+                    isName(AD_UNIT_ID, nameStart, nameEnd, nameHasEscape) ->
+                        adUnitId = valueAsString()
+                    isName(INIT_QUEUE_TIMEOUT_MS, nameStart, nameEnd, nameHasEscape) ->
+                        initQueueTimeoutMs = valueAsLong(ServerParameters.DEFAULT_INIT_QUEUE_TIMEOUT_MS)
+                    isName(LOAD_TIMEOUT_MS, nameStart, nameEnd, nameHasEscape) ->
+                        loadTimeoutMs = valueAsLong(ServerParameters.DEFAULT_LOAD_TIMEOUT_MS)
+                    isName(NO_FILL_BACKOFF_THRESHOLD, nameStart, nameEnd, nameHasEscape) ->
+                        noFillBackoffThreshold = valueAsInt(
+                            ServerParameters.DEFAULT_NO_FILL_BACKOFF_THRESHOLD
+                        )
+                    isName(NO_FILL_BACKOFF_MS, nameStart, nameEnd, nameHasEscape) ->
+                        noFillBackoffMs = valueAsLong(ServerParameters.DEFAULT_NO_FILL_BACKOFF_MS)
+                    isName(MAX_NO_FILL_BACKOFF_MS, nameStart, nameEnd, nameHasEscape) ->
+                        maxNoFillBackoffMs = valueAsLong(
+                            ServerParameters.DEFAULT_MAX_NO_FILL_BACKOFF_MS
+                        )
+                    isName(PRELOAD_BANNERS, nameStart, nameEnd, nameHasEscape) ->
+                        preloadBanners = valueAsBoolean(false)
+                    isName(INTERSTITIAL_POOL_SIZE, nameStart, nameEnd, nameHasEscape) ->
+                        interstitialPoolSize = valueAsInt(0)
+                            .coerceIn(0, ServerParameters.MAX_INTERSTITIAL_POOL_SIZE)
+                    isName(INTERSTITIAL_POOL_TTL_MS, nameStart, nameEnd, nameHasEscape) ->
+                        interstitialPoolTtlMs = valueAsLong(
+                            ServerParameters.DEFAULT_INTERSTITIAL_POOL_TTL_MS
+                        )
+                    isName(WEB_VIEW_WARM_UP_COUNT, nameStart, nameEnd, nameHasEscape) ->
+                        webViewWarmUpCount = valueAsInt(0)
+                            .coerceIn(0, WebViewWarmUpPool.MAX_SIZE)
+                    isName(CACHE_NATIVE_IMAGES, nameStart, nameEnd, nameHasEscape) ->
+                        cacheNativeImages = valueAsBoolean(false)
+                }
+            }
+
+            when (nextClean()) {
+                '}'.code -> return
+                ';'.code, ','.code -> continue
+                else -> throw syntaxError("Unterminated object")
+            }
+        }
+    }
+
+    private fun readArray() {
+        while (true) {
+            when (nextClean()) {
+                -1 -> throw syntaxError("Unterminated array")
+                ']'.code -> return
+                ','.code, ';'.code -> continue
+                else -> pos--
+            }
+
+            readValue()
+
+            when (nextClean()) {
+                ']'.code -> return
+                ','.code, ';'.code -> continue
+                else -> throw syntaxError("Unterminated array")
+            }
+        }
+    }
+
+    private fun readValue() {
+        val c = nextClean()
+        val start = pos - 1
+        when (c) {
+            -1 -> throw syntaxError("End of input")
+            '{'.code -> {
+                readObject(isRoot = false)
+                setValue(OBJECT, start, pos)
+            }
+            '['.code -> {
+                readArray()
+                setValue(ARRAY, start, pos)
+            }
+            '"'.code, '\''.code -> readString(c.toChar())
+            else -> {
+                pos--
+                readLiteral()
+            }
+        }
+    }
+
+    private fun readString(quote: Char) {
+        val start = pos
+        var hasEscape = false
+        while (pos < input.length) {
+            val c = input[pos++]
+            if (c == quote) {
+                setValue(STRING, start, pos - 1)
+                valueHasEscape = hasEscape
+                return
+            }
+
+            if (c == '\\') {
+                if (pos == input.length) {
+                    throw syntaxError("Unterminated escape sequence")
+                }
+                if (input[pos++] == 'u') {
+                    readUnicodeEscape()
+                }
+                hasEscape = true
+            }
+        }
+        throw syntaxError("Unterminated string")
+    }
+
+    private fun readUnicodeEscape(): Char {
+        if (pos + 4 > input.length) {
+            throw syntaxError("Unterminated escape sequence")
+        }
+        val hex = input.substring(pos, pos + 4)
+        pos += 4
+        return try {
+            hex.toInt(16).toChar()
+        } catch (e: NumberFormatException) {
+            throw syntaxError("Invalid escape sequence: $hex")
+        }
+    }
+
+    private fun readLiteral() {
+        val start = pos
+        while (pos < input.length) {
+            val c = input[pos]
+            if (c == '\r' || c == '\n' || LITERAL_DELIMITERS.indexOf(c) != -1) {
+                break
+            }
+            pos++
+        }
+        val end = pos
+
+        if (start == end) {
+            throw syntaxError("Expected literal value")
+        }
+
+        setValue(LITERAL_STRING, start, end)
+        if (isLiteral("null", start, end)) {
+            valueType = NULL
+        } else if (isLiteral("true", start, end) || isLiteral("false", start, end)) {
+            valueType = BOOLEAN
+            booleanValue = end - start == 4
+        } else if (isInteger(start, end)) {
+            valueType = INTEGER
+        } else {
+            try {
+                doubleValue = java.lang.Double.parseDouble(input.substring(start, end))
+                valueType = DOUBLE
+            } catch (e: NumberFormatException) {
+                // This is an unquoted string
+            }
+        }
+    }
+
+    private fun isLiteral(literal: String, start: Int, end: Int): Boolean {
+        return end - start == literal.length &&
+            input.regionMatches(start, literal, 0, literal.length, ignoreCase = true)
+    }
+
+    /**
+     * Read an integer literal in [longValue] like JSONTokener: hexadecimal if prefixed by `0x`,
+     * octal if prefixed by `0` and decimal otherwise.
+     */
+    private fun isInteger(start: Int, end: Int): Boolean {
+        for (i in start until end) {
+            if (input[i] == '.') {
+                return false
+            }
+        }
+
+        return if (end - start > 2 && input[start] == '0' && (input[start + 1] == 'x' || input[start + 1] == 'X')) {
+            parseLong(start + 2, end, 16)
+        } else if (end - start > 1 && input[start] == '0') {
+            parseLong(start + 1, end, 8)
+        } else {
+            parseLong(start, end, 10)
+        }
+    }
+
+    /**
+     * Same as [java.lang.Long.parseLong] but without allocating a substring.
+     */
+    private fun parseLong(start: Int, end: Int, radix: Int): Boolean {
+        var i = start
+        if (i >= end) {
+            return false
+        }
+
+        var negative = false
+        val first = input[i]
+        if (first == '-' || first == '+') {
+            negative = first == '-'
+            i++
+            if (i == end) {
+                return false
+            }
+        }
+
+        // Accumulate negatively, like Long.parseLong, to support Long.MIN_VALUE
+        val limit = if (negative) Long.MIN_VALUE else -Long.MAX_VALUE
+        val multiplyMin = limit / radix
+        var result = 0L
+        while (i < end) {
+            val digit = Character.digit(input[i++], radix)
+            if (digit < 0 || result < multiplyMin) {
+                return false
+            }
+            result *= radix
+            if (result < limit + digit) {
+                return false
+            }
+            result -= digit
+        }
+
+        longValue = if (negative) result else -result
+        return true
+    }
+
+    private fun nextClean(): Int {
+        while (pos < input.length) {
+            when (val c = input[pos++]) {
+                '\t', ' ', '\n', '\r' -> continue
+                '/' -> {
+                    if (pos == input.length) {
+                        return c.code
+                    }
+                    when (input[pos]) {
+                        '*' -> {
+                            pos++
+                            val commentEnd = input.indexOf("*/", pos)
+                            if (commentEnd == -1) {
+                                throw syntaxError("Unterminated comment")
+                            }
+                            pos = commentEnd + 2
+                        }
+                        '/' -> {
+                            pos++
+                            skipToEndOfLine()
+                        }
+                        else -> return c.code
+                    }
+                }
+                '#' -> skipToEndOfLine()
+                else -> return c.code
+            }
+        }
+        return -1
+    }
+
+    private fun skipToEndOfLine() {
+        while (pos < input.length) {
+            val c = input[pos++]
+            if (c == '\r' || c == '\n') {
+                return
+            }
+        }
+    }
+
+    private fun setValue(type: Int, start: Int, end: Int) {
+        valueType = type
+        valueStart = start
+        valueEnd = end
+        valueHasEscape = false
+    }
+
+    private fun isName(name: String, start: Int, end: Int, hasEscape: Boolean): Boolean {
+        return if (hasEscape) {
+            name == unescape(start, end)
+        } else {
+            end - start == name.length && input.regionMatches(start, name, 0, name.length)
+        }
+    }
+
+    private fun valueAsString(): String {
+        return when (valueType) {
+            STRING -> if (valueHasEscape) unescape(valueStart, valueEnd) else input.substring(valueStart, valueEnd)
+            NULL -> "null"
+            BOOLEAN -> booleanValue.toString()
+            INTEGER -> longValue.toString()
+            DOUBLE -> doubleValue.toString()
+            else -> input.substring(valueStart, valueEnd)
+        }
+    }
+
+    private fun valueAsLong(fallback: Long): Long {
+        return when (valueType) {
+            STRING, LITERAL_STRING -> valueAsString().toDoubleOrNull()?.toLong() ?: fallback
+            INTEGER -> longValue
+            DOUBLE -> doubleValue.toLong()
+            else -> fallback
+        }
+    }
+
+    private fun valueAsInt(fallback: Int): Int {
+        return valueAsLong(fallback.toLong())
+            .coerceIn(Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong())
+            .toInt()
+    }
+
+    private fun valueAsBoolean(fallback: Boolean): Boolean {
+        return when (valueType) {
+            BOOLEAN -> booleanValue
+            STRING, LITERAL_STRING -> {
+                val value = valueAsString()
+                when {
+                    value.equals("true", ignoreCase = true) -> true
+                    value.equals("false", ignoreCase = true) -> false
+                    else -> fallback
+                }
+            }
+            else -> fallback
+        }
+    }
+
+    private fun unescape(start: Int, end: Int): String {
+        val builder = StringBuilder(end - start)
+        val savedPos = pos
+        pos = start
+        while (pos < end) {
+            val c = input[pos++]
+            if (c != '\\') {
+                builder.append(c)
+                continue
+            }
+
+            val unescaped = when (val escaped = input[pos++]) {
+                'u' -> readUnicodeEscape()
+                't' -> '\t'
+                'b' -> '\b'
+                'n' -> '\n'
+                'r' -> '\r'
+                'f' -> '\u000C'
+                else -> escaped
+            }
+            builder.append(unescaped)
+        }
+        pos = savedPos
+        return builder.toString()
+    }
+
+    private fun syntaxError(message: String): JSONException {
+        return JSONException("$message at character $pos")
+    }
+
+    private fun missingValue(name: String): JSONException {
+        return JSONException("No value for $name")
+    }
+
+    companion object {
+        internal const val CRITEO_PUBLISHER_ID = "cpId"
+        internal const val INVENTORY_GROUP_ID = "inventoryGroupId"
+        internal const val AD_UNIT_ID = "adUnitId"
+        internal const val INIT_QUEUE_TIMEOUT_MS = "initQueueTimeoutMs"
+        internal const val LOAD_TIMEOUT_MS = "loadTimeoutMs"
+        internal const val NO_FILL_BACKOFF_THRESHOLD = "noFillBackoffThreshold"
+        internal const val NO_FILL_BACKOFF_MS = "noFillBackoffMs"
+        internal const val MAX_NO_FILL_BACKOFF_MS = "maxNoFillBackoffMs"
+        internal const val PRELOAD_BANNERS = "preloadBanners"
+        internal const val INTERSTITIAL_POOL_SIZE = "interstitialPoolSize"
+        internal const val INTERSTITIAL_POOL_TTL_MS = "interstitialPoolTtlMs"
+        internal const val WEB_VIEW_WARM_UP_COUNT = "webViewWarmUpCount"
+        internal const val CACHE_NATIVE_IMAGES = "cacheNativeImages"
+
+        private const val LITERAL_DELIMITERS = "{}[]/\\:,=;# \t\u000C"
+
+        private const val STRING = 1
+        private const val LITERAL_STRING = 2
+        private const val NULL = 3
+        private const val BOOLEAN = 4
+        private const val INTEGER = 5
+        private const val DOUBLE = 6
+        private const val OBJECT = 7
+        private const val ARRAY = 8
+
+        @JvmStatic
+        @Throws(JSONException::class)
+        fun parse(serverParameter: String): ServerParameters {
+            return ServerParametersParser(serverParameter).parseServerParameters()
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.os.Handler
+import android.os.Looper
+import android.os.MessageQueue
+import android.util.Log
+import android.webkit.WebView
+import androidx.annotation.VisibleForTesting
+
+/**
+ * Small pool of WebViews created at idle time, to start the WebView provider ahead of the ads.
+ *
+ * Criteo banners and interstitials are rendered in WebViews. The first WebView of a process also
+ * loads and starts the WebView provider, which often takes more than 100 ms on the main thread,
+ * right in the middle of an ad load or display. The SDK creates the WebViews of its ads itself, so
+ * they cannot be taken from here. Instead, the WebViews of this pool, loaded with an empty page,
+ * keep the provider and its renderer started for them.
+ *
+ * WebViews are created one at a time, when the main thread is idle, and they are all destroyed
+ * when the system asks to trim memory. They are created again on the next [start].
+ *
+ * All the state is only accessed on the main thread.
+ */
+internal class WebViewWarmUpPool(
+    private val handler: Handler,
+    private val addIdleHandler: (MessageQueue.IdleHandler) -> Unit = {
+        Looper.myQueue().addIdleHandler(it)
+    },
+    private val createWebView: (Context) -> WebView = { WebView(it) }
+) {
+
+    private val webViews = ArrayList<WebView>()
+    private var targetSize = 0
+    private var context: Context? = null
+    private var isIdleHandlerAdded = false
+
+    private val idleHandler = MessageQueue.IdleHandler {
+        isIdleHandlerAdded = warmUpNext()
+        isIdleHandlerAdded
+    }
+
+    private val componentCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                clear()
+            }
+        }
+
+        override fun onLowMemory() {
+            clear()
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * Create WebViews at idle time until the pool holds the given number of them, at most
+     * [MAX_SIZE].
+     */
+    fun start(context: Context, size: Int) {
+        val boundedSize = size.coerceAtMost(MAX_SIZE)
+        if (boundedSize <= 0) {
+            return
+        }
+
+        val applicationContext = context.applicationContext ?: context
+        handler.post {
+            if (this.context == null) {
+                applicationContext.registerComponentCallbacks(componentCallbacks)
+            }
+            this.context = applicationContext
+            targetSize = maxOf(targetSize, boundedSize)
+
+            if (!isIdleHandlerAdded && webViews.size < targetSize) {
+                isIdleHandlerAdded = true
+                addIdleHandler(idleHandler)
+            }
+        }
+    }
+
+    @VisibleForTesting
+    internal fun size(): Int = webViews.size
+
+    /**
+     * Create the next WebView of the pool, and return whether more should be created.
+     */
+    private fun warmUpNext(): Boolean {
+        val context = context ?: return false
+        if (webViews.size >= targetSize) {
+            return false
+        }
+
+        try {
+            webViews += createWebView(context).apply {
+                // Also start the renderer process, with an empty page
+                loadDataWithBaseURL(null, "", "text/html", "utf-8", null)
+            }
+        } catch (e: RuntimeException) {
+            // The WebView provider may be missing or being updated
+            Log.w(TAG, "WebView warm-up failed", e)
+            targetSize = 0
+            return false
+        }
+        return webViews.size < targetSize
+    }
+
+    private fun clear() {
+        webViews.forEach { it.destroy() }
+        webViews.clear()
+        targetSize = 0
+    }
+
+    companion object {
+        const val MAX_SIZE = 3
+
+        private val TAG = WebViewWarmUpPool::class.java.simpleName
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.graphics.Bitmap
+
+/**
+ * In-memory cache of bitmaps, bounded by their size in bytes and evicting the least recently used
+ * ones first.
+ *
+ * Evicted bitmaps are not recycled, as they may still be displayed.
+ */
+internal class BitmapLruCache(private val maxBytes: Long) {
+
+    private val bitmaps = LinkedHashMap<String, Bitmap>(16, 0.75f, true)
+    private var bytes = 0L
+
+    @Synchronized
+    fun get(key: String): Bitmap? = bitmaps[key]
+
+    @Synchronized
+    fun put(key: String, bitmap: Bitmap) {
+        val bitmapBytes = bitmap.byteCount.toLong()
+        if (bitmapBytes > maxBytes) {
+            return
+        }
+
+        bitmaps.put(key, bitmap)?.let { bytes -= it.byteCount }
+        bytes += bitmapBytes
+
+        val iterator = bitmaps.values.iterator()
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().byteCount
+            iterator.remove()
+        }
+    }
+
+    @Synchronized
+    fun sizeInBytes(): Long = bytes
+}
@@ -18,45 +18,114 @@ package com.criteo.mediation.google.advancednative
 
 import android.content.Context
 import android.os.Bundle
+import android.os.Handler
+import android.os.Trace
 import android.view.View
-import android.view.ViewGroup
 import androidx.annotation.Keep
+import com.criteo.mediation.google.CriteoInitializer
+import com.criteo.mediation.google.LoadDeadline
 import com.criteo.mediation.google.isNotNull
+import com.criteo.mediation.google.loadTimeoutError
+import com.criteo.mediation.google.metrics.AdapterTrace
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.mediation.google.metrics.Phase
 import com.criteo.mediation.google.toAdMobAdError
+import com.criteo.publisher.Bid
 import com.criteo.publisher.CriteoErrorCode
-import com.criteo.publisher.advancednative.CriteoMediaView
 import com.criteo.publisher.advancednative.CriteoNativeAd
 import com.criteo.publisher.advancednative.CriteoNativeAdListener
 import com.criteo.publisher.advancednative.CriteoNativeLoader
-import com.criteo.publisher.advancednative.CriteoNativeRenderer
 import com.criteo.publisher.advancednative.NativeInternalForAdMob
-import com.criteo.publisher.advancednative.RendererHelper
 import com.criteo.publisher.model.NativeAdUnit
+import com.google.android.gms.ads.AdError
 import com.google.android.gms.ads.mediation.MediationAdLoadCallback
 import com.google.android.gms.ads.mediation.MediationNativeAdCallback
 import com.google.android.gms.ads.mediation.MediationNativeAdConfiguration
 import com.google.android.gms.ads.mediation.UnifiedNativeAdMapper
 
-class CriteoNativeEventLoader(
+class CriteoNativeEventLoader internal constructor(
     private val mediationNativeAdConfiguration: MediationNativeAdConfiguration,
     private val mediationAdLoadCallback: MediationAdLoadCallback<UnifiedNativeAdMapper, MediationNativeAdCallback>,
-    private val nativeAdUnit: NativeAdUnit
+    private val nativeAdUnit: NativeAdUnit,
+    loadTimeoutMs: Long = 0,
+    private val cacheImages: Boolean = false,
+    handler: Handler = CriteoInitializer.mainHandler,
+    private val onLoadFinished: (AdError?) -> Unit = {}
 ) : CriteoNativeAdListener {
 
+    constructor(
+        mediationNativeAdConfiguration: MediationNativeAdConfiguration,
+        mediationAdLoadCallback: MediationAdLoadCallback<UnifiedNativeAdMapper, MediationNativeAdCallback>,
+        nativeAdUnit: NativeAdUnit
+    ) : this(mediationNativeAdConfiguration, mediationAdLoadCallback, nativeAdUnit, 0)
+
     private lateinit var mediationNativeAdCallback: MediationNativeAdCallback
+    private val loadDeadline = LoadDeadline(handler, loadTimeoutMs) { onLoadTimeout() }
+    private var loadStartNanos = 0L
+    private var bidWaitTraceCookie = 0
 
-    fun loadAd() {
+    /**
+     * Load an ad, from the given prefetched bid if any.
+     */
+    @JvmOverloads
+    fun loadAd(bid: Bid? = null) {
         val loader = CriteoNativeLoader(nativeAdUnit, this, NoOpNativeRenderer())
-        loader.loadAd()
+        loadDeadline.start()
+        loadStartNanos = LoadMetrics.now()
+        bidWaitTraceCookie = AdapterTrace.beginAsyncSection(AdapterTrace.NATIVE_BID_WAIT)
+        if (bid == null) {
+            loader.loadAd()
+        } else {
+            loader.loadAd(bid)
+        }
     }
 
     override fun onAdReceived(nativeAd: CriteoNativeAd) {
-        val mapper = CriteoUnifiedNativeAdMapper(mediationNativeAdConfiguration.context, nativeAd, this)
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.NATIVE_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        count(Counter.FILL)
+
+        val mappingStartNanos = LoadMetrics.now()
+        val mapper = CriteoUnifiedNativeAdMapper(
+            mediationNativeAdConfiguration.context,
+            nativeAd,
+            if (cacheImages) CriteoInitializer.nativeImageCache else null,
+            { recordPhaseSince(Phase.LOAD_NATIVE_IMAGE, it) },
+            this
+        )
+        recordPhaseSince(Phase.MAP_NATIVE_AD, mappingStartNanos)
+
+        val successStartNanos = LoadMetrics.now()
         mediationNativeAdCallback = mediationAdLoadCallback.onSuccess(mapper)
+        recordPhaseSince(Phase.NOTIFY_SUCCESS, successStartNanos)
+        onLoadFinished(null)
     }
 
     override fun onAdFailedToReceive(errorCode: CriteoErrorCode) {
-        mediationAdLoadCallback.onFailure(errorCode.toAdMobAdError())
+        if (!loadDeadline.tryFinish()) {
+            return
+        }
+        AdapterTrace.endAsyncSection(AdapterTrace.NATIVE_BID_WAIT, bidWaitTraceCookie)
+        recordPhaseSince(Phase.BID_ROUND_TRIP, loadStartNanos)
+        countFailure(errorCode)
+        val error = errorCode.toAdMobAdError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
+    }
+
+    private fun onLoadTimeout() {
+        AdapterTrace.endAsyncSection(AdapterTrace.NATIVE_BID_WAIT, bidWaitTraceCookie)
+
+        // The SDK has no way to cancel a native load: its result is ignored when it comes
+        count(Counter.TIMEOUT)
+        val error = loadTimeoutError()
+        mediationAdLoadCallback.onFailure(error)
+        onLoadFinished(error)
     }
 
     override fun onAdClosed() {
@@ -76,9 +145,27 @@ class CriteoNativeEventLoader(
         mediationNativeAdCallback.onAdLeftApplication()
     }
 
+    private fun count(counter: Counter) {
+        LoadMetrics.count(Format.NATIVE, nativeAdUnit.adUnitId, counter)
+    }
+
+    private fun countFailure(errorCode: CriteoErrorCode) {
+        LoadMetrics.countFailure(Format.NATIVE, nativeAdUnit.adUnitId, errorCode)
+    }
+
+    private fun recordPhaseSince(phase: Phase, startNanos: Long) {
+        LoadMetrics.recordSince(Format.NATIVE, nativeAdUnit.adUnitId, phase, startNanos)
+    }
+
     private class CriteoUnifiedNativeAdMapper(
         context: Context?,
         nativeAd: CriteoNativeAd,
+        imageCache: NativeImageCache?,
+        /**
+         * Invoked the first time the advertiser logo is drawn with its image, with the time at
+         * which the load of this image was started
+         */
+        onFirstIconDrawn: (logoLoadStartNanos: Long) -> Unit,
         /**
          * Hold the listener until the end of life of this ad
          *
@@ -90,55 +177,61 @@ class CriteoNativeEventLoader(
         @field:Keep private val listener: CriteoNativeAdListener
     ) : UnifiedNativeAdMapper() {
         private val nativeAd: CriteoNativeAd
+        private var lazyMedia: LazyNativeMedia? = null
 
         init {
+            // AdapterTrace.section is not usable here: vals cannot be initialized in a lambda
+            Trace.beginSection(AdapterTrace.MAP_NATIVE_AD)
+            try {
+                // Text fields
+                headline = nativeAd.title
+                body = nativeAd.description
+                price = nativeAd.price
+                callToAction = nativeAd.callToAction
+                advertiser = nativeAd.advertiserDescription
+                val bundle = Bundle()
+                bundle.putString(
+                    CRT_NATIVE_ADV_DOMAIN,
+                    nativeAd.advertiserDomain
+                )
+                extras = bundle
+                if (context != null) {
+                    val lazyMedia = LazyNativeMedia(context, nativeAd, imageCache)
+                    this.lazyMedia = lazyMedia
+                    NativeInternalForAdMob.setRenderer(nativeAd, lazyMedia)
+                    // The AdChoice icon is needed right away by AdMob, but media views are only
+                    // created, and their images loaded, once needed
+                    val nativeRenderedView = nativeAd.createNativeRenderedView(context, null)
+
+                    // Product media
+                    setMediaView(lazyMedia.productMediaView)
+                    setHasVideoContent(false)
 
-            // Text fields
-            headline = nativeAd.title
-            body = nativeAd.description
-            price = nativeAd.price
-            callToAction = nativeAd.callToAction
-            advertiser = nativeAd.advertiserDescription
-            val bundle = Bundle()
-            bundle.putString(
-                CRT_NATIVE_ADV_DOMAIN,
-                nativeAd.advertiserDomain
-            )
-            extras = bundle
-            if (context != null) {
-                val mediaAndLogoRenderer = MediaAndLogoRenderer()
-                NativeInternalForAdMob.setRenderer(nativeAd, mediaAndLogoRenderer)
-                // createNativeRenderedView calls both createNativeView and renderNativeView of the
-                // renderer, so images are now currently being loaded
-                val nativeRenderedView = nativeAd.createNativeRenderedView(context, null)
-
-                // Product media
-                setMediaView(mediaAndLogoRenderer.productMediaView)
-                setHasVideoContent(false)
-
-                // Advertiser logo
-                val iconCriteoMediaView = mediaAndLogoRenderer.advertiserLogoView
-                if (iconCriteoMediaView.isNotNull()) {
-                    val iconImage = IconNativeAdImage.create(
-                        iconCriteoMediaView,
+                    // Advertiser logo
+                    icon = IconNativeAdImage.create(
+                        lazyMedia,
                         nativeAd.advertiserLogoMedia
-                    )
-                    icon = iconImage
-                }
+                    ) {
+                        // The icon cannot be drawn with its image before its load is started
+                        lazyMedia.advertiserLogoLoadStartNanos?.let(onFirstIconDrawn)
+                    }
 
-                // AdChoice
-                val adChoiceView =
-                    NativeInternalForAdMob.getAdChoiceView(nativeAd, nativeRenderedView)
-                if (adChoiceView.isNotNull()) {
-                    adChoiceView.tag = AD_CHOICE_TAG
-                    adChoicesContent = adChoiceView
+                    // AdChoice
+                    val adChoiceView =
+                        NativeInternalForAdMob.getAdChoiceView(nativeAd, nativeRenderedView)
+                    if (adChoiceView.isNotNull()) {
+                        adChoiceView.tag = AD_CHOICE_TAG
+                        adChoicesContent = adChoiceView
+                    }
                 }
-            }
 
-            // Click & impression
-            overrideClickHandling = true
-            overrideImpressionRecording = true
-            this.nativeAd = nativeAd
+                // Click & impression
+                overrideClickHandling = true
+                overrideImpressionRecording = true
+                this.nativeAd = nativeAd
+            } finally {
+                Trace.endSection()
+            }
         }
 
         override fun trackViews(
@@ -146,43 +239,25 @@ class CriteoNativeEventLoader(
             clickableAssetViews: Map<String, View>,
             nonClickableAssetViews: Map<String, View>
         ) {
-            // The renderer is expected to do nothing, but the SDK will start to watch this view
-            // for clicks and impressions
-            NativeInternalForAdMob.setRenderer(nativeAd, NoOpNativeRenderer())
-            nativeAd.renderNativeView(containerView)
-
-            // As the AdChoice icon is not injected by the SDK, we should explicitly set the
-            // click listeners dedicated to AdChoice
-            val adChoiceView =
-                containerView.findViewWithTag<View>(AD_CHOICE_TAG)
-            if (adChoiceView != null) {
-                NativeInternalForAdMob.setAdChoiceClickableView(nativeAd, adChoiceView)
-            }
-        }
-    }
-
-    private class MediaAndLogoRenderer : CriteoNativeRenderer {
-        lateinit var productMediaView: CriteoMediaView
-            private set
-        lateinit var advertiserLogoView: CriteoMediaView
-            private set
+            AdapterTrace.section(AdapterTrace.TRACK_NATIVE_VIEWS) {
+                // The ad is bound: its images are needed now
+                lazyMedia?.let {
+                    it.loadProductMedia()
+                    it.loadAdvertiserLogo()
+                }
 
-        override fun createNativeView(context: Context, parent: ViewGroup?): View {
-            productMediaView = CriteoMediaView(context)
-            advertiserLogoView = CriteoMediaView(context)
-            return View(context)
-        }
+                // The renderer is expected to do nothing, but the SDK will start to watch this view
+                // for clicks and impressions
+                NativeInternalForAdMob.setRenderer(nativeAd, NoOpNativeRenderer())
+                nativeAd.renderNativeView(containerView)
 
-        override fun renderNativeView(
-            helper: RendererHelper,
-            nativeView: View,
-            nativeAd: CriteoNativeAd
-        ) {
-            if (productMediaView.isNotNull()) {
-                helper.setMediaInView(nativeAd.productMedia, productMediaView)
-            }
-            if (advertiserLogoView.isNotNull()) {
-                helper.setMediaInView(nativeAd.advertiserLogoMedia, advertiserLogoView)
+                // As the AdChoice icon is not injected by the SDK, we should explicitly set the
+                // click listeners dedicated to AdChoice
+                val adChoiceView =
+                    containerView.findViewWithTag<View>(AD_CHOICE_TAG)
+                if (adChoiceView != null) {
+                    NativeInternalForAdMob.setAdChoiceClickableView(nativeAd, adChoiceView)
+                }
             }
         }
     }
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * On-disk cache of encoded images, bounded by their size in bytes and evicting the least recently
+ * used ones first.
+ *
+ * Each image is stored in its own file, named after the hash of its key. The last modification time
+ * of the files is used as their last access time.
+ */
+internal class DiskImageCache(
+    private val directory: File,
+    private val maxBytes: Long,
+    private val clock: () -> Long = { System.currentTimeMillis() }
+) {
+
+    /**
+     * Total size of the files in the cache, or -1 until the directory is first scanned.
+     */
+    private var bytes = -1L
+
+    @Synchronized
+    fun get(key: String): ByteArray? {
+        val file = fileOf(key)
+        if (!file.isFile) {
+            return null
+        }
+        return try {
+            file.readBytes().also { file.setLastModified(clock()) }
+        } catch (e: IOException) {
+            Log.w(TAG, "Cannot read cached image", e)
+            null
+        }
+    }
+
+    @Synchronized
+    fun put(key: String, content: ByteArray) {
+        if (content.size > maxBytes) {
+            return
+        }
+
+        try {
+            scanIfNeeded()
+            val file = fileOf(key)
+            val previousBytes = if (file.isFile) file.length() else 0L
+
+            // Write to a temporary file first, so that a partial file is never read
+            val temporaryFile = File(directory, file.name + TEMPORARY_SUFFIX)
+            temporaryFile.writeBytes(content)
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete()
+                return
+            }
+            file.setLastModified(clock())
+            bytes += content.size - previousBytes
+        } catch (e: IOException) {
+            Log.w(TAG, "Cannot cache image", e)
+            return
+        }
+
+        trim()
+    }
+
+    @Synchronized
+    fun sizeInBytes(): Long {
+        scanIfNeeded()
+        return bytes
+    }
+
+    private fun scanIfNeeded() {
+        if (bytes >= 0) {
+            return
+        }
+        directory.mkdirs()
+        bytes = listFiles().sumOf { it.length() }
+    }
+
+    private fun trim() {
+        if (bytes <= maxBytes) {
+            return
+        }
+        for (file in listFiles().sortedBy { it.lastModified() }) {
+            val fileBytes = file.length()
+            if (file.delete()) {
+                bytes -= fileBytes
+            }
+            if (bytes <= maxBytes) {
+                return
+            }
+        }
+    }
+
+    private fun listFiles(): List<File> {
+        return directory.listFiles()?.filter { !it.name.endsWith(TEMPORARY_SUFFIX) }.orEmpty()
+    }
+
+    private fun fileOf(key: String): File {
+        val digest = MessageDigest.getInstance("SHA-256").digest(key.toByteArray())
+        return File(directory, digest.joinToString("") { "%02x".format(it) })
+    }
+
+    private companion object {
+        private val TAG = DiskImageCache::class.java.simpleName
+        private const val TEMPORARY_SUFFIX = ".tmp"
+    }
+}
@@ -19,6 +19,7 @@ package com.criteo.mediation.google.advancednative;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.criteo.publisher.advancednative.CriteoMedia;
 import com.criteo.publisher.advancednative.CriteoMediaView;
 import com.criteo.publisher.advancednative.NativeInternalForAdMob;
@@ -28,29 +29,68 @@ import com.google.android.gms.ads.formats.NativeAd;
 class IconNativeAdImage extends NativeAd.Image {
 
   @NonNull
-  private final Drawable drawable;
+  private final LazyNativeMedia media;
 
   @NonNull
   private final Uri uri;
 
-  IconNativeAdImage(@NonNull Drawable drawable, @NonNull Uri uri) {
-    this.drawable = drawable;
+  @Nullable
+  private Runnable onFirstImageDrawn;
+
+  @Nullable
+  private Drawable drawable;
+
+  private IconNativeAdImage(
+      @NonNull LazyNativeMedia media,
+      @NonNull Uri uri,
+      @Nullable Runnable onFirstImageDrawn
+  ) {
+    this.media = media;
     this.uri = uri;
+    this.onFirstImageDrawn = onFirstImageDrawn;
   }
 
+  /**
+   * The advertiser logo view, and the download of its image, are only created when the drawable is
+   * first requested. The drawable is then updated each time the image of the logo view changes.
+   *
+   * @param onFirstImageDrawn invoked the first time the icon is drawn with its loaded image
+   */
   @NonNull
   static IconNativeAdImage create(
-      @NonNull CriteoMediaView iconCriteoMediaView,
-      @NonNull CriteoMedia mediaContent
+      @NonNull LazyNativeMedia media,
+      @NonNull CriteoMedia mediaContent,
+      @Nullable Runnable onFirstImageDrawn
   ) {
-    Drawable drawable = new IconViewDrawable(NativeInternalForAdMob.getImageView(iconCriteoMediaView));
     Uri uri = Uri.parse(NativeInternalForAdMob.getImageUrl(mediaContent).toString());
-    return new IconNativeAdImage(drawable, uri);
+    return new IconNativeAdImage(media, uri, onFirstImageDrawn);
   }
 
   @NonNull
   @Override
   public Drawable getDrawable() {
+    if (drawable == null) {
+      CriteoMediaView iconCriteoMediaView = media.loadAdvertiserLogo();
+      final IconViewDrawable iconDrawable = new IconViewDrawable(
+          NativeInternalForAdMob.getImageView(iconCriteoMediaView),
+          onFirstImageDrawn
+      );
+      if (media.isAdvertiserLogoLoaded()) {
+        iconDrawable.onImageLoaded();
+      }
+      media.setOnAdvertiserLogoChanged(new Runnable() {
+        @Override
+        public void run() {
+          if (media.isAdvertiserLogoLoaded()) {
+            iconDrawable.onImageLoaded();
+          } else {
+            iconDrawable.onImageChanged();
+          }
+        }
+      });
+      drawable = iconDrawable;
+      onFirstImageDrawn = null;
+    }
     return drawable;
   }
 
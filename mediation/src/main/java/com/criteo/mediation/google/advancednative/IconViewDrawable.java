@@ -17,13 +17,14 @@
 package com.criteo.mediation.google.advancednative;
 
 import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.LevelListDrawable;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.Trace;
 import android.widget.ImageView;
 import androidx.annotation.NonNull;
-import androidx.annotation.VisibleForTesting;
+import androidx.annotation.Nullable;
 
 /**
  * Drawable wrapping the drawable of an {@link ImageView} dynamically.
@@ -32,68 +33,232 @@ import androidx.annotation.VisibleForTesting;
  * for instance), then this drawable changes accordingly to reflect the new drawable.
  * <p>
  * This is intended to be used for drawables that would be downloaded and put inside the wrapped
- * image view. As the download is expected to only last few seconds, the updating phase only last
- * few seconds as well. After this amount of time, this drawable is not updated anymore, except in
- * case of redraw.
+ * image view. The wrapped image view is not attached to a window, so it cannot notify its changes:
+ * the image pipeline should call {@link #onImageChanged()} once it sets a placeholder, and
+ * {@link #onImageLoaded()} once it sets the loaded image. This drawable is also updated when it is
+ * redrawn. No update is scheduled otherwise.
  * <p>
- * Note that the implementation uses a {@link LevelListDrawable} as a base class. However, this is
- * only used as a helper to manage the different drawables. This drawable has no notion of level.
+ * Only the current drawable of the wrapped view is referenced: placeholders and other superseded
+ * drawables, and their bitmaps, are released as soon as they are replaced. The bounds, state, level
+ * and visibility of this drawable are given to the current drawable, as well as its alpha and color
+ * filter when they are set.
  */
-class IconViewDrawable extends LevelListDrawable {
+class IconViewDrawable extends Drawable implements Drawable.Callback {
 
-  @VisibleForTesting
-  static final long UPDATE_DELAY_MS = 100;
-  private static final long MAX_UPDATE_DURATION_MS = 10_000;
-  private static final long MAX_UPDATE_STEPS = MAX_UPDATE_DURATION_MS / UPDATE_DELAY_MS;
+  private static final String DRAW_TRACE_SECTION = "IconViewDrawable.draw";
 
   @NonNull
   private final ImageView iconView;
 
-  @NonNull
-  private final Handler handler;
+  /**
+   * Invoked the first time the loaded image of the wrapped view is drawn, then cleared.
+   * Placeholders drawn before do not count.
+   */
+  @Nullable
+  private Runnable onFirstImageDrawn;
+
+  private boolean isImageLoaded;
+
+  @Nullable
+  private Drawable current;
 
-  private long remainingUpdateSteps;
-  private int nextLevel;
+  private int alpha = 0xFF;
+  private boolean hasAlpha;
+
+  @Nullable
+  private ColorFilter colorFilter;
+  private boolean hasColorFilter;
 
   IconViewDrawable(@NonNull ImageView iconView) {
+    this(iconView, null);
+  }
+
+  IconViewDrawable(@NonNull ImageView iconView, @Nullable Runnable onFirstImageDrawn) {
     super();
     this.iconView = iconView;
-    this.nextLevel = 0;
-    this.handler = new Handler(Looper.getMainLooper());
-    this.remainingUpdateSteps = MAX_UPDATE_STEPS;
+    this.onFirstImageDrawn = onFirstImageDrawn;
   }
 
-  @Override
-  public void draw(@NonNull Canvas canvas) {
+  /**
+   * Reflect the current drawable of the wrapped image view.
+   * <p>
+   * This should be called on the main thread, each time the drawable of the wrapped view changes.
+   */
+  void onImageChanged() {
     updateDrawable();
-    super.draw(canvas);
   }
 
-  private void updateDrawable() {
-    Drawable imageDrawable = iconView.getDrawable();
-    Drawable current = getCurrent();
-    if (current == null || current != imageDrawable) {
-      if (imageDrawable != null) {
-        addLevel(nextLevel, nextLevel, imageDrawable);
-        setLevel(nextLevel);
-        nextLevel++;
+  /**
+   * Reflect the loaded image of the wrapped image view, which is not a placeholder anymore.
+   * <p>
+   * This should be called on the main thread, once the loaded image is set in the wrapped view.
+   */
+  void onImageLoaded() {
+    isImageLoaded = true;
+    updateDrawable();
+    if (onFirstImageDrawn != null) {
+      // Make sure the loaded image gets drawn, even if it was already picked up
+      invalidateSelf();
+    }
+  }
+
+  @Override
+  public void draw(@NonNull Canvas canvas) {
+    Trace.beginSection(DRAW_TRACE_SECTION);
+    try {
+      updateDrawable();
+      if (current != null) {
+        current.draw(canvas);
+        if (isImageLoaded && onFirstImageDrawn != null) {
+          onFirstImageDrawn.run();
+          onFirstImageDrawn = null;
+        }
       }
+    } finally {
+      Trace.endSection();
     }
+  }
 
-    postUpdateDrawable();
+  @NonNull
+  @Override
+  public Drawable getCurrent() {
+    return current == null ? this : current;
   }
 
-  private void postUpdateDrawable() {
-    handler.removeCallbacksAndMessages(null);
-    handler.postDelayed(new Runnable() {
-      @Override
-      public void run() {
-        remainingUpdateSteps--;
-        if (remainingUpdateSteps > 0) {
-          updateDrawable();
-        }
+  @Override
+  public int getIntrinsicWidth() {
+    return current == null ? -1 : current.getIntrinsicWidth();
+  }
+
+  @Override
+  public int getIntrinsicHeight() {
+    return current == null ? -1 : current.getIntrinsicHeight();
+  }
+
+  @Override
+  public int getMinimumWidth() {
+    return current == null ? 0 : current.getMinimumWidth();
+  }
+
+  @Override
+  public int getMinimumHeight() {
+    return current == null ? 0 : current.getMinimumHeight();
+  }
+
+  @Override
+  public boolean getPadding(@NonNull Rect padding) {
+    if (current == null) {
+      return super.getPadding(padding);
+    }
+    return current.getPadding(padding);
+  }
+
+  @Override
+  public int getOpacity() {
+    return current == null ? PixelFormat.TRANSPARENT : current.getOpacity();
+  }
+
+  @Override
+  public void setAlpha(int alpha) {
+    if (!hasAlpha || this.alpha != alpha) {
+      this.alpha = alpha;
+      this.hasAlpha = true;
+      if (current != null) {
+        current.setAlpha(alpha);
       }
-    }, UPDATE_DELAY_MS);
+    }
+  }
+
+  @Override
+  public int getAlpha() {
+    return alpha;
+  }
+
+  @Override
+  public void setColorFilter(@Nullable ColorFilter colorFilter) {
+    this.colorFilter = colorFilter;
+    this.hasColorFilter = true;
+    if (current != null) {
+      current.setColorFilter(colorFilter);
+    }
+  }
+
+  @Override
+  public boolean isStateful() {
+    return current != null && current.isStateful();
+  }
+
+  @Override
+  protected boolean onStateChange(@NonNull int[] state) {
+    return current != null && current.setState(state);
+  }
+
+  @Override
+  protected boolean onLevelChange(int level) {
+    return current != null && current.setLevel(level);
+  }
+
+  @Override
+  protected void onBoundsChange(@NonNull Rect bounds) {
+    if (current != null) {
+      current.setBounds(bounds);
+    }
+  }
+
+  @Override
+  public boolean setVisible(boolean visible, boolean restart) {
+    boolean changed = super.setVisible(visible, restart);
+    if (current != null) {
+      current.setVisible(visible, restart);
+    }
+    return changed;
+  }
+
+  @Override
+  public void invalidateDrawable(@NonNull Drawable who) {
+    if (who == current) {
+      invalidateSelf();
+    }
+  }
+
+  @Override
+  public void scheduleDrawable(@NonNull Drawable who, @NonNull Runnable what, long when) {
+    if (who == current) {
+      scheduleSelf(what, when);
+    }
+  }
+
+  @Override
+  public void unscheduleDrawable(@NonNull Drawable who, @NonNull Runnable what) {
+    if (who == current) {
+      unscheduleSelf(what);
+    }
+  }
+
+  private void updateDrawable() {
+    Drawable imageDrawable = iconView.getDrawable();
+    if (imageDrawable == null || imageDrawable == current) {
+      return;
+    }
+
+    Drawable previous = current;
+    current = imageDrawable;
+    if (previous != null && previous.getCallback() == this) {
+      previous.setCallback(null);
+    }
+
+    imageDrawable.setCallback(this);
+    imageDrawable.setVisible(isVisible(), true);
+    imageDrawable.setState(getState());
+    imageDrawable.setLevel(getLevel());
+    imageDrawable.setBounds(getBounds());
+    if (hasAlpha) {
+      imageDrawable.setAlpha(alpha);
+    }
+    if (hasColorFilter) {
+      imageDrawable.setColorFilter(colorFilter);
+    }
+    invalidateSelf();
   }
 
 }
@@ -0,0 +1,224 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.content.Context
+import android.graphics.drawable.Drawable
+import android.os.Handler
+import android.view.View
+import android.view.ViewGroup
+import android.widget.FrameLayout
+import com.criteo.mediation.google.CriteoInitializer
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.publisher.advancednative.CriteoMedia
+import com.criteo.publisher.advancednative.CriteoMediaView
+import com.criteo.publisher.advancednative.CriteoNativeAd
+import com.criteo.publisher.advancednative.CriteoNativeRenderer
+import com.criteo.publisher.advancednative.NativeInternalForAdMob
+import com.criteo.publisher.advancednative.RendererHelper
+
+/**
+ * Product and advertiser logo views of a native ad, created and loaded only when needed.
+ *
+ * Native ads are often delivered to AdMob without being bound or shown. So the media views, and
+ * the downloads of their images, are only started when the ad is bound (see
+ * [CriteoNativeEventLoader]'s `trackViews`), when the [productMediaView] container is attached to
+ * a window, or when the advertiser logo is requested.
+ *
+ * Rendering this renderer with [CriteoNativeAd.createNativeRenderedView] creates no media view: it
+ * only keeps the [RendererHelper] used to load the images later. Images are loaded by the SDK image
+ * loader, or by the one set by the publisher, unless an [imageCache] is given, in which case the
+ * helper is only used for the images that the cache cannot load.
+ *
+ * The advertiser logo view is never attached to a window, so it gives no notification when its
+ * image changes. Its changes are notified to [onAdvertiserLogoChanged] instead.
+ */
+internal class LazyNativeMedia(
+    private val context: Context,
+    private val nativeAd: CriteoNativeAd,
+    private val imageCache: NativeImageCache?,
+    private val handler: Handler = CriteoInitializer.mainHandler,
+    private val clock: () -> Long = LoadMetrics::now
+) : CriteoNativeRenderer {
+
+    private var helper: RendererHelper? = null
+
+    /**
+     * Container of the product media view, to give to AdMob. The media view is created in it when
+     * it is attached to a window, if not already done.
+     */
+    val productMediaView: ViewGroup = MediaContainer(context) { loadProductMedia() }
+
+    private var isProductMediaLoaded = false
+
+    private var advertiserLogoView: CriteoMediaView? = null
+
+    /**
+     * Invoked on the main thread each time the image of the advertiser logo view changes, with a
+     * placeholder or with the loaded image.
+     */
+    var onAdvertiserLogoChanged: Runnable? = null
+
+    /**
+     * Whether the advertiser logo view shows its loaded image, rather than nothing or a placeholder.
+     */
+    var isAdvertiserLogoLoaded = false
+        private set
+
+    /**
+     * Time, in [LoadMetrics.now] nanoseconds, at which the load of the advertiser logo image was
+     * started, or `null` if it is not started yet.
+     */
+    var advertiserLogoLoadStartNanos: Long? = null
+        private set
+
+    override fun createNativeView(context: Context, parent: ViewGroup?): View {
+        return View(context)
+    }
+
+    override fun renderNativeView(
+        helper: RendererHelper,
+        nativeView: View,
+        nativeAd: CriteoNativeAd
+    ) {
+        this.helper = helper
+    }
+
+    /**
+     * Create the product media view in its container, and start the download of its image, if not
+     * already done.
+     */
+    fun loadProductMedia() {
+        val helper = helper ?: return
+        if (isProductMediaLoaded) {
+            return
+        }
+        isProductMediaLoaded = true
+
+        val mediaView = CriteoMediaView(context)
+        productMediaView.addView(
+            mediaView,
+            FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT
+            )
+        )
+        val media = nativeAd.productMedia
+        if (imageCache != null) {
+            imageCache.load(context, media, mediaView, {}) {
+                helper.setMediaInView(media, mediaView)
+            }
+        } else {
+            helper.setMediaInView(media, mediaView)
+        }
+    }
+
+    /**
+     * Return the advertiser logo view, after creating it and starting the download of its image if
+     * not already done.
+     */
+    fun loadAdvertiserLogo(): CriteoMediaView {
+        advertiserLogoView?.let { return it }
+
+        val logoView = CriteoMediaView(context)
+        advertiserLogoView = logoView
+        val helper = helper ?: return logoView
+        val media = nativeAd.advertiserLogoMedia
+        advertiserLogoLoadStartNanos = clock()
+        if (imageCache != null) {
+            imageCache.load(context, media, logoView, ::onAdvertiserLogoLoaded) {
+                loadAdvertiserLogoWithSdk(helper, media, logoView)
+            }
+        } else {
+            loadAdvertiserLogoWithSdk(helper, media, logoView)
+        }
+        return logoView
+    }
+
+    private fun loadAdvertiserLogoWithSdk(
+        helper: RendererHelper,
+        media: CriteoMedia,
+        logoView: CriteoMediaView
+    ) {
+        helper.setMediaInView(media, logoView)
+        // The SDK shows a placeholder until its download is over
+        notifyAdvertiserLogoChanged()
+        val placeholder = NativeInternalForAdMob.getImageView(logoView).drawable
+        SdkImageCheck(placeholder, logoView).schedule()
+    }
+
+    private fun onAdvertiserLogoLoaded() {
+        isAdvertiserLogoLoaded = true
+        notifyAdvertiserLogoChanged()
+    }
+
+    private fun notifyAdvertiserLogoChanged() {
+        onAdvertiserLogoChanged?.run()
+    }
+
+    /**
+     * The SDK image loader gives no notification when it sets the image it downloaded. When it is
+     * used, the logo view is checked a few times, at growing intervals, until its placeholder is
+     * replaced.
+     */
+    private inner class SdkImageCheck(
+        private val placeholder: Drawable?,
+        private val logoView: CriteoMediaView
+    ) : Runnable {
+        private var delayMs = FIRST_SDK_IMAGE_CHECK_DELAY_MS
+        private var remainingChecks = MAX_SDK_IMAGE_CHECKS
+
+        fun schedule() {
+            handler.postDelayed(this, delayMs)
+        }
+
+        override fun run() {
+            if (NativeInternalForAdMob.getImageView(logoView).drawable !== placeholder) {
+                onAdvertiserLogoLoaded()
+                return
+            }
+
+            remainingChecks--
+            if (remainingChecks > 0) {
+                delayMs *= 2
+                schedule()
+            }
+        }
+    }
+
+    /**
+     * Container notifying when it is attached to a window.
+     */
+    internal class MediaContainer(
+        context: Context,
+        private val onAttached: () -> Unit
+    ) : FrameLayout(context) {
+        override fun onAttachedToWindow() {
+            super.onAttachedToWindow()
+            onAttached()
+        }
+    }
+
+    internal companion object {
+        const val FIRST_SDK_IMAGE_CHECK_DELAY_MS = 100L
+
+        /**
+         * Checks are spread over about 13 seconds, which is enough for a download.
+         */
+        const val MAX_SDK_IMAGE_CHECKS = 7
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Handler
+import android.util.Log
+import android.widget.ImageView
+import androidx.annotation.VisibleForTesting
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.ImageCacheStats
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.publisher.advancednative.CriteoMedia
+import com.criteo.publisher.advancednative.CriteoMediaView
+import com.criteo.publisher.advancednative.NativeInternalForAdMob
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.WeakHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Images of native ads, shared by all the ads and cached in memory and on disk.
+ *
+ * Advertiser logos, and often products, repeat across the native ads of a feed. Images are cached,
+ * keyed by their URL, decoded in a [BitmapLruCache] and encoded in a [DiskImageCache], so that
+ * repeated images are neither downloaded nor decoded again. Concurrent loads of the same image
+ * share a single download.
+ *
+ * Images are decoded with a sample size, so that their bigger side is at most the smaller side of
+ * the screen, which is the maximum size at which native ads display them in practice.
+ *
+ * Images are downloaded directly rather than through the SDK image loader, as the latter only sets
+ * images in views: it gives neither their content, to keep on disk, nor their completion. If an
+ * image cannot be downloaded or decoded, it is loaded by the SDK instead.
+ *
+ * As this bypasses the image loader set by the publisher, if any, and shows no placeholder during
+ * downloads, this cache is only used by the ad units opting in with the `cacheNativeImages` server
+ * parameter.
+ */
+internal class NativeImageCache(
+    private val handler: Handler,
+    private val memoryCache: BitmapLruCache = BitmapLruCache(defaultMemoryCacheBytes()),
+    private val createDiskCache: (Context) -> DiskImageCache = {
+        DiskImageCache(File(it.cacheDir, DISK_CACHE_DIRECTORY), DISK_CACHE_BYTES)
+    },
+    private val executor: Executor = createExecutor(),
+    private val download: (URL) -> ByteArray = ::downloadImage,
+    private val decode: (ByteArray, maxDimension: Int) -> Bitmap? = ::decodeSampledBitmap
+) {
+
+    @Volatile
+    private var diskCache: DiskImageCache? = null
+
+    /**
+     * Image expected by each image view, to ignore results of previous loads. Only accessed on the
+     * main thread.
+     */
+    private val expectedKeys = WeakHashMap<ImageView, String>()
+
+    private val inFlightLoads = HashMap<String, MutableList<(Bitmap?) -> Unit>>()
+
+    private val memoryHits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * Load the given media in the given view, from the cache if possible. The given `onImageSet` is
+     * invoked on the main thread once the image is set in the view, or the given fallback is
+     * invoked instead if the image cannot be loaded.
+     *
+     * This should be called on the main thread.
+     */
+    fun load(
+        context: Context,
+        media: CriteoMedia,
+        mediaView: CriteoMediaView,
+        onImageSet: () -> Unit,
+        fallback: () -> Unit
+    ) {
+        val url = NativeInternalForAdMob.getImageUrl(media)
+        val key = url.toString()
+        val imageView = NativeInternalForAdMob.getImageView(mediaView)
+
+        val cachedBitmap = memoryCache.get(key)
+        if (cachedBitmap != null) {
+            expectedKeys.remove(imageView)
+            count(Counter.IMAGE_MEMORY_HIT, memoryHits)
+            imageView.setImageBitmap(cachedBitmap)
+            onImageSet()
+            return
+        }
+
+        expectedKeys[imageView] = key
+        val diskCache = diskCache(context)
+        val maxDimension = maxImageDimension(context)
+        loadInBackground(key, url, diskCache, maxDimension) { bitmap ->
+            handler.post {
+                if (expectedKeys[imageView] != key) {
+                    return@post
+                }
+                expectedKeys.remove(imageView)
+                if (bitmap != null) {
+                    imageView.setImageBitmap(bitmap)
+                    onImageSet()
+                } else {
+                    fallback()
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the hits and misses of this cache so far.
+     */
+    fun stats(): ImageCacheStats {
+        return ImageCacheStats(
+            memoryHits.get(),
+            diskHits.get(),
+            misses.get(),
+            memoryCache.sizeInBytes()
+        )
+    }
+
+    private fun loadInBackground(
+        key: String,
+        url: URL,
+        diskCache: DiskImageCache,
+        maxDimension: Int,
+        onLoaded: (Bitmap?) -> Unit
+    ) {
+        synchronized(inFlightLoads) {
+            val waitingCallbacks = inFlightLoads[key]
+            if (waitingCallbacks != null) {
+                waitingCallbacks += onLoaded
+                return
+            }
+            inFlightLoads[key] = mutableListOf(onLoaded)
+        }
+
+        executor.execute {
+            val bitmap = loadFromDiskOrNetwork(key, url, diskCache, maxDimension)
+            if (bitmap != null) {
+                memoryCache.put(key, bitmap)
+            }
+            val callbacks = synchronized(inFlightLoads) { inFlightLoads.remove(key) }.orEmpty()
+            callbacks.forEach { it(bitmap) }
+        }
+    }
+
+    private fun loadFromDiskOrNetwork(
+        key: String,
+        url: URL,
+        diskCache: DiskImageCache,
+        maxDimension: Int
+    ): Bitmap? {
+        diskCache.get(key)?.let { content ->
+            decode(content, maxDimension)?.let {
+                count(Counter.IMAGE_DISK_HIT, diskHits)
+                return it
+            }
+        }
+
+        count(Counter.IMAGE_MISS, misses)
+        val content = try {
+            download(url)
+        } catch (e: IOException) {
+            Log.w(TAG, "Cannot download image", e)
+            return null
+        }
+        val bitmap = decode(content, maxDimension) ?: return null
+        diskCache.put(key, content)
+        return bitmap
+    }
+
+    private fun diskCache(context: Context): DiskImageCache {
+        diskCache?.let { return it }
+        return synchronized(this) {
+            diskCache ?: createDiskCache(context.applicationContext ?: context).also {
+                diskCache = it
+            }
+        }
+    }
+
+    private fun count(counter: Counter, total: AtomicLong) {
+        total.incrementAndGet()
+        LoadMetrics.count(Format.NATIVE, null, counter)
+    }
+
+    companion object {
+        private val TAG = NativeImageCache::class.java.simpleName
+
+        private const val DISK_CACHE_DIRECTORY = "criteo_adapter_images"
+        private const val DISK_CACHE_BYTES = 20L * 1024 * 1024
+        private const val MAX_MEMORY_CACHE_BYTES = 16L * 1024 * 1024
+        private const val MAX_IMAGE_BYTES = 5 * 1024 * 1024
+        private const val TIMEOUT_MS = 10_000
+
+        /**
+         * Maximum size of decoded images when the screen size is unknown.
+         */
+        private const val DEFAULT_MAX_IMAGE_DIMENSION = 1080
+
+        private fun defaultMemoryCacheBytes(): Long {
+            return (Runtime.getRuntime().maxMemory() / 32).coerceAtMost(MAX_MEMORY_CACHE_BYTES)
+        }
+
+        private fun maxImageDimension(context: Context): Int {
+            val displayMetrics = context.resources?.displayMetrics
+            val dimension = displayMetrics?.let { minOf(it.widthPixels, it.heightPixels) } ?: 0
+            return if (dimension > 0) dimension else DEFAULT_MAX_IMAGE_DIMENSION
+        }
+
+        private fun decodeSampledBitmap(content: ByteArray, maxDimension: Int): Bitmap? {
+            val options = BitmapFactory.Options()
+            options.inJustDecodeBounds = true
+            BitmapFactory.decodeByteArray(content, 0, content.size, options)
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null
+            }
+
+            options.inJustDecodeBounds = false
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, maxDimension)
+            return BitmapFactory.decodeByteArray(content, 0, content.size, options)
+        }
+
+        /**
+         * Return the smallest power of two by which the given image should be sampled to have its
+         * bigger side at most the given maximum dimension.
+         */
+        @VisibleForTesting
+        internal fun sampleSize(width: Int, height: Int, maxDimension: Int): Int {
+            val biggerSide = maxOf(width, height)
+            var sampleSize = 1
+            while (biggerSide / sampleSize > maxDimension) {
+                sampleSize *= 2
+            }
+            return sampleSize
+        }
+
+        private fun createExecutor(): Executor {
+            val executor = ThreadPoolExecutor(
+                2,
+                2,
+                30,
+                TimeUnit.SECONDS,
+                LinkedBlockingQueue<Runnable>()
+            ) { runnable -> Thread(runnable, "CriteoAdapterImageLoader") }
+            executor.allowCoreThreadTimeOut(true)
+            return executor
+        }
+
+        @Throws(IOException::class)
+        private fun downloadImage(url: URL): ByteArray {
+            val connection = url.openConnection() as HttpURLConnection
+            try {
+                connection.connectTimeout = TIMEOUT_MS
+                connection.readTimeout = TIMEOUT_MS
+                if (connection.responseCode != HttpURLConnection.HTTP_OK) {
+                    throw IOException("Unexpected response code ${connection.responseCode}")
+                }
+
+                val output = ByteArrayOutputStream()
+                connection.inputStream.use { input ->
+                    val buffer = ByteArray(8 * 1024)
+                    while (true) {
+                        val read = input.read(buffer)
+                        if (read < 0) {
+                            break
+                        }
+                        output.write(buffer, 0, read)
+                        if (output.size() > MAX_IMAGE_BYTES) {
+                            throw IOException("Image is too big")
+                        }
+                    }
+                }
+                return output.toByteArray()
+            } finally {
+                connection.disconnect()
+            }
+        }
+    }
+}
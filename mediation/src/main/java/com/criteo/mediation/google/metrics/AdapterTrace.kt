@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import android.os.Build
+import android.os.Trace
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Sections of the adapter in system traces, so that its work shows up in Perfetto or systrace
+ * captures next to the frames of the application and the work of AdMob.
+ *
+ * Sections are only recorded while a trace is captured, otherwise they cost next to nothing.
+ */
+internal object AdapterTrace {
+
+    const val LOAD_BANNER_AD = "CriteoAdapter.loadBannerAd"
+    const val LOAD_INTERSTITIAL_AD = "CriteoAdapter.loadInterstitialAd"
+    const val LOAD_NATIVE_AD = "CriteoAdapter.loadNativeAd"
+    const val PARSE_SERVER_PARAMETERS = "ServerParameters.parse"
+    const val INIT_CRITEO = "Criteo.Builder.init"
+    const val MAP_NATIVE_AD = "CriteoUnifiedNativeAdMapper.init"
+    const val TRACK_NATIVE_VIEWS = "CriteoUnifiedNativeAdMapper.trackViews"
+
+    const val BANNER_BID_WAIT = "CriteoBannerEventLoader.bidWait"
+    const val INTERSTITIAL_BID_WAIT = "CriteoInterstitialEventLoader.bidWait"
+    const val NATIVE_BID_WAIT = "CriteoNativeEventLoader.bidWait"
+    const val INTERSTITIAL_SHOW = "CriteoInterstitialEventLoader.show"
+
+    private val nextCookie = AtomicInteger()
+
+    /**
+     * Execute the given block inside a section with the given name.
+     *
+     * The section begins and ends on the calling thread.
+     */
+    inline fun <T> section(name: String, block: () -> T): T {
+        Trace.beginSection(name)
+        try {
+            return block()
+        } finally {
+            Trace.endSection()
+        }
+    }
+
+    /**
+     * Begin an asynchronous section, which may end on another thread, and return the cookie
+     * identifying it in [endAsyncSection].
+     *
+     * Asynchronous sections are only recorded from Android 10 (API level 29).
+     */
+    fun beginAsyncSection(name: String): Int {
+        val cookie = nextCookie.incrementAndGet()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie)
+        }
+        return cookie
+    }
+
+    fun endAsyncSection(name: String, cookie: Int) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie)
+        }
+    }
+}
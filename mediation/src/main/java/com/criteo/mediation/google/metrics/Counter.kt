@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+/**
+ * Events of ad loads counted by the adapter.
+ *
+ * Image events are counted for the native format, without ad unit, as images are shared by all
+ * native ads.
+ */
+enum class Counter {
+    /**
+     * Ad load requested by AdMob with valid server parameters.
+     */
+    LOAD,
+
+    /**
+     * Ad load answered with an ad.
+     */
+    FILL,
+
+    /**
+     * Ad load answered by the Criteo SDK with no ad.
+     */
+    NO_FILL,
+
+    /**
+     * Ad load answered by the Criteo SDK with an error other than a no-fill. The error code is given
+     * to [MetricsSink.onError].
+     */
+    ERROR,
+
+    /**
+     * Ad load given up because it did not finish before its deadline.
+     */
+    TIMEOUT,
+
+    /**
+     * Ad load directly answered with a network error because the device is offline.
+     */
+    OFFLINE,
+
+    /**
+     * Ad load directly answered with a no-fill, without bid request, because its ad unit keeps
+     * returning no-fills.
+     */
+    NO_FILL_BACKOFF,
+
+    /**
+     * Ad load directly answered with a network error, without bid request, because recent loads
+     * could not reach the network.
+     */
+    CIRCUIT_OPEN,
+
+    /**
+     * Ad load served from a bid prefetched by the adapter, without a new bid request.
+     */
+    PREFETCHED_BID_USED,
+
+    /**
+     * Banner load served from a banner preloaded ahead of the refresh of its slot.
+     */
+    PRELOADED_BANNER_USED,
+
+    /**
+     * Interstitial load served from an interstitial already loaded in the pool of its ad unit.
+     */
+    POOLED_INTERSTITIAL_USED,
+
+    /**
+     * Ad load parked until the Criteo SDK is initialized.
+     */
+    INIT_QUEUE_WAIT,
+
+    /**
+     * Native ad image served from the decoded images kept in memory.
+     */
+    IMAGE_MEMORY_HIT,
+
+    /**
+     * Native ad image served from the images kept on disk, without downloading it.
+     */
+    IMAGE_DISK_HIT,
+
+    /**
+     * Native ad image downloaded, as it is not cached.
+     */
+    IMAGE_MISS
+}
@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import com.criteo.mediation.google.CriteoInitializer
+
+/**
+ * Entry point to the metrics measured by the Criteo adapter.
+ */
+object CriteoAdapterMetrics {
+
+    /**
+     * Return the latencies measured so far for each [Phase] of the ad loads, per [Format] (with a
+     * `null` [LatencySnapshot.adUnitId]) and per ad unit.
+     *
+     * This can be called at any time from any thread. It is cheap enough to be polled periodically,
+     * but it is not free: prefer calling it only when the values are needed.
+     */
+    @JvmStatic
+    fun getLatencies(): List<LatencySnapshot> = LoadMetrics.snapshot()
+
+    /**
+     * Return the hits and misses so far of the cache of native ad images.
+     */
+    @JvmStatic
+    fun getImageCacheStats(): ImageCacheStats = CriteoInitializer.nativeImageCache.stats()
+
+    /**
+     * Register the sink receiving the counters and latencies of the ad loads, replacing the
+     * previous one. Give `null` to unregister it.
+     *
+     * No sink is registered by default, and then nothing is forwarded.
+     */
+    @JvmStatic
+    fun setSink(sink: MetricsSink?) {
+        LoadMetrics.setSink(sink)
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+/**
+ * Hits and misses of the cache of native ad images since the start of the application.
+ */
+class ImageCacheStats internal constructor(
+    /**
+     * Images served from the decoded images kept in memory.
+     */
+    val memoryHits: Long,
+
+    /**
+     * Images served from the encoded images kept on disk, without downloading them.
+     */
+    val diskHits: Long,
+
+    /**
+     * Images downloaded.
+     */
+    val misses: Long,
+
+    /**
+     * Size of the decoded images currently kept in memory.
+     */
+    val memoryBytes: Long
+) {
+    override fun toString(): String {
+        return "ImageCacheStats(memoryHits=$memoryHits, diskHits=$diskHits, misses=$misses, " +
+            "memoryBytes=$memoryBytes)"
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of durations, in nanoseconds, with one bucket per power of two.
+ *
+ * Bucket `i` counts the durations `d` such that `2^(i-1) <= d < 2^i` (bucket 0 counts durations of
+ * zero). This is coarse but enough to see where the time goes, and recording a sample is a handful
+ * of atomic increments without any allocation.
+ */
+internal class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val count = AtomicLong()
+    private val totalNanos = AtomicLong()
+    private val maxNanos = AtomicLong()
+
+    fun record(durationNanos: Long) {
+        val duration = if (durationNanos < 0) 0 else durationNanos
+        buckets.incrementAndGet(bucketOf(duration))
+        count.incrementAndGet()
+        totalNanos.addAndGet(duration)
+
+        var max = maxNanos.get()
+        while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+            max = maxNanos.get()
+        }
+    }
+
+    fun snapshot(format: Format, adUnitId: String?, phase: Phase): LatencySnapshot {
+        val bucketCounts = LongArray(BUCKET_COUNT) { buckets.get(it) }
+        return LatencySnapshot(
+            format,
+            adUnitId,
+            phase,
+            bucketCounts.sum(),
+            totalNanos.get(),
+            maxNanos.get(),
+            bucketCounts
+        )
+    }
+
+    fun isEmpty() = count.get() == 0L
+
+    companion object {
+        const val BUCKET_COUNT = 64
+
+        fun bucketOf(durationNanos: Long): Int = 64 - java.lang.Long.numberOfLeadingZeros(durationNanos)
+
+        /**
+         * Exclusive upper bound of the durations counted in the given bucket.
+         */
+        fun upperBoundOf(bucket: Int): Long {
+            return if (bucket >= BUCKET_COUNT - 1) Long.MAX_VALUE else 1L shl bucket
+        }
+    }
+}
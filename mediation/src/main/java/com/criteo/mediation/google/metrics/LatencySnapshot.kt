@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+/**
+ * Latencies measured for one [Phase] of the ad loads of a [Format], either for all ad units or for
+ * a single one.
+ *
+ * Durations are measured with a monotonic clock and aggregated in buckets by power of two, so
+ * percentiles are approximated by the upper bound of their bucket.
+ */
+class LatencySnapshot internal constructor(
+    val format: Format,
+
+    /**
+     * Criteo ad unit ID these latencies are about, or `null` if they are about all ad units.
+     */
+    val adUnitId: String?,
+    val phase: Phase,
+    val count: Long,
+    val totalNanos: Long,
+    val maxNanos: Long,
+    private val bucketCounts: LongArray
+) {
+
+    val meanNanos: Long
+        get() = if (count == 0L) 0 else totalNanos / count
+
+    /**
+     * Return an upper bound of the given percentile (between 0 and 100) of the durations, or 0 if
+     * nothing was measured.
+     */
+    fun percentileNanos(percentile: Double): Long {
+        if (count == 0L) {
+            return 0
+        }
+        val rank = Math.ceil(percentile.coerceIn(0.0, 100.0) / 100.0 * count).toLong()
+            .coerceAtLeast(1)
+        var cumulatedCount = 0L
+        for (bucket in bucketCounts.indices) {
+            cumulatedCount += bucketCounts[bucket]
+            if (cumulatedCount >= rank) {
+                return minOf(LatencyHistogram.upperBoundOf(bucket), maxNanos)
+            }
+        }
+        return maxNanos
+    }
+
+    override fun toString(): String {
+        return "LatencySnapshot(format=$format, adUnitId=$adUnitId, phase=$phase, count=$count, " +
+            "meanNanos=$meanNanos, p50Nanos=${percentileNanos(50.0)}, " +
+            "p99Nanos=${percentileNanos(99.0)}, maxNanos=$maxNanos)"
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import com.criteo.publisher.CriteoErrorCode
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Records the latencies of the phases of ad loads, per format and per ad unit, and forwards them,
+ * along with the counted events, to the registered [MetricsSink].
+ *
+ * Histograms are allocated once per format, and once per ad unit when it is first seen, so
+ * recording a sample does not allocate.
+ */
+internal object LoadMetrics {
+
+    private val TAG = LoadMetrics::class.java.simpleName
+
+    /**
+     * Maximum number of ad units with their own histograms. Beyond that, samples are only
+     * recorded in the per-format histograms.
+     */
+    private const val MAX_AD_UNITS = 64
+
+    private val formats = Format.values()
+    private val phases = Phase.values()
+
+    private val formatHistograms = Array(formats.size) { newHistograms() }
+
+    private val adUnitHistograms = Array(formats.size) {
+        ConcurrentHashMap<String, Array<LatencyHistogram>>()
+    }
+
+    @Volatile
+    private var currentSink: MetricsSink = NoOpMetricsSink
+
+    fun setSink(sink: MetricsSink?) {
+        currentSink = sink ?: NoOpMetricsSink
+    }
+
+    /**
+     * Current value of the monotonic clock used for all measures.
+     */
+    @JvmStatic
+    fun now(): Long = System.nanoTime()
+
+    /**
+     * Record the duration of the given phase, from the given start time (see [now]) until now.
+     */
+    @JvmStatic
+    fun recordSince(format: Format, adUnitId: String?, phase: Phase, startNanos: Long) {
+        record(format, adUnitId, phase, now() - startNanos)
+    }
+
+    /**
+     * Execute the given block and record its duration as the given phase.
+     */
+    inline fun <T> measure(format: Format, adUnitId: String?, phase: Phase, block: () -> T): T {
+        val startNanos = now()
+        try {
+            return block()
+        } finally {
+            recordSince(format, adUnitId, phase, startNanos)
+        }
+    }
+
+    @JvmStatic
+    fun record(format: Format, adUnitId: String?, phase: Phase, durationNanos: Long) {
+        formatHistograms[format.ordinal][phase.ordinal].record(durationNanos)
+        if (adUnitId != null) {
+            histogramsOf(format, adUnitId)?.get(phase.ordinal)?.record(durationNanos)
+        }
+        notifySink { it.onLatency(format, adUnitId, phase, durationNanos) }
+    }
+
+    @JvmStatic
+    fun count(format: Format, adUnitId: String?, counter: Counter) {
+        notifySink { it.onCount(format, adUnitId, counter) }
+    }
+
+    /**
+     * Count a load answered by the Criteo SDK with the given error.
+     */
+    @JvmStatic
+    fun countFailure(format: Format, adUnitId: String?, errorCode: CriteoErrorCode) {
+        val counter = if (errorCode == CriteoErrorCode.ERROR_CODE_NO_FILL) {
+            Counter.NO_FILL
+        } else {
+            Counter.ERROR
+        }
+        notifySink {
+            it.onCount(format, adUnitId, counter)
+            it.onError(format, adUnitId, errorCode)
+        }
+    }
+
+    private inline fun notifySink(notify: (MetricsSink) -> Unit) {
+        val sink = currentSink
+        if (sink === NoOpMetricsSink) {
+            return
+        }
+        try {
+            notify(sink)
+        } catch (e: RuntimeException) {
+            Log.w(TAG, "Metrics sink failed", e)
+        }
+    }
+
+    private fun histogramsOf(format: Format, adUnitId: String): Array<LatencyHistogram>? {
+        val histogramsByAdUnit = adUnitHistograms[format.ordinal]
+        val histograms = histogramsByAdUnit[adUnitId]
+        if (histograms != null || histogramsByAdUnit.size >= MAX_AD_UNITS) {
+            return histograms
+        }
+        return histogramsByAdUnit.getOrPut(adUnitId) { newHistograms() }
+    }
+
+    /**
+     * Snapshot of all the non-empty histograms: first the ones per format, then the ones per ad
+     * unit.
+     */
+    fun snapshot(): List<LatencySnapshot> {
+        val snapshots = mutableListOf<LatencySnapshot>()
+        for (format in formats) {
+            snapshots.addAll(snapshotOf(format, null, formatHistograms[format.ordinal]))
+        }
+        for (format in formats) {
+            for ((adUnitId, histograms) in adUnitHistograms[format.ordinal]) {
+                snapshots.addAll(snapshotOf(format, adUnitId, histograms))
+            }
+        }
+        return snapshots
+    }
+
+    @VisibleForTesting
+    fun clear() {
+        currentSink = NoOpMetricsSink
+        for (format in formats) {
+            formatHistograms[format.ordinal] = newHistograms()
+            adUnitHistograms[format.ordinal].clear()
+        }
+    }
+
+    private fun snapshotOf(
+        format: Format,
+        adUnitId: String?,
+        histograms: Array<LatencyHistogram>
+    ): List<LatencySnapshot> {
+        return phases.filterNot { histograms[it.ordinal].isEmpty() }
+            .map { histograms[it.ordinal].snapshot(format, adUnitId, it) }
+    }
+
+    private fun newHistograms() = Array(phases.size) { LatencyHistogram() }
+
+    private object NoOpMetricsSink : MetricsSink {
+        override fun onCount(format: Format, adUnitId: String?, counter: Counter) = Unit
+
+        override fun onError(format: Format, adUnitId: String?, errorCode: CriteoErrorCode) = Unit
+
+        override fun onLatency(
+            format: Format,
+            adUnitId: String?,
+            phase: Phase,
+            durationNanos: Long
+        ) = Unit
+    }
+}
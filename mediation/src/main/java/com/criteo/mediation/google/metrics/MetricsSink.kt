@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import com.criteo.publisher.CriteoErrorCode
+
+/**
+ * Receiver of the metrics of the adapter, to be registered with [CriteoAdapterMetrics.setSink].
+ *
+ * Methods are called synchronously from the thread of the ad load, which may be the main thread or
+ * any other one: they should be quick and thread-safe, typically incrementing counters. Exceptions
+ * thrown by a sink are caught and ignored so that they do not break the ad loads.
+ *
+ * The `adUnitId` is the Criteo ad unit ID of the load, or `null` if it is not known, for instance
+ * when server parameters could not be read.
+ */
+interface MetricsSink {
+
+    /**
+     * Called each time the given event happens.
+     */
+    fun onCount(format: Format, adUnitId: String?, counter: Counter)
+
+    /**
+     * Called each time the Criteo SDK answers a load with the given error, in addition to the
+     * [Counter.NO_FILL] or [Counter.ERROR] count.
+     */
+    fun onError(format: Format, adUnitId: String?, errorCode: CriteoErrorCode)
+
+    /**
+     * Called each time the latency of the given phase is measured.
+     */
+    fun onLatency(format: Format, adUnitId: String?, phase: Phase, durationNanos: Long)
+}
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+/**
+ * Phases of an ad load, or of its display, whose latency is measured by the adapter.
+ */
+enum class Phase {
+    /**
+     * Reading of the server parameters configured on AdMob.
+     */
+    PARSE_SERVER_PARAMETERS,
+
+    /**
+     * Check of whether the Criteo SDK is initialized.
+     */
+    CHECK_INITIALIZATION,
+
+    /**
+     * Creation (or reuse) of the Criteo ad unit.
+     */
+    CREATE_AD_UNIT,
+
+    /**
+     * From the load request sent to the Criteo SDK until it answers, with an ad or an error.
+     */
+    BID_ROUND_TRIP,
+
+    /**
+     * Notification of the success to AdMob, once the ad is received.
+     */
+    NOTIFY_SUCCESS,
+
+    /**
+     * Mapping of a Criteo native ad to its AdMob representation. Native ads only.
+     */
+    MAP_NATIVE_AD,
+
+    /**
+     * From the start of the load of the advertiser logo image, once the native ad is bound or its
+     * icon requested, until the logo is first drawn with this image. Native ads only.
+     */
+    LOAD_NATIVE_IMAGE,
+
+    /**
+     * From the request to show an interstitial until it is opened. Interstitials only.
+     */
+    SHOW_TO_OPENED
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.BannerAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class AdUnitRegistryTest {
+
+    private val registry = AdUnitRegistry()
+
+    @Test
+    fun banner_GivenSameIdAndSize_ReturnSameInstance() {
+        val first = registry.banner("adUnit", AdSize(320, 50))
+        val second = registry.banner("adUnit", AdSize(320, 50))
+
+        assertThat(second).isSameAs(first)
+    }
+
+    @Test
+    fun banner_GivenSameIdButOtherSize_ReturnOtherInstance() {
+        val first = registry.banner("adUnit", AdSize(320, 50))
+        val second = registry.banner("adUnit", AdSize(300, 250))
+
+        assertThat(second).isNotSameAs(first)
+        assertThat(second.size.height).isEqualTo(250)
+    }
+
+    @Test
+    fun interstitialAndNative_GivenSameId_ReturnDistinctInstances() {
+        val interstitial = registry.interstitial("adUnit")
+        val native = registry.native("adUnit")
+
+        assertThat(registry.interstitial("adUnit")).isSameAs(interstitial)
+        assertThat(registry.native("adUnit")).isSameAs(native)
+        assertThat(registry.knownAdUnits()).containsExactly(interstitial, native)
+    }
+
+    @Test
+    fun intern_GivenEquivalentAdUnit_ReturnRegisteredInstance() {
+        val registered = registry.native("adUnit")
+
+        val interned = registry.intern(NativeAdUnit("adUnit"))
+
+        assertThat(interned).isSameAs(registered)
+    }
+
+    @Test
+    fun intern_GivenNewAdUnit_RegisterIt() {
+        val adUnit = BannerAdUnit("adUnit", AdSize(320, 50))
+
+        val interned = registry.intern(adUnit)
+
+        assertThat(interned).isSameAs(adUnit)
+        assertThat(registry.banner("adUnit", AdSize(320, 50))).isSameAs(adUnit)
+    }
+
+    @Test
+    fun knownAdUnits_GivenSeveralAdUnits_ReturnThemInDiscoveryOrder() {
+        val native = registry.native("native")
+        val banner = registry.banner("banner", AdSize(320, 50))
+        registry.native("native")
+        val interstitial = registry.interstitial("interstitial")
+
+        assertThat(registry.knownAdUnits()).containsExactly(native, banner, interstitial)
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Activity
+import android.os.Handler
+import com.criteo.publisher.CriteoBannerAdListener
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.BannerAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class BannerPreloaderTest {
+
+    private var now = 0L
+
+    private val scheduledTasks = mutableListOf<Pair<Runnable, Long>>()
+
+    private val handler: Handler = mock {
+        on { postDelayed(any(), any()) } doAnswer {
+            scheduledTasks += it.getArgument<Runnable>(0) to now + it.getArgument<Long>(1)
+            true
+        }
+        on { removeCallbacks(any()) } doAnswer {
+            val runnable = it.getArgument<Runnable>(0)
+            scheduledTasks.removeAll { (task, _) -> task === runnable }
+            Unit
+        }
+    }
+
+    private val pool: BannerViewPool = mock()
+
+    private var canPreload = true
+
+    private val createdViews = mutableListOf<CriteoBannerView>()
+
+    private val preloader = BannerPreloader(
+        handler,
+        pool,
+        canPreload = { canPreload },
+        clock = { now },
+        createView = { _, _ -> givenBannerView().also { createdViews += it } }
+    )
+
+    private val activity: Activity = mock()
+
+    private val adUnit = BannerAdUnit("banner", AdSize(320, 50))
+
+    @Test
+    fun onLoadFilled_GivenFirstLoad_DoNotPreload() {
+        preloader.onLoadFilled(activity, adUnit)
+
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun onLoadFilled_GivenRefreshedSlot_PreloadBeforeNextRefresh() {
+        givenRefreshedSlot(intervalMs = 30_000)
+
+        assertThat(scheduledTasks.single().second)
+            .isEqualTo(60_000 - BannerPreloader.PRELOAD_LEAD_MS)
+
+        advanceTo(60_000 - BannerPreloader.PRELOAD_LEAD_MS)
+
+        verify(createdViews.single()).loadAd()
+    }
+
+    @Test
+    fun onLoadFilled_GivenIrregularLoads_DoNotPreload() {
+        preloader.onLoadFilled(activity, adUnit)
+        now += 1_000
+        preloader.onLoadFilled(activity, adUnit)
+        now += BannerPreloader.MAX_REFRESH_INTERVAL_MS + 1
+        preloader.onLoadFilled(activity, adUnit)
+
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun preload_GivenPooledView_ReuseIt() {
+        val pooledView = givenBannerView()
+        whenever(pool.acquire(activity, adUnit)).thenReturn(pooledView)
+        givenRefreshedSlot(intervalMs = 30_000)
+
+        advanceTo(now + 30_000)
+
+        verify(pooledView).loadAd()
+        assertThat(createdViews).isEmpty()
+    }
+
+    @Test
+    fun preload_GivenPreloadNotPossible_DoNothing() {
+        canPreload = false
+        givenRefreshedSlot(intervalMs = 30_000)
+
+        advanceTo(now + 30_000)
+
+        assertThat(createdViews).isEmpty()
+        assertThat(preloader.take(activity, adUnit)).isNull()
+    }
+
+    @Test
+    fun take_GivenReceivedPreload_NotifyListenerDirectlyAndOnlyOnce() {
+        givenRefreshedSlot(intervalMs = 30_000)
+        advanceTo(now + 30_000)
+        val view = createdViews.single()
+        view.listener!!.onAdReceived(view)
+        val listener: CriteoBannerAdListener = mock()
+
+        val preloadedBanner = preloader.take(activity, adUnit)!!
+        preloadedBanner.handOver(listener)
+
+        verify(listener).onAdReceived(view)
+        verify(view).setCriteoBannerAdListener(listener)
+        assertThat(preloader.take(activity, adUnit)).isNull()
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun take_GivenLoadingPreload_ForwardLaterResult() {
+        givenRefreshedSlot(intervalMs = 30_000)
+        advanceTo(now + 30_000)
+        val view = createdViews.single()
+        val preloadListener = view.listener!!
+        val listener: CriteoBannerAdListener = mock()
+
+        preloader.take(activity, adUnit)!!.handOver(listener)
+        verify(listener, never()).onAdReceived(any())
+        preloadListener.onAdReceived(view)
+
+        verify(listener).onAdReceived(view)
+    }
+
+    @Test
+    fun take_GivenFailedPreload_ReleaseItAndReturnNull() {
+        givenRefreshedSlot(intervalMs = 30_000)
+        advanceTo(now + 30_000)
+        val view = createdViews.single()
+        view.listener!!.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+
+        assertThat(preloader.take(activity, adUnit)).isNull()
+        verify(pool).release(activity, adUnit, view)
+    }
+
+    @Test
+    fun preload_GivenExpiredPreload_ReleaseIt() {
+        givenRefreshedSlot(intervalMs = 30_000)
+        advanceTo(now + 30_000)
+        val view = createdViews.single()
+
+        advanceTo(now + BannerPreloader.MAX_PRELOAD_AGE_MS)
+
+        verify(pool).release(activity, adUnit, view)
+        assertThat(view.listener).isNull()
+        assertThat(preloader.take(activity, adUnit)).isNull()
+    }
+
+    @Test
+    fun onLoadFilled_WatchActivities() {
+        preloader.onLoadFilled(activity, adUnit)
+
+        verify(pool).watchActivities(activity)
+    }
+
+    @Test
+    fun givenDestroyedActivity_ForgetItsSlotsWithoutWaitingNextLoad() {
+        val otherActivity: Activity = mock()
+        givenRefreshedSlot(intervalMs = 30_000)
+        advanceTo(now + 30_000)
+        val view = createdViews.single()
+        // Next preload is scheduled while the previous one is still not taken
+        preloader.onLoadFilled(activity, adUnit)
+        preloader.onLoadFilled(otherActivity, adUnit)
+
+        val onActivityDestroyed = argumentCaptor<(Activity) -> Unit>()
+        verify(pool).addActivityDestroyedListener(onActivityDestroyed.capture())
+        onActivityDestroyed.firstValue(activity)
+
+        assertThat(preloader.slotCount()).isEqualTo(1)
+        verify(pool).release(eq(activity), eq(adUnit), eq(view))
+        advanceTo(now + 60_000)
+        assertThat(createdViews).hasSize(1)
+    }
+
+    @Test
+    fun onLoadFilled_GivenTooManySlots_ForgetOldestOne() {
+        repeat(BannerPreloader.MAX_SLOTS + 1) {
+            preloader.onLoadFilled(activity, BannerAdUnit("banner$it", AdSize(320, 50)))
+        }
+
+        assertThat(preloader.slotCount()).isEqualTo(BannerPreloader.MAX_SLOTS)
+    }
+
+    private fun givenRefreshedSlot(intervalMs: Long) {
+        preloader.onLoadFilled(activity, adUnit)
+        now += intervalMs
+        preloader.onLoadFilled(activity, adUnit)
+    }
+
+    private fun advanceTo(time: Long) {
+        now = time
+        while (true) {
+            val task = scheduledTasks.firstOrNull { (_, dueTime) -> dueTime <= now } ?: return
+            scheduledTasks.remove(task)
+            task.first.run()
+        }
+    }
+
+    private val listeners = mutableMapOf<CriteoBannerView, CriteoBannerAdListener?>()
+
+    private val CriteoBannerView.listener: CriteoBannerAdListener?
+        get() = listeners[this]
+
+    private fun givenBannerView(): CriteoBannerView {
+        val view: CriteoBannerView = mock()
+        doAnswer { listeners[view] = it.getArgument(0); Unit }
+            .whenever(view).setCriteoBannerAdListener(anyOrNull())
+        return view
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Activity
+import android.app.Application
+import android.content.Context
+import android.view.View
+import android.view.ViewGroup
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.BannerAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class BannerViewPoolTest {
+
+    private val pool = BannerViewPool(maxViewsPerSlot = 2)
+
+    private val application: Application = mock()
+
+    private val activity: Activity = mock {
+        on { applicationContext } doReturn application
+    }
+
+    private val adUnit = BannerAdUnit("banner", AdSize(320, 50))
+
+    @Test
+    fun acquire_GivenEmptyPool_ReturnNull() {
+        assertThat(pool.acquire(activity, adUnit)).isNull()
+    }
+
+    @Test
+    fun acquire_GivenReleasedView_ReturnItOnlyOnce() {
+        val view: CriteoBannerView = mock()
+        pool.release(activity, adUnit, view)
+
+        assertThat(pool.acquire(activity, adUnit)).isSameAs(view)
+        assertThat(pool.acquire(activity, adUnit)).isNull()
+    }
+
+    @Test
+    fun acquire_GivenViewOfOtherSlot_ReturnNull() {
+        val otherActivity: Activity = mock()
+        pool.release(activity, adUnit, mock())
+
+        assertThat(pool.acquire(otherActivity, adUnit)).isNull()
+        assertThat(pool.acquire(activity, BannerAdUnit("banner", AdSize(300, 250)))).isNull()
+    }
+
+    @Test
+    fun acquire_GivenViewStillInParent_SkipIt() {
+        val parent: ViewGroup = mock()
+        val viewInParent: CriteoBannerView = mock {
+            on { getParent() } doReturn parent
+        }
+        val freeView: CriteoBannerView = mock()
+        pool.release(activity, adUnit, viewInParent)
+        pool.release(activity, adUnit, freeView)
+
+        assertThat(pool.acquire(activity, adUnit)).isSameAs(freeView)
+        assertThat(pool.acquire(activity, adUnit)).isNull()
+    }
+
+    @Test
+    fun release_GivenFullSlot_DestroyOldestView() {
+        val views = List(3) { mock<CriteoBannerView>() }
+        views.forEach { pool.release(activity, adUnit, it) }
+
+        assertThat(pool.size()).isEqualTo(2)
+        verify(views[0]).destroy()
+        verify(views[1], never()).destroy()
+        verify(views[2], never()).destroy()
+    }
+
+    @Test
+    fun release_GivenSameViewTwice_KeepItOnce() {
+        val view: CriteoBannerView = mock()
+
+        pool.release(activity, adUnit, view)
+        pool.release(activity, adUnit, view)
+
+        assertThat(pool.size()).isEqualTo(1)
+    }
+
+    @Test
+    fun release_GivenDestroyedActivity_DestroyView() {
+        val destroyedActivity: Activity = mock {
+            on { isDestroyed } doReturn true
+        }
+        val view: CriteoBannerView = mock()
+
+        pool.release(destroyedActivity, adUnit, view)
+
+        verify(view).destroy()
+        assertThat(pool.size()).isZero
+    }
+
+    @Test
+    fun releaseWhenDetached_GivenDetachedThenAttachedView_ReleaseThenRemoveIt() {
+        val view: CriteoBannerView = mock()
+        pool.releaseWhenDetached(activity, adUnit, view)
+        pool.releaseWhenDetached(activity, adUnit, view)
+        val listener = argumentCaptor<View.OnAttachStateChangeListener>()
+        verify(view, times(1)).addOnAttachStateChangeListener(listener.capture())
+
+        listener.firstValue.onViewDetachedFromWindow(view)
+        assertThat(pool.size()).isEqualTo(1)
+
+        listener.firstValue.onViewAttachedToWindow(view)
+        assertThat(pool.size()).isZero
+    }
+
+    @Test
+    fun givenDestroyedActivity_DestroyItsViews() {
+        val view: CriteoBannerView = mock()
+        val otherActivity: Activity = mock()
+        val otherView: CriteoBannerView = mock()
+        pool.acquire(activity, adUnit)
+        pool.release(activity, adUnit, view)
+        pool.release(otherActivity, adUnit, otherView)
+
+        val callbacks = argumentCaptor<Application.ActivityLifecycleCallbacks>()
+        verify(application).registerActivityLifecycleCallbacks(callbacks.capture())
+        callbacks.firstValue.onActivityDestroyed(activity)
+
+        verify(view).destroy()
+        verify(otherView, never()).destroy()
+        assertThat(pool.acquire(otherActivity, adUnit)).isSameAs(otherView)
+    }
+
+    @Test
+    fun givenDestroyedActivity_NotifyListenersBeforeDestroyingItsViews() {
+        val view: CriteoBannerView = mock()
+        val events = mutableListOf<String>()
+        whenever(view.destroy()).then {
+            events += "destroy"
+            Unit
+        }
+        pool.addActivityDestroyedListener { events += "destroyed $it" }
+        pool.watchActivities(activity)
+        pool.release(activity, adUnit, view)
+
+        val callbacks = argumentCaptor<Application.ActivityLifecycleCallbacks>()
+        verify(application).registerActivityLifecycleCallbacks(callbacks.capture())
+        callbacks.firstValue.onActivityDestroyed(activity)
+
+        assertThat(events).containsExactly("destroyed $activity", "destroy")
+    }
+
+    @Test
+    fun acquire_CalledTwice_WatchActivitiesOnlyOnce() {
+        val context: Context = mock {
+            on { applicationContext } doReturn application
+        }
+
+        pool.acquire(context, adUnit)
+        pool.acquire(activity, adUnit)
+
+        verify(application, times(1)).registerActivityLifecycleCallbacks(org.mockito.kotlin.any())
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import com.criteo.publisher.Bid
+import com.criteo.publisher.BidResponseListener
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.model.InterstitialAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+
+class BidPrefetcherTest {
+
+    private var now = 0L
+
+    private val criteo: Criteo = mock()
+
+    private val prefetcher = BidPrefetcher(MAX_BID_AGE_MS) { now }
+
+    private val adUnit = NativeAdUnit("native")
+
+    @Test
+    fun prefetch_GivenNewAdUnit_LoadBidOnlyOnce() {
+        prefetcher.prefetch(criteo, listOf(adUnit))
+        prefetcher.prefetch(criteo, listOf(adUnit))
+
+        verify(criteo).loadBid(eq(adUnit), any())
+    }
+
+    @Test
+    fun prefetch_GivenAdUnitMarkedAsFetched_DoNotLoadBid() {
+        prefetcher.markAsFetched(listOf(adUnit))
+
+        prefetcher.prefetch(criteo, listOf(adUnit))
+
+        verify(criteo, never()).loadBid(any(), any())
+    }
+
+    @Test
+    fun takeBid_GivenPrefetchedBid_ReturnItOnlyOnce() {
+        val bid: Bid = mock()
+        givenPrefetchedBid(bid)
+
+        assertThat(prefetcher.takeBid(adUnit)).isSameAs(bid)
+        assertThat(prefetcher.takeBid(adUnit)).isNull()
+    }
+
+    @Test
+    fun takeBid_GivenKeptBid_ReturnItWhileFresh() {
+        val bid: Bid = mock()
+        prefetcher.keepBid(adUnit, bid)
+
+        assertThat(prefetcher.takeBid(adUnit)).isSameAs(bid)
+
+        prefetcher.keepBid(adUnit, bid)
+        now += MAX_BID_AGE_MS + 1
+        assertThat(prefetcher.takeBid(adUnit)).isNull()
+    }
+
+    @Test
+    fun takeBid_GivenPrefetchedBidOfOtherAdUnit_ReturnNull() {
+        givenPrefetchedBid(mock())
+
+        assertThat(prefetcher.takeBid(InterstitialAdUnit("native"))).isNull()
+    }
+
+    @Test
+    fun takeBid_GivenNoBidReturnedByPrefetch_ReturnNull() {
+        givenPrefetchedBid(null)
+
+        assertThat(prefetcher.takeBid(adUnit)).isNull()
+    }
+
+    @Test
+    fun takeBid_GivenTooOldPrefetchedBid_ReturnNull() {
+        givenPrefetchedBid(mock())
+        now += MAX_BID_AGE_MS + 1
+
+        assertThat(prefetcher.takeBid(adUnit)).isNull()
+    }
+
+    private fun givenPrefetchedBid(bid: Bid?) {
+        prefetcher.prefetch(criteo, listOf(adUnit))
+
+        val listenerCaptor = argumentCaptor<BidResponseListener>()
+        verify(criteo).loadBid(eq(adUnit), listenerCaptor.capture())
+        listenerCaptor.firstValue.onResponse(bid)
+    }
+
+    private companion object {
+        const val MAX_BID_AGE_MS = 1000L
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CircuitBreakerTest {
+
+    private var now = 0L
+
+    private val circuitBreaker = CircuitBreaker(
+        failureThreshold = 3,
+        burstWindowMs = 1_000,
+        openDurationMs = 5_000
+    ) { now }
+
+    @Test
+    fun tryAcquire_GivenNoFailure_ReturnTrue() {
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+        assertThat(circuitBreaker.isOpen()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenBurstOfNetworkErrors_ReturnFalseUntilEndOfOpenDuration() {
+        givenNetworkErrors(3)
+
+        assertThat(circuitBreaker.isOpen()).isTrue
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+
+        now += 4_999
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenNetworkErrorsSpreadOverTime_ReturnTrue() {
+        givenNetworkErrors(2)
+        now += 1_001
+        givenNetworkErrors(2)
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+    }
+
+    @Test
+    fun tryAcquire_GivenOtherAnswerBetweenNetworkErrors_ReturnTrue() {
+        givenNetworkErrors(2)
+        circuitBreaker.onLoadFinished(noFillError())
+        givenNetworkErrors(2)
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+    }
+
+    @Test
+    fun tryAcquire_GivenTimeoutsBetweenNetworkErrors_IgnoreThem() {
+        givenNetworkErrors(2)
+        circuitBreaker.onLoadFinished(loadTimeoutError())
+        givenNetworkErrors(1)
+
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenHalfOpen_LetOnlyOneProbeThrough() {
+        givenOpenCircuit()
+        now += 5_000
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenSuccessfulProbe_CloseCircuit() {
+        givenOpenCircuit()
+        now += 5_000
+        circuitBreaker.tryAcquire()
+
+        circuitBreaker.onLoadFinished(null)
+
+        assertThat(circuitBreaker.isOpen()).isFalse
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+    }
+
+    @Test
+    fun tryAcquire_GivenProbeReachingServersWithoutAd_CloseCircuit() {
+        givenOpenCircuit()
+        now += 5_000
+        circuitBreaker.tryAcquire()
+
+        circuitBreaker.onLoadFinished(noFillError())
+
+        assertThat(circuitBreaker.isOpen()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenFailedProbe_OpenCircuitAgain() {
+        givenOpenCircuit()
+        now += 5_000
+        circuitBreaker.tryAcquire()
+
+        circuitBreaker.onLoadFinished(networkError())
+
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+        now += 5_000
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+    }
+
+    @Test
+    fun tryAcquire_GivenTimedOutProbe_OpenCircuitAgain() {
+        givenOpenCircuit()
+        now += 5_000
+        circuitBreaker.tryAcquire()
+
+        circuitBreaker.onLoadFinished(loadTimeoutError())
+
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+    }
+
+    @Test
+    fun tryAcquire_GivenProbeNeverFinishing_LetAnotherProbeThroughLater() {
+        givenOpenCircuit()
+        now += 5_000
+        circuitBreaker.tryAcquire()
+
+        now += 4_999
+        assertThat(circuitBreaker.tryAcquire()).isFalse
+        now += 1
+        assertThat(circuitBreaker.tryAcquire()).isTrue
+    }
+
+    private fun givenOpenCircuit() {
+        givenNetworkErrors(3)
+        assertThat(circuitBreaker.isOpen()).isTrue
+    }
+
+    private fun givenNetworkErrors(count: Int) {
+        repeat(count) {
+            circuitBreaker.onLoadFinished(networkError())
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkInfo
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doThrow
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+
+class ConnectivityMonitorTest {
+
+    private val monitor = ConnectivityMonitor()
+
+    private var activeNetworkInfo: NetworkInfo? = null
+
+    private val connectivityManager: ConnectivityManager = mock {
+        on { activeNetworkInfo } doAnswer { activeNetworkInfo }
+    }
+
+    private val context: Context = givenContext(connectivityManager)
+
+    @Test
+    fun isOffline_GivenNotStarted_ReturnFalse() {
+        assertThat(monitor.isOffline()).isFalse
+    }
+
+    @Test
+    fun start_GivenConnectedActiveNetwork_NotOffline() {
+        activeNetworkInfo = mock { on { isConnected } doReturn true }
+
+        monitor.start(context)
+
+        assertThat(monitor.isOffline()).isFalse
+    }
+
+    @Test
+    fun start_GivenNoActiveNetwork_Offline() {
+        monitor.start(context)
+
+        assertThat(monitor.isOffline()).isTrue
+    }
+
+    @Test
+    fun start_CalledTwice_RegisterCallbackOnlyOnce() {
+        monitor.start(context)
+        monitor.start(context)
+
+        verify(connectivityManager, times(1)).registerNetworkCallback(anyOrNull(), any<ConnectivityManager.NetworkCallback>())
+    }
+
+    @Test
+    fun isOffline_GivenNetworkCallbacks_FollowAvailableNetworks() {
+        monitor.start(context)
+        val callback = registeredCallback()
+        val wifi: Network = mock()
+        val cellular: Network = mock()
+
+        callback.onAvailable(wifi)
+        assertThat(monitor.isOffline()).isFalse
+
+        callback.onAvailable(cellular)
+        callback.onLost(wifi)
+        assertThat(monitor.isOffline()).isFalse
+
+        callback.onLost(cellular)
+        assertThat(monitor.isOffline()).isTrue
+
+        callback.onAvailable(wifi)
+        assertThat(monitor.isOffline()).isFalse
+    }
+
+    @Test
+    fun isOffline_GivenMissingPermission_ReturnFalse() {
+        val connectivityManager: ConnectivityManager = mock {
+            on {
+                registerNetworkCallback(anyOrNull(), any<ConnectivityManager.NetworkCallback>())
+            } doThrow SecurityException()
+        }
+
+        monitor.start(givenContext(connectivityManager))
+
+        assertThat(monitor.isOffline()).isFalse
+    }
+
+    private fun registeredCallback(): ConnectivityManager.NetworkCallback {
+        val callback = argumentCaptor<ConnectivityManager.NetworkCallback>()
+        verify(connectivityManager).registerNetworkCallback(anyOrNull(), callback.capture())
+        return callback.firstValue
+    }
+
+    private fun givenContext(connectivityManager: ConnectivityManager): Context {
+        val applicationContext: Context = mock {
+            on { getSystemService(Context.CONNECTIVITY_SERVICE) } doReturn connectivityManager
+        }
+        return mock {
+            on { this.applicationContext } doReturn applicationContext
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.os.Bundle
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.CriteoBannerAdListener
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.CriteoErrorCode
+import com.google.android.gms.ads.AdError
+import com.google.android.gms.ads.AdRequest
+import com.google.android.gms.ads.AdSize
+import com.google.android.gms.ads.mediation.MediationAdLoadCallback
+import com.google.android.gms.ads.mediation.MediationBannerAd
+import com.google.android.gms.ads.mediation.MediationBannerAdCallback
+import com.google.android.gms.ads.mediation.MediationBannerAdConfiguration
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.mockito.MockedConstruction
+import org.mockito.MockedStatic
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.atMost
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+/**
+ * Drive the whole cycle of the [CriteoAdapter.circuitBreaker] with banner loads answered by a
+ * [FakeCriteoServer].
+ */
+class CriteoAdapterCircuitBreakerTest {
+
+    private var now = 0L
+
+    private val server = FakeCriteoServer()
+
+    private val adapter = CriteoAdapter()
+
+    private val context: Context = mock {
+        val editor: SharedPreferences.Editor = mock(defaultAnswer = Mockito.RETURNS_SELF)
+        val sharedPreferences: SharedPreferences = mock {
+            on { edit() } doReturn editor
+        }
+        on { getSharedPreferences(any<String>(), any()) } doReturn sharedPreferences
+    }
+
+    private lateinit var previousCircuitBreaker: CircuitBreaker
+    private lateinit var criteo: MockedStatic<Criteo>
+    private lateinit var bannerViews: MockedConstruction<CriteoBannerView>
+
+    private var nextAdUnitId = 0
+
+    @Before
+    fun setUp() {
+        previousCircuitBreaker = CriteoAdapter.circuitBreaker
+        CriteoAdapter.circuitBreaker = CircuitBreaker(
+            failureThreshold = 3,
+            burstWindowMs = 1_000,
+            openDurationMs = 10_000
+        ) { now }
+
+        criteo = Mockito.mockStatic(Criteo::class.java)
+        criteo.`when`<Criteo> { Criteo.getInstance() }.thenReturn(mock())
+
+        bannerViews = Mockito.mockConstruction(CriteoBannerView::class.java) { bannerView, _ ->
+            var listener: CriteoBannerAdListener? = null
+            doAnswer { listener = it.getArgument(0) }
+                .whenever(bannerView).setCriteoBannerAdListener(anyOrNull())
+            doAnswer { server.answer(bannerView, listener!!) }.whenever(bannerView).loadAd()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        bannerViews.close()
+        criteo.close()
+        CriteoAdapter.circuitBreaker = previousCircuitBreaker
+    }
+
+    @Test
+    fun givenUnreachableServer_OpenCircuitThenProbeUntilServerIsBack() {
+        // Closed: the first network errors reach the server
+        server.isReachable = false
+        repeat(3) {
+            assertThat(loadBanner()).isEqualTo(AdRequest.ERROR_CODE_NETWORK_ERROR)
+        }
+        assertThat(server.requestCount).isEqualTo(3)
+
+        // Open: loads fail directly, even if the server is back
+        server.isReachable = true
+        repeat(5) {
+            assertThat(loadBanner()).isEqualTo(AdRequest.ERROR_CODE_NETWORK_ERROR)
+        }
+        assertThat(server.requestCount).isEqualTo(3)
+
+        // Half-open: a single probe, failing, reopens the circuit
+        server.isReachable = false
+        now += 10_000
+        assertThat(loadBanner()).isEqualTo(AdRequest.ERROR_CODE_NETWORK_ERROR)
+        assertThat(loadBanner()).isEqualTo(AdRequest.ERROR_CODE_NETWORK_ERROR)
+        assertThat(server.requestCount).isEqualTo(4)
+
+        // Half-open again: a successful probe closes the circuit
+        server.isReachable = true
+        now += 10_000
+        assertThat(loadBanner()).isNull()
+        assertThat(loadBanner()).isNull()
+        assertThat(loadBanner()).isNull()
+        assertThat(server.requestCount).isEqualTo(7)
+    }
+
+    @Test
+    fun givenPreloadedBanners_OnlyTrackSlotsOfFilledLoads() {
+        val preloader = CriteoInitializer.bannerPreloader
+        val initialSlotCount = preloader.slotCount()
+
+        try {
+            server.isReachable = false
+            repeat(3) { loadBanner(preloadBanners = true) }
+            assertThat(CriteoAdapter.circuitBreaker.isOpen()).isTrue
+            repeat(2) { loadBanner(preloadBanners = true) }
+            assertThat(preloader.slotCount()).isEqualTo(initialSlotCount)
+
+            server.isReachable = true
+            now += 10_000
+            assertThat(loadBanner(preloadBanners = true)).isNull()
+            assertThat(preloader.slotCount()).isEqualTo(initialSlotCount + 1)
+        } finally {
+            preloader.forget(context)
+        }
+    }
+
+    /**
+     * Load a banner of a new ad unit and return the code of its error, or `null` if it is filled.
+     */
+    private fun loadBanner(preloadBanners: Boolean = false): Int? {
+        val adUnitId = "circuitBreaker${nextAdUnitId++}"
+        val bundle: Bundle = mock {
+            on { getString(CriteoAdapter.SERVER_PARAMETER_KEY, "") } doReturn
+                """{"cpId":"B-123456","adUnitId":"$adUnitId","preloadBanners":$preloadBanners}"""
+        }
+        val configuration: MediationBannerAdConfiguration = mock {
+            on { context } doReturn context
+            on { serverParameters } doReturn bundle
+            on { adSize } doReturn AdSize(320, 50)
+        }
+        val adCallback: MediationBannerAdCallback = mock()
+        val callback: MediationAdLoadCallback<MediationBannerAd, MediationBannerAdCallback> = mock {
+            on { onSuccess(any()) } doReturn adCallback
+        }
+
+        adapter.loadBannerAd(configuration, callback)
+
+        val errors = argumentCaptor<AdError>()
+        verify(callback, atMost(1)).onFailure(errors.capture())
+        val error = errors.allValues.singleOrNull()
+        verify(callback, times(if (error == null) 1 else 0)).onSuccess(any())
+        return error?.code
+    }
+
+    /**
+     * Stand-in for the Criteo servers, answering bid requests synchronously depending on whether
+     * it is reachable.
+     */
+    private class FakeCriteoServer {
+        var isReachable = true
+        var requestCount = 0
+            private set
+
+        fun answer(bannerView: CriteoBannerView, listener: CriteoBannerAdListener) {
+            requestCount++
+            if (isReachable) {
+                listener.onAdReceived(bannerView)
+            } else {
+                listener.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NETWORK_ERROR)
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.os.Bundle
+import android.os.Handler
+import com.criteo.publisher.Bid
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.CriteoBannerAdListener
+import com.criteo.publisher.CriteoBannerView
+import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.CriteoInterstitial
+import com.criteo.publisher.CriteoInterstitialAdListener
+import com.criteo.publisher.advancednative.CriteoNativeAdListener
+import com.criteo.publisher.advancednative.CriteoNativeLoader
+import com.google.android.gms.ads.AdSize
+import com.google.android.gms.ads.mediation.MediationAdLoadCallback
+import com.google.android.gms.ads.mediation.MediationBannerAd
+import com.google.android.gms.ads.mediation.MediationBannerAdCallback
+import com.google.android.gms.ads.mediation.MediationBannerAdConfiguration
+import com.google.android.gms.ads.mediation.MediationInterstitialAd
+import com.google.android.gms.ads.mediation.MediationInterstitialAdCallback
+import com.google.android.gms.ads.mediation.MediationInterstitialAdConfiguration
+import com.google.android.gms.ads.mediation.MediationNativeAdCallback
+import com.google.android.gms.ads.mediation.MediationNativeAdConfiguration
+import com.google.android.gms.ads.mediation.UnifiedNativeAdMapper
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.mockingDetails
+import org.mockito.kotlin.whenever
+import java.util.Random
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Fires many interleaved loads of all formats on the same adapter while the SDK answers them
+ * concurrently from several threads, sometimes more than once.
+ *
+ * Loads are all started from the test thread because static and construction mocks are only active
+ * on the thread that created them. Concurrency comes from the SDK callbacks, and from the bids
+ * fetched for coalesced loads. For the same reason, the test thread also plays the main thread, on
+ * which coalesced loads are started.
+ */
+class CriteoAdapterConcurrencyTest {
+
+    private val executor = Executors.newFixedThreadPool(8)
+
+    private val random = Random(42)
+
+    private val adapter = CriteoAdapter()
+
+    private val context: Context = mock {
+        val editor: SharedPreferences.Editor = mock(defaultAnswer = Mockito.RETURNS_SELF)
+        val sharedPreferences: SharedPreferences = mock {
+            on { edit() } doReturn editor
+        }
+        on { getSharedPreferences(any<String>(), any()) } doReturn sharedPreferences
+    }
+
+    private val mainThreadTasks = ConcurrentLinkedQueue<Runnable>()
+
+    private val mainHandler: Handler = mock {
+        on { post(any()) } doAnswer {
+            mainThreadTasks += it.getArgument<Runnable>(0)
+            true
+        }
+    }
+
+    private val previousCircuitBreaker = CriteoAdapter.circuitBreaker
+
+    private val previousLoadCoalescer = CriteoAdapter.loadCoalescer
+
+    @Before
+    fun setUp() {
+        // Random network errors may open the circuit: keep it away from other tests
+        CriteoAdapter.circuitBreaker = CircuitBreaker()
+        CriteoAdapter.loadCoalescer = LoadCoalescer(
+            mainHandler,
+            fetchBid = { _, onBid ->
+                val bid: Bid? = if (random.nextBoolean()) mock() else null
+                executor.execute { onBid(bid) }
+                true
+            },
+            keepLeftoverBid = { _, _ -> }
+        )
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+        CriteoAdapter.circuitBreaker = previousCircuitBreaker
+        CriteoAdapter.loadCoalescer = previousLoadCoalescer
+    }
+
+    @Test
+    fun givenManyConcurrentLoads_EveryLoadIsAnsweredExactlyOnce() {
+        val callbacks = mutableListOf<MediationAdLoadCallback<*, *>>()
+
+        Mockito.mockStatic(Criteo::class.java).use { criteo ->
+            criteo.`when`<Criteo> { Criteo.getInstance() }.thenReturn(mock())
+
+            Mockito.mockConstruction(CriteoBannerView::class.java) { bannerView, _ ->
+                var listener: CriteoBannerAdListener? = null
+                doAnswer { listener = it.getArgument(0) }
+                    .whenever(bannerView).setCriteoBannerAdListener(any())
+                val answer = doAnswer {
+                    answerLater(
+                        { listener!!.onAdReceived(bannerView) },
+                        { listener!!.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL) }
+                    )
+                }
+                answer.whenever(bannerView).loadAd()
+                answer.whenever(bannerView).loadAd(any<Bid>())
+            }.use {
+                Mockito.mockConstruction(CriteoInterstitial::class.java) { interstitial, _ ->
+                    var listener: CriteoInterstitialAdListener? = null
+                    doAnswer { listener = it.getArgument(0) }
+                        .whenever(interstitial).setCriteoInterstitialAdListener(any())
+                    val answer = doAnswer {
+                        answerLater(
+                            { listener!!.onAdReceived(interstitial) },
+                            { listener!!.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NETWORK_ERROR) }
+                        )
+                    }
+                    answer.whenever(interstitial).loadAd()
+                    answer.whenever(interstitial).loadAd(any<Bid>())
+                }.use {
+                    Mockito.mockConstruction(CriteoNativeLoader::class.java) { nativeLoader, context ->
+                        val listener = context.arguments()[1] as CriteoNativeAdListener
+                        val answer = doAnswer {
+                            answerLater(
+                                { listener.onAdReceived(mock()) },
+                                { listener.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL) }
+                            )
+                        }
+                        answer.whenever(nativeLoader).loadAd()
+                        answer.whenever(nativeLoader).loadAd(any<Bid>())
+                    }.use {
+                        // Few ad units, so that loads of the same ad unit overlap and are coalesced
+                        repeat(LOAD_COUNT) { i ->
+                            callbacks += when (random.nextInt(3)) {
+                                0 -> loadBanner("banner${i % 3}")
+                                1 -> loadInterstitial("interstitial${i % 3}")
+                                else -> loadNative("native${i % 3}")
+                            }
+                        }
+                        runMainThreadUntilAnswered(callbacks)
+                    }
+                }
+            }
+        }
+
+        executor.shutdown()
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue
+
+        assertThat(callbacks).hasSize(LOAD_COUNT).allSatisfy {
+            val invocations = mockingDetails(it).invocations.map { invocation ->
+                invocation.method.name
+            }
+            assertThat(invocations).hasSize(1).isSubsetOf("onSuccess", "onFailure")
+        }
+        assertThat(CriteoAdapter.inFlightLoaderCount()).isZero
+    }
+
+    /**
+     * Run the tasks posted to the main thread until all the given callbacks are answered.
+     */
+    private fun runMainThreadUntilAnswered(callbacks: List<MediationAdLoadCallback<*, *>>) {
+        val deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (System.nanoTime() < deadlineNanos) {
+            val task = mainThreadTasks.poll()
+            if (task != null) {
+                task.run()
+            } else if (callbacks.all { mockingDetails(it).invocations.isNotEmpty() }) {
+                return
+            } else {
+                Thread.sleep(1)
+            }
+        }
+    }
+
+    /**
+     * Answer on another thread, with either a success or a failure, and sometimes with a spurious
+     * second answer.
+     */
+    private fun answerLater(onSuccess: () -> Unit, onFailure: () -> Unit) {
+        val isSuccess = random.nextBoolean()
+        val isAnsweredTwice = random.nextInt(4) == 0
+        executor.execute {
+            if (isSuccess) onSuccess() else onFailure()
+            if (isAnsweredTwice) onFailure()
+        }
+    }
+
+    private fun loadBanner(adUnitId: String): MediationAdLoadCallback<*, *> {
+        val bundle = givenServerParameters(adUnitId)
+        val callback = givenCallback<MediationBannerAd, MediationBannerAdCallback>()
+        val configuration: MediationBannerAdConfiguration = mock {
+            on { context } doReturn context
+            on { serverParameters } doReturn bundle
+            on { adSize } doReturn AdSize(320, 50)
+        }
+        adapter.loadBannerAd(configuration, callback)
+        return callback
+    }
+
+    private fun loadInterstitial(adUnitId: String): MediationAdLoadCallback<*, *> {
+        val bundle = givenServerParameters(adUnitId)
+        val callback = givenCallback<MediationInterstitialAd, MediationInterstitialAdCallback>()
+        val configuration: MediationInterstitialAdConfiguration = mock {
+            on { context } doReturn context
+            on { serverParameters } doReturn bundle
+        }
+        adapter.loadInterstitialAd(configuration, callback)
+        return callback
+    }
+
+    private fun loadNative(adUnitId: String): MediationAdLoadCallback<*, *> {
+        val bundle = givenServerParameters(adUnitId)
+        val callback = givenCallback<UnifiedNativeAdMapper, MediationNativeAdCallback>()
+        // Rendering native assets needs a real Android environment, which only happens when the
+        // configuration has a context. So the context is only given to the load itself.
+        val configuration: MediationNativeAdConfiguration = mock {
+            on { context }.doReturn(context, null)
+            on { serverParameters } doReturn bundle
+        }
+        adapter.loadNativeAd(configuration, callback)
+        return callback
+    }
+
+    private inline fun <reified A, reified C : Any> givenCallback(): MediationAdLoadCallback<A, C> {
+        val adCallback: C = mock()
+        return mock {
+            on { onSuccess(anyOrNull()) } doReturn adCallback
+        }
+    }
+
+    private fun givenServerParameters(adUnitId: String): Bundle {
+        val serverParameter = """{"cpId":"B-123456","adUnitId":"$adUnitId"}"""
+        return mock {
+            on { getString(CriteoAdapter.SERVER_PARAMETER_KEY, "") } doReturn serverParameter
+        }
+    }
+
+    private companion object {
+        const val LOAD_COUNT = 600
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.app.Application
+import android.content.Context
+import android.content.SharedPreferences
+import com.criteo.publisher.Criteo
+import com.criteo.publisher.model.AdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.check
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doThrow
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class CriteoAdapterInitProviderTest {
+
+    private val sharedPreferences: SharedPreferences = mock()
+
+    private val application: Application = mock()
+
+    private val context: Context = mock {
+        on { applicationContext } doReturn application
+        on { getSharedPreferences(any<String>(), any()) } doReturn sharedPreferences
+    }
+
+    @Test
+    fun onCreate_GivenNoSnapshot_DoNotInitialize() {
+        Mockito.mockConstruction(Criteo.Builder::class.java).use { builders ->
+            assertThat(CriteoAdapterInitProvider.initializeFromSnapshot(context)).isFalse
+
+            assertThat(builders.constructed()).isEmpty()
+        }
+    }
+
+    @Test
+    fun onCreate_GivenCorruptSnapshot_DoNotInitialize() {
+        whenever(sharedPreferences.getString(any(), anyOrNull())) doThrow ClassCastException()
+
+        Mockito.mockConstruction(Criteo.Builder::class.java).use { builders ->
+            assertThat(CriteoAdapterInitProvider.initializeFromSnapshot(context)).isFalse
+
+            assertThat(builders.constructed()).isEmpty()
+        }
+    }
+
+    @Test
+    fun onCreate_GivenSnapshot_InitializeCriteoFromIt() {
+        whenever(sharedPreferences.getString("cpId", null)) doReturn "B-123456"
+        whenever(sharedPreferences.getString("inventoryGroupId", null)) doReturn "inventoryGroup"
+        whenever(sharedPreferences.getStringSet("adUnits", null)) doReturn
+            setOf("native|0|0|earlyNative", "corrupted")
+
+        Mockito.mockStatic(Criteo::class.java).use { criteo ->
+            criteo.`when`<Criteo> { Criteo.getInstance() }
+                .thenThrow(IllegalStateException("not initialized"))
+                .thenReturn(mock())
+
+            Mockito.mockConstruction(
+                Criteo.Builder::class.java,
+                Mockito.withSettings().defaultAnswer(Mockito.RETURNS_SELF)
+            ).use { builders ->
+                assertThat(CriteoAdapterInitProvider.initializeFromSnapshot(context)).isTrue
+
+                val builder = builders.constructed().single()
+                verify(builder).adUnits(check<List<AdUnit>> {
+                    assertThat(it).containsExactly(NativeAdUnit("earlyNative"))
+                })
+                verify(builder).inventoryGroupId("inventoryGroup")
+                verify(builder).tagForChildDirectedTreatment(null)
+                verify(builder).init()
+            }
+        }
+    }
+}
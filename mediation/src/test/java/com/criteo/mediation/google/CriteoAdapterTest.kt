@@ -16,14 +16,24 @@
 
 package com.criteo.mediation.google
 
+import android.app.Application
+import android.content.Context
+import android.os.Bundle
 import com.criteo.publisher.Criteo
+import com.criteo.publisher.model.AdUnit
+import com.google.android.gms.ads.AdFormat
 import com.google.android.gms.ads.mediation.InitializationCompleteCallback
+import com.google.android.gms.ads.mediation.MediationConfiguration
 import com.google.android.gms.ads.mediation.VersionInfo
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Before
 import org.junit.Test
 import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.check
+import org.mockito.kotlin.doReturn
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
 import org.mockito.kotlin.verify
 
 class CriteoAdapterTest {
@@ -117,8 +127,101 @@ class CriteoAdapterTest {
     fun initialize_shouldCallOnInitializationSucceededOnInitializationCompleteCallback() {
         val initializationCompleteCallback: InitializationCompleteCallback = mock()
 
-        adapter.initialize(mock(), initializationCompleteCallback, mock())
+        adapter.initialize(mock(), initializationCompleteCallback, mutableListOf())
 
         verify(initializationCompleteCallback).onInitializationSucceeded()
     }
+
+    @Test
+    fun givenMediationConfigurations_initialize_shouldInitializeCriteoWithAllAdUnits() {
+        val initializationCompleteCallback: InitializationCompleteCallback = mock()
+        val application: Application = mock()
+        val context: Context = mock {
+            on { applicationContext } doReturn application
+        }
+        val configurations = mutableListOf(
+            givenMediationConfiguration(AdFormat.INTERSTITIAL, "interstitial"),
+            givenMediationConfiguration(AdFormat.NATIVE, "native"),
+            givenMediationConfiguration(AdFormat.BANNER, "banner"),
+            givenMediationConfiguration(AdFormat.NATIVE, null)
+        )
+
+        Mockito.mockStatic(Criteo::class.java).use { criteo ->
+            criteo.`when`<Criteo> { Criteo.getInstance() }
+                .thenThrow(IllegalStateException("not initialized"))
+                .thenReturn(mock())
+
+            Mockito.mockConstruction(
+                Criteo.Builder::class.java,
+                Mockito.withSettings().defaultAnswer(Mockito.RETURNS_SELF)
+            ).use { builders ->
+                adapter.initialize(context, initializationCompleteCallback, configurations)
+
+                val builder = builders.constructed().single()
+                verify(builder).adUnits(check<List<AdUnit>> {
+                    // The registry is process-wide, so ad units from other tests may be there too
+                    assertThat(it.map { adUnit -> adUnit.adUnitId })
+                        .contains("interstitial", "native")
+                        .doesNotContain("banner")
+                })
+                verify(builder).inventoryGroupId("myInventoryGroupId")
+                verify(builder).init()
+            }
+        }
+
+        verify(initializationCompleteCallback).onInitializationSucceeded()
+    }
+
+    @Test
+    fun givenInitializedCriteo_initialize_shouldNotInitializeCriteoAgain() {
+        val initializationCompleteCallback: InitializationCompleteCallback = mock()
+        val configurations = mutableListOf(
+            givenMediationConfiguration(AdFormat.NATIVE, "native")
+        )
+
+        Mockito.mockStatic(Criteo::class.java).use {
+            it.`when`<Criteo> { Criteo.getInstance() }.thenReturn(mock())
+
+            Mockito.mockConstruction(Criteo.Builder::class.java).use { builders ->
+                adapter.initialize(mock(), initializationCompleteCallback, configurations)
+
+                assertThat(builders.constructed()).isEmpty()
+            }
+        }
+
+        verify(initializationCompleteCallback).onInitializationSucceeded()
+        verify(initializationCompleteCallback, never()).onInitializationFailed(any())
+    }
+
+    @Test
+    fun givenInitializedCriteo_initialize_shouldPrefetchNewAdUnitsOnlyOnce() {
+        val criteo: Criteo = mock()
+        val configurations = mutableListOf(
+            givenMediationConfiguration(AdFormat.INTERSTITIAL, "newInterstitial")
+        )
+
+        Mockito.mockStatic(Criteo::class.java).use {
+            it.`when`<Criteo> { Criteo.getInstance() }.thenReturn(criteo)
+
+            adapter.initialize(mock(), mock(), configurations)
+            adapter.initialize(mock(), mock(), configurations)
+        }
+
+        verify(criteo).loadBid(check { assertThat(it.adUnitId).isEqualTo("newInterstitial") }, any())
+    }
+
+    private fun givenMediationConfiguration(
+        format: AdFormat,
+        adUnitId: String?
+    ): MediationConfiguration {
+        val serverParameter = if (adUnitId == null) {
+            ""
+        } else {
+            """{"cpId":"B-123456","inventoryGroupId":"myInventoryGroupId","adUnitId":"$adUnitId"}"""
+        }
+        val bundle: Bundle = mock {
+            on { getString(CriteoAdapter.SERVER_PARAMETER_KEY, "") } doReturn serverParameter
+        }
+        return MediationConfiguration(format, bundle)
+    }
 }
@@ -16,6 +16,13 @@
 
 package com.criteo.mediation.google
 
+import android.content.Context
+import android.os.Handler
+import android.view.ViewGroup
+import com.criteo.mediation.google.metrics.Counter
+import com.criteo.mediation.google.metrics.CriteoAdapterMetrics
+import com.criteo.mediation.google.metrics.Format
+import com.criteo.mediation.google.metrics.MetricsSink
 import com.criteo.publisher.CriteoBannerView
 import com.criteo.publisher.CriteoErrorCode
 import com.criteo.publisher.model.AdSize
@@ -25,14 +32,20 @@ import com.google.android.gms.ads.AdRequest
 import com.google.android.gms.ads.mediation.MediationAdLoadCallback
 import com.google.android.gms.ads.mediation.MediationBannerAd
 import com.google.android.gms.ads.mediation.MediationBannerAdCallback
+import com.google.android.gms.ads.mediation.MediationBannerAdConfiguration
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Before
 import org.junit.Test
 import org.mockito.Mock
+import org.mockito.Mockito
 import org.mockito.MockitoAnnotations
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.check
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
 
@@ -69,6 +82,128 @@ class CriteoBannerEventLoaderTest {
         })
     }
 
+    @Test
+    fun givenMetricsSink_OnAdFailedToReceive_CountFailure() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+        try {
+            loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+        } finally {
+            CriteoAdapterMetrics.setSink(null)
+        }
+
+        verify(sink).onCount(Format.BANNER, "AdUnitId", Counter.NO_FILL)
+        verify(sink).onError(Format.BANNER, "AdUnitId", CriteoErrorCode.ERROR_CODE_NO_FILL)
+        verify(sink, never()).onCount(Format.BANNER, "AdUnitId", Counter.FILL)
+    }
+
+    @Test
+    fun givenAdReceived_OnAdFailedToReceive_DoNotReportTwice() {
+        val finishedLoads = mutableListOf<AdError?>()
+        loader = CriteoBannerEventLoader(
+            mock(),
+            mediationAdLoadCallback,
+            BannerAdUnit("AdUnitId", AdSize(123, 123))
+        ) { finishedLoads += it }
+
+        loader.onAdReceived(mock())
+        loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+
+        verify(mediationAdLoadCallback).onSuccess(any())
+        verify(mediationAdLoadCallback, never()).onFailure(any())
+        assertThat(finishedLoads).containsExactly(null)
+    }
+
+    @Test
+    fun givenExpiredDeadline_ReportTimeoutDetachAndDestroyBannerAndIgnoreLateAd() {
+        val handler: Handler = mock()
+        val parent: ViewGroup = mock()
+        val finishedLoads = mutableListOf<AdError?>()
+        loader = CriteoBannerEventLoader(
+            givenConfiguration(),
+            mediationAdLoadCallback,
+            BannerAdUnit("AdUnitId", AdSize(123, 123)),
+            1000,
+            handler,
+            BannerViewPool()
+        ) { finishedLoads += it }
+
+        Mockito.mockConstruction(CriteoBannerView::class.java) { bannerView, _ ->
+            whenever(bannerView.parent).doReturn(parent)
+        }.use { bannerViews ->
+            loader.loadAd()
+
+            val timeoutCaptor = argumentCaptor<Runnable>()
+            verify(handler).postDelayed(timeoutCaptor.capture(), eq(1000L))
+            timeoutCaptor.firstValue.run()
+
+            val bannerView = bannerViews.constructed().single()
+            verify(parent).removeView(bannerView)
+            verify(bannerView).destroy()
+            loader.onAdReceived(bannerView)
+        }
+
+        verify(mediationAdLoadCallback).onFailure(check<AdError> {
+            assertThat(it.code).isEqualTo(ERROR_CODE_LOAD_TIMEOUT)
+        })
+        verify(mediationAdLoadCallback, never()).onSuccess(any())
+        assertThat(finishedLoads).hasSize(1)
+    }
+
+    @Test
+    fun givenPooledView_LoadAd_ReuseIt() {
+        val configuration = givenConfiguration()
+        val adUnit = BannerAdUnit("AdUnitId", AdSize(123, 123))
+        val pooledView: CriteoBannerView = mock()
+        val pool: BannerViewPool = mock {
+            on { acquire(configuration.context, adUnit) } doReturn pooledView
+        }
+        loader = CriteoBannerEventLoader(configuration, mediationAdLoadCallback, adUnit, 0, mock(), pool)
+
+        Mockito.mockConstruction(CriteoBannerView::class.java).use { bannerViews ->
+            loader.loadAd()
+
+            assertThat(bannerViews.constructed()).isEmpty()
+        }
+
+        verify(pooledView).setCriteoBannerAdListener(loader)
+        verify(pooledView).loadAd()
+    }
+
+    @Test
+    fun givenNoFill_GiveViewBackToPool() {
+        val configuration = givenConfiguration()
+        val adUnit = BannerAdUnit("AdUnitId", AdSize(123, 123))
+        val pool: BannerViewPool = mock()
+        loader = CriteoBannerEventLoader(configuration, mediationAdLoadCallback, adUnit, 0, mock(), pool)
+
+        Mockito.mockConstruction(CriteoBannerView::class.java).use { bannerViews ->
+            loader.loadAd()
+            loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+
+            val bannerView = bannerViews.constructed().single()
+            verify(bannerView).setCriteoBannerAdListener(null)
+            verify(pool).release(configuration.context, adUnit, bannerView)
+        }
+    }
+
+    @Test
+    fun givenAdReceived_GiveViewBackToPoolWhenDetached() {
+        val configuration = givenConfiguration()
+        val adUnit = BannerAdUnit("AdUnitId", AdSize(123, 123))
+        val pool: BannerViewPool = mock()
+        loader = CriteoBannerEventLoader(configuration, mediationAdLoadCallback, adUnit, 0, mock(), pool)
+
+        Mockito.mockConstruction(CriteoBannerView::class.java).use { bannerViews ->
+            loader.loadAd()
+            val bannerView = bannerViews.constructed().single()
+            loader.onAdReceived(bannerView)
+
+            verify(pool).releaseWhenDetached(configuration.context, adUnit, bannerView)
+            verify(pool, never()).release(any(), any(), any())
+        }
+    }
+
     @Test
     fun onAdReceived_ReportToAdMobCallback() {
         loader.onAdReceived(mock())
@@ -103,4 +238,11 @@ class CriteoBannerEventLoaderTest {
 
         assertThat(bannerFromLoader === bannerView).isTrue
     }
-}
\ No newline at end of file
+
+    private fun givenConfiguration(): MediationBannerAdConfiguration {
+        val context: Context = mock()
+        return mock {
+            on { this.context } doReturn context
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.criteo.mediation.google
 
+import com.criteo.mediation.google.metrics.LoadMetrics
+import com.criteo.mediation.google.metrics.Phase
 import com.criteo.publisher.CriteoErrorCode
 import com.criteo.publisher.CriteoInterstitial
 import com.criteo.publisher.model.InterstitialAdUnit
@@ -67,6 +69,23 @@ class CriteoInterstitialEventLoaderTest {
         })
     }
 
+    @Test
+    fun givenAdFailedToReceive_OnAdFailedToReceive_DoNotReportTwice() {
+        val finishedLoads = mutableListOf<AdError?>()
+        loader = CriteoInterstitialEventLoader(
+            mediationAdLoadCallback,
+            InterstitialAdUnit("AdUnitId")
+        ) { finishedLoads += it }
+
+        loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+        loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NETWORK_ERROR)
+
+        verify(mediationAdLoadCallback).onFailure(check<AdError> {
+            Assertions.assertThat(it.code).isEqualTo(AdRequest.ERROR_CODE_NO_FILL)
+        })
+        Assertions.assertThat(finishedLoads).hasSize(1)
+    }
+
     @Test
     fun onAdReceived_ReportToAdMobCallback() {
         loader.onAdReceived(mock())
@@ -115,4 +134,37 @@ class CriteoInterstitialEventLoaderTest {
         loader.showAd(mock())
         verify(criteoInterstitial).show()
     }
-}
\ No newline at end of file
+
+    @Test
+    fun loadAd_GivenPooledInterstitial_ReportItDirectlyAndListenIt() {
+        val criteoInterstitial = mock<CriteoInterstitial>()
+
+        loader.loadAd(criteoInterstitial)
+
+        verify(criteoInterstitial).setCriteoInterstitialAdListener(loader)
+        verify(mediationAdLoadCallback).onSuccess(loader)
+
+        loader.showAd(mock())
+        verify(criteoInterstitial).show()
+    }
+
+    @Test
+    fun showAdAndOnAdOpened_RecordShowToOpenedLatencyOnce() {
+        LoadMetrics.clear()
+        loader = CriteoInterstitialEventLoader(
+            mediationAdLoadCallback,
+            InterstitialAdUnit("showLatency")
+        )
+        loader.onAdReceived(mock())
+
+        loader.showAd(mock())
+        loader.onAdOpened()
+        loader.onAdOpened()
+
+        val snapshot = LoadMetrics.snapshot().single {
+            it.phase == Phase.SHOW_TO_OPENED && it.adUnitId == "showLatency"
+        }
+        Assertions.assertThat(snapshot.count).isEqualTo(1)
+        LoadMetrics.clear()
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.criteo.publisher.model.AdSize
+import com.criteo.publisher.model.AdUnit
+import com.criteo.publisher.model.BannerAdUnit
+import com.criteo.publisher.model.InterstitialAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doThrow
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class InitSnapshotStoreTest {
+
+    private val backgroundTasks = mutableListOf<Runnable>()
+
+    private val store = InitSnapshotStore { backgroundTasks += it }
+
+    private val values = mutableMapOf<String, Any?>()
+
+    private val editor: SharedPreferences.Editor = mock(defaultAnswer = Mockito.RETURNS_SELF)
+
+    private val sharedPreferences: SharedPreferences = mock {
+        on { getString(any(), anyOrNull()) } doAnswer {
+            values[it.getArgument(0)] as String? ?: it.getArgument(1)
+        }
+        on { getStringSet(any(), anyOrNull()) } doAnswer {
+            @Suppress("UNCHECKED_CAST")
+            values[it.getArgument(0)] as Set<String>? ?: it.getArgument(1)
+        }
+        on { getBoolean(any(), any()) } doAnswer {
+            values[it.getArgument(0)] as Boolean? ?: it.getArgument(1)
+        }
+        on { contains(any()) } doAnswer { values.containsKey(it.getArgument(0)) }
+        on { edit() } doReturn editor
+    }
+
+    private val context: Context = mock {
+        on { getSharedPreferences(any<String>(), any()) } doReturn sharedPreferences
+    }
+
+    private val parameters = ServerParameters("B-123456", "inventoryGroup", "adUnitId")
+
+    init {
+        doAnswer { values[it.getArgument(0)] = it.getArgument<String?>(1); editor }
+            .whenever(editor).putString(any(), anyOrNull())
+        doAnswer { values[it.getArgument(0)] = it.getArgument<Set<String>?>(1); editor }
+            .whenever(editor).putStringSet(any(), anyOrNull())
+        doAnswer { values[it.getArgument(0)] = it.getArgument<Boolean>(1); editor }
+            .whenever(editor).putBoolean(any(), any())
+        doAnswer { values.remove(it.getArgument(0)); editor }
+            .whenever(editor).remove(any())
+    }
+
+    @Test
+    fun read_GivenNoSnapshot_ReturnNull() {
+        assertThat(store.read(context)).isNull()
+    }
+
+    @Test
+    fun read_GivenPreferencesOfOtherType_ReturnNull() {
+        whenever(sharedPreferences.getString(any(), anyOrNull())) doThrow ClassCastException()
+
+        assertThat(store.read(context)).isNull()
+    }
+
+    @Test
+    fun record_WriteOnlyInBackground() {
+        store.record(context, parameters, listOf(NativeAdUnit("native")), true)
+
+        verify(context, never()).getSharedPreferences(any<String>(), any())
+        runBackgroundTasks()
+
+        assertThat(store.read(context)).isEqualTo(
+            InitSnapshot("B-123456", "inventoryGroup", true, listOf(NativeAdUnit("native")))
+        )
+    }
+
+    @Test
+    fun record_GivenAlreadyRecordedAdUnits_WriteOnlyNewOnes() {
+        store.record(context, parameters, listOf(NativeAdUnit("native")), null)
+        store.record(context, parameters, listOf(NativeAdUnit("native")), null)
+        assertThat(backgroundTasks).hasSize(1)
+
+        store.record(context, parameters, listOf(InterstitialAdUnit("interstitial")), null)
+        store.record(context, parameters, listOf(NativeAdUnit("native")), true)
+        assertThat(backgroundTasks).hasSize(3)
+
+        runBackgroundTasks()
+        val snapshot = store.read(context)!!
+        assertThat(snapshot.tagForChildDirectedTreatment).isTrue
+        assertThat(snapshot.adUnits).containsExactlyInAnyOrder(
+            NativeAdUnit("native"),
+            InterstitialAdUnit("interstitial")
+        )
+    }
+
+    @Test
+    fun record_GivenUnknownAdUnit_SkipIt() {
+        val unknownAdUnit: AdUnit = mock()
+
+        store.record(context, parameters, listOf(unknownAdUnit, NativeAdUnit("native")), null)
+        runBackgroundTasks()
+
+        assertThat(store.read(context)!!.adUnits).containsExactly(NativeAdUnit("native"))
+    }
+
+    @Test
+    fun record_GivenAdUnitsPersistedForSamePublisher_KeepThem() {
+        givenPersistedSnapshot("B-123456", "interstitial|0|0|persisted")
+
+        store.record(context, parameters, listOf(NativeAdUnit("native")), null)
+        runBackgroundTasks()
+
+        assertThat(store.read(context)!!.adUnits).containsExactlyInAnyOrder(
+            InterstitialAdUnit("persisted"),
+            NativeAdUnit("native")
+        )
+    }
+
+    @Test
+    fun record_GivenAdUnitsPersistedForOtherPublisher_DropThem() {
+        givenPersistedSnapshot("B-654321", "interstitial|0|0|persisted")
+
+        store.record(context, parameters, listOf(NativeAdUnit("native")), null)
+        runBackgroundTasks()
+
+        assertThat(store.read(context)!!.adUnits).containsExactly(NativeAdUnit("native"))
+    }
+
+    @Test
+    fun record_GivenManyAdUnits_KeepOnlyLatestOnes() {
+        repeat(InitSnapshotStore.MAX_AD_UNITS + 1) {
+            store.record(context, parameters, listOf(NativeAdUnit("native$it")), null)
+            runBackgroundTasks()
+        }
+
+        val adUnits = store.read(context)!!.adUnits
+        assertThat(adUnits).hasSize(InitSnapshotStore.MAX_AD_UNITS)
+        assertThat(adUnits).contains(NativeAdUnit("native${InitSnapshotStore.MAX_AD_UNITS}"))
+    }
+
+    private fun givenPersistedSnapshot(criteoPublisherId: String, vararg adUnits: String) {
+        values["cpId"] = criteoPublisherId
+        values["adUnits"] = setOf(*adUnits)
+    }
+
+    private fun runBackgroundTasks() {
+        backgroundTasks.forEach { it.run() }
+        backgroundTasks.clear()
+    }
+
+    @Test
+    fun encodeAndDecode_GivenBannerAdUnit_ReturnSameBannerAdUnit() {
+        val adUnit = BannerAdUnit("banner|with|separators", AdSize(320, 50))
+
+        val decoded = InitSnapshotStore.decodeAdUnit(InitSnapshotStore.encodeAdUnit(adUnit)!!)
+
+        assertThat(decoded).isInstanceOfSatisfying(BannerAdUnit::class.java) {
+            assertThat(it.adUnitId).isEqualTo("banner|with|separators")
+            assertThat(it.size.width).isEqualTo(320)
+            assertThat(it.size.height).isEqualTo(50)
+        }
+    }
+
+    @Test
+    fun encodeAndDecode_GivenInterstitialAdUnit_ReturnSameInterstitialAdUnit() {
+        val adUnit = InterstitialAdUnit("interstitial")
+
+        val decoded = InitSnapshotStore.decodeAdUnit(InitSnapshotStore.encodeAdUnit(adUnit)!!)
+
+        assertThat(decoded).isInstanceOfSatisfying(InterstitialAdUnit::class.java) {
+            assertThat(it.adUnitId).isEqualTo("interstitial")
+        }
+    }
+
+    @Test
+    fun encodeAndDecode_GivenNativeAdUnit_ReturnSameNativeAdUnit() {
+        val adUnit = NativeAdUnit("native")
+
+        val decoded = InitSnapshotStore.decodeAdUnit(InitSnapshotStore.encodeAdUnit(adUnit)!!)
+
+        assertThat(decoded).isInstanceOfSatisfying(NativeAdUnit::class.java) {
+            assertThat(it.adUnitId).isEqualTo("native")
+        }
+    }
+
+    @Test
+    fun decodeAdUnit_GivenCorruptedValues_ReturnNull() {
+        assertThat(InitSnapshotStore.decodeAdUnit("")).isNull()
+        assertThat(InitSnapshotStore.decodeAdUnit("banner|320|50")).isNull()
+        assertThat(InitSnapshotStore.decodeAdUnit("banner|a|b|adUnitId")).isNull()
+        assertThat(InitSnapshotStore.decodeAdUnit("rewarded|0|0|adUnitId")).isNull()
+    }
+}
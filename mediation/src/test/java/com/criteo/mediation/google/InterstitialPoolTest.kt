@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.CriteoInterstitial
+import com.criteo.publisher.CriteoInterstitialAdListener
+import com.criteo.publisher.model.InterstitialAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class InterstitialPoolTest {
+
+    private var now = 0L
+
+    private val scheduledTasks = mutableListOf<Pair<Runnable, Long>>()
+
+    private val handler: Handler = mock {
+        on { post(any()) } doAnswer {
+            scheduledTasks += it.getArgument<Runnable>(0) to now
+            true
+        }
+        on { postDelayed(any(), any()) } doAnswer {
+            scheduledTasks += it.getArgument<Runnable>(0) to now + it.getArgument<Long>(1)
+            true
+        }
+        on { removeCallbacks(any()) } doAnswer {
+            val runnable = it.getArgument<Runnable>(0)
+            scheduledTasks.removeAll { (task, _) -> task === runnable }
+            Unit
+        }
+    }
+
+    private var canLoad = true
+
+    private val listeners = mutableMapOf<CriteoInterstitial, CriteoInterstitialAdListener?>()
+
+    private val createdInterstitials = mutableListOf<CriteoInterstitial>()
+
+    private val pool = InterstitialPool(
+        handler,
+        canLoad = { canLoad },
+        clock = { now },
+        createInterstitial = { givenInterstitial().also { createdInterstitials += it } }
+    )
+
+    private val adUnit = InterstitialAdUnit("interstitial")
+
+    @Test
+    fun take_GivenEmptyPool_ReturnNull() {
+        assertThat(pool.take(adUnit)).isNull()
+    }
+
+    @Test
+    fun refill_LoadInterstitialsInBackgroundUpToSize() {
+        pool.refill(adUnit, 2, TTL_MS)
+
+        assertThat(createdInterstitials).isEmpty()
+
+        advanceTo(now)
+
+        assertThat(createdInterstitials).hasSize(2)
+        createdInterstitials.forEach { verify(it).loadAd() }
+    }
+
+    @Test
+    fun refill_GivenLoadingInterstitials_OnlyLoadMissingOnes() {
+        pool.refill(adUnit, 2, TTL_MS)
+        advanceTo(now)
+        receive(createdInterstitials[0])
+
+        pool.refill(adUnit, 3, TTL_MS)
+        advanceTo(now)
+
+        assertThat(createdInterstitials).hasSize(3)
+    }
+
+    @Test
+    fun refill_GivenLoadNotPossible_DoNothing() {
+        canLoad = false
+
+        pool.refill(adUnit, 2, TTL_MS)
+        advanceTo(now)
+
+        assertThat(createdInterstitials).isEmpty()
+    }
+
+    @Test
+    fun take_GivenReadyInterstitials_ReturnThemInOrderAndOnlyOnce() {
+        pool.refill(adUnit, 2, TTL_MS)
+        advanceTo(now)
+        receive(createdInterstitials[1])
+        receive(createdInterstitials[0])
+
+        assertThat(pool.take(adUnit)).isSameAs(createdInterstitials[1])
+        assertThat(pool.take(adUnit)).isSameAs(createdInterstitials[0])
+        assertThat(pool.take(adUnit)).isNull()
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun take_GivenFailedInterstitial_DoNotReturnItAndLoadAgainOnNextRefill() {
+        pool.refill(adUnit, 1, TTL_MS)
+        advanceTo(now)
+        val interstitial = createdInterstitials.single()
+        listeners[interstitial]!!.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+
+        assertThat(pool.take(adUnit)).isNull()
+        verify(interstitial).setCriteoInterstitialAdListener(null)
+
+        pool.refill(adUnit, 1, TTL_MS)
+        advanceTo(now)
+
+        assertThat(createdInterstitials).hasSize(2)
+    }
+
+    @Test
+    fun take_GivenInterstitialReceivedTwice_ReturnItOnlyOnce() {
+        pool.refill(adUnit, 1, TTL_MS)
+        advanceTo(now)
+        val interstitial = createdInterstitials.single()
+        receive(interstitial)
+        listeners[interstitial]!!.onAdReceived(interstitial)
+
+        assertThat(pool.take(adUnit)).isSameAs(interstitial)
+        assertThat(pool.take(adUnit)).isNull()
+    }
+
+    @Test
+    fun evict_GivenExpiredInterstitial_DropItWithoutShowingIt() {
+        pool.refill(adUnit, 1, TTL_MS)
+        advanceTo(now)
+        val interstitial = createdInterstitials.single()
+        receive(interstitial)
+
+        advanceTo(now + TTL_MS)
+
+        assertThat(pool.readyCount(adUnit)).isZero
+        assertThat(pool.take(adUnit)).isNull()
+        verify(interstitial).setCriteoInterstitialAdListener(null)
+        verify(interstitial, never()).show()
+    }
+
+    @Test
+    fun take_GivenInterstitialNotLoadedAnymore_SkipIt() {
+        pool.refill(adUnit, 2, TTL_MS)
+        advanceTo(now)
+        receive(createdInterstitials[0])
+        receive(createdInterstitials[1])
+        whenever(createdInterstitials[0].isAdLoaded).thenReturn(false)
+
+        assertThat(pool.take(adUnit)).isSameAs(createdInterstitials[1])
+    }
+
+    private fun receive(interstitial: CriteoInterstitial) {
+        whenever(interstitial.isAdLoaded).thenReturn(true)
+        listeners[interstitial]!!.onAdReceived(interstitial)
+    }
+
+    private fun advanceTo(time: Long) {
+        now = time
+        while (true) {
+            val task = scheduledTasks.firstOrNull { (_, dueTime) -> dueTime <= now } ?: return
+            scheduledTasks.remove(task)
+            task.first.run()
+        }
+    }
+
+    private fun givenInterstitial(): CriteoInterstitial {
+        val interstitial: CriteoInterstitial = mock {
+            on { isAdLoaded } doReturn false
+        }
+        doAnswer { listeners[interstitial] = it.getArgument(0); Unit }
+            .whenever(interstitial).setCriteoInterstitialAdListener(anyOrNull())
+        return interstitial
+    }
+
+    private companion object {
+        const val TTL_MS = 60_000L
+    }
+}
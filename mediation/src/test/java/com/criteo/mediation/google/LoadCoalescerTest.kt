@@ -0,0 +1,325 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import com.criteo.publisher.Bid
+import com.criteo.publisher.model.AdUnit
+import com.criteo.publisher.model.InterstitialAdUnit
+import com.criteo.publisher.model.NativeAdUnit
+import com.google.android.gms.ads.AdError
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+
+class LoadCoalescerTest {
+
+    private var now = 0L
+
+    private val scheduledTasks = mutableListOf<Pair<Runnable, Long>>()
+
+    private val handler: Handler = mock {
+        on { post(any()) } doAnswer {
+            scheduledTasks += it.getArgument<Runnable>(0) to now
+            true
+        }
+        on { postDelayed(any(), any()) } doAnswer {
+            scheduledTasks += it.getArgument<Runnable>(0) to now + it.getArgument<Long>(1)
+            true
+        }
+        on { removeCallbacks(any()) } doAnswer {
+            val runnable = it.getArgument<Runnable>(0)
+            scheduledTasks.removeAll { (task, _) -> task === runnable }
+            Unit
+        }
+    }
+
+    private var canFetchBids = true
+
+    private val bidRequests = mutableListOf<(Bid?) -> Unit>()
+
+    private val leftoverBids = mutableListOf<Bid>()
+
+    private val coalescer = LoadCoalescer(
+        handler,
+        fetchBid = { _, onBid -> canFetchBids.also { if (it) bidRequests += onBid } },
+        keepLeftoverBid = { _, bid -> leftoverBids += bid }
+    ) { now }
+
+    private val adUnit = NativeAdUnit("native")
+
+    private val events = mutableListOf<String>()
+
+    private val bidNames = mutableMapOf<Bid, String>()
+
+    private val onLoadFinishedCallbacks = mutableMapOf<String, (AdError?) -> Unit>()
+
+    @Test
+    fun load_GivenNoRunningLoad_StartItDirectlyWithWholeTimeout() {
+        load("load1")
+
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS")
+        assertThat(coalescer.waitingLoadCount(adUnit)).isZero
+        assertThat(bidRequests).isEmpty()
+    }
+
+    @Test
+    fun load_GivenRunningLoadOfSameAdUnit_WaitForItsOwnBid() {
+        load("load1")
+        load("load2")
+
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS")
+        assertThat(coalescer.waitingLoadCount(adUnit)).isEqualTo(1)
+        assertThat(bidRequests).hasSize(1)
+    }
+
+    @Test
+    fun load_GivenRunningLoadOfOtherAdUnit_StartItDirectly() {
+        load("load1")
+        load("load2", InterstitialAdUnit("native"))
+
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS", "start load2 $TIMEOUT_MS")
+        assertThat(bidRequests).isEmpty()
+    }
+
+    @Test
+    fun onBid_GivenRunningLoad_StartFromBidOnHandlerWithoutWaitingRunningLoad() {
+        load("load1")
+        now += 1_000
+        load("load2")
+        load("load3")
+        now += 500
+
+        receiveBid(1, "bid3")
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS")
+
+        advanceTo(now)
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load3 ${TIMEOUT_MS - 500} bid3"
+        )
+        assertThat(coalescer.waitingLoadCount(adUnit)).isEqualTo(1)
+
+        receiveBid(0, "bid2")
+        advanceTo(now)
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load3 ${TIMEOUT_MS - 500} bid3",
+            "start load2 ${TIMEOUT_MS - 500} bid2"
+        )
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun onBid_GivenNoBid_FailWithNoFill() {
+        load("load1")
+        load("load2")
+
+        bidRequests.single()(null)
+        advanceTo(now)
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "fail load2 ${noFillError().code}"
+        )
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun onLoadFinished_GivenSuccessAndBidsStillFetched_WaitForThem() {
+        load("load1")
+        load("load2")
+
+        finish("load1", null)
+        advanceTo(now)
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS")
+
+        receiveBid(0, "bid2")
+        advanceTo(now)
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load2 $TIMEOUT_MS bid2"
+        )
+    }
+
+    @Test
+    fun onLoadFinished_GivenSuccess_NextLoadStartsNewFlight() {
+        load("load1")
+        load("load2")
+        finish("load1", null)
+        advanceTo(now)
+
+        load("load3")
+        load("load4")
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load3 $TIMEOUT_MS"
+        )
+        assertThat(coalescer.waitingLoadCount(adUnit)).isEqualTo(1)
+    }
+
+    @Test
+    fun onLoadFinished_GivenFailureBeforeBids_FailWaitingLoadsAndKeepLeftoverBids() {
+        val error = AdError(3, "no fill", "domain")
+        load("load1")
+        load("load2")
+        load("load3")
+
+        finish("load1", error)
+        advanceTo(now)
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "fail load2 ${error.code}",
+            "fail load3 ${error.code}"
+        )
+        assertThat(scheduledTasks).isEmpty()
+
+        receiveBid(0, "bid2")
+        bidRequests[1](null)
+        advanceTo(now)
+        assertThat(events).hasSize(3)
+        assertThat(leftoverBids.map { bidNames[it] }).containsExactly("bid2")
+    }
+
+    @Test
+    fun onLoadFinished_GivenSuccessAndBidsNotFetchable_StartWaitingLoadsWithRestOfTimeout() {
+        canFetchBids = false
+        load("load1")
+        now += 1_000
+        load("load2")
+        now += 500
+        load("load3")
+        now += 500
+
+        finish("load1", null)
+        assertThat(events).containsExactly("start load1 $TIMEOUT_MS")
+
+        advanceTo(now)
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load2 ${TIMEOUT_MS - 1_000}",
+            "start load3 ${TIMEOUT_MS - 500}"
+        )
+        assertThat(scheduledTasks).isEmpty()
+    }
+
+    @Test
+    fun onLoadFinished_GivenTimeoutAndBidsNotFetchable_StartWaitingLoads() {
+        canFetchBids = false
+        load("load1")
+        now += 4_900
+        load("load2")
+        now += 100
+
+        finish("load1", loadTimeoutError())
+        advanceTo(now)
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "start load2 ${TIMEOUT_MS - 100}"
+        )
+    }
+
+    @Test
+    fun onLoadFinished_GivenFailureAndBidsNotFetchable_FailWaitingLoads() {
+        canFetchBids = false
+        val error = AdError(3, "no fill", "domain")
+        load("load1")
+        load("load2")
+
+        finish("load1", error)
+        advanceTo(now)
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "fail load2 ${error.code}"
+        )
+    }
+
+    @Test
+    fun load_GivenBidLongerThanTimeout_FailWithTimeoutAndKeepLeftoverBid() {
+        load("load1")
+        now += 1_000
+        load("load2")
+
+        advanceTo(now + TIMEOUT_MS)
+
+        assertThat(events).containsExactly(
+            "start load1 $TIMEOUT_MS",
+            "fail load2 $ERROR_CODE_LOAD_TIMEOUT"
+        )
+        assertThat(coalescer.waitingLoadCount(adUnit)).isZero
+
+        receiveBid(0, "bid2")
+        finish("load1", null)
+        advanceTo(now)
+        assertThat(events).hasSize(2)
+        assertThat(leftoverBids.map { bidNames[it] }).containsExactly("bid2")
+    }
+
+    @Test
+    fun load_GivenNoTimeout_WaitWithoutDeadline() {
+        canFetchBids = false
+        load("load1", timeoutMs = 0)
+        load("load2", timeoutMs = 0)
+
+        assertThat(scheduledTasks).isEmpty()
+
+        finish("load1", null)
+        advanceTo(now)
+        assertThat(events).containsExactly("start load1 0", "start load2 0")
+    }
+
+    private fun load(name: String, adUnit: AdUnit = this.adUnit, timeoutMs: Long = TIMEOUT_MS) {
+        coalescer.load(
+            adUnit,
+            timeoutMs,
+            { events += "fail $name ${it.code}" }
+        ) { remainingMs, bid, onLoadFinished ->
+            events += listOfNotNull("start", name, remainingMs, bid?.let { bidNames[it] })
+                .joinToString(" ")
+            onLoadFinishedCallbacks[name] = onLoadFinished
+        }
+    }
+
+    private fun receiveBid(requestIndex: Int, name: String) {
+        val bid: Bid = mock()
+        bidNames[bid] = name
+        bidRequests[requestIndex](bid)
+    }
+
+    private fun finish(name: String, error: AdError?) {
+        onLoadFinishedCallbacks.getValue(name)(error)
+    }
+
+    private fun advanceTo(time: Long) {
+        now = time
+        while (true) {
+            val task = scheduledTasks.firstOrNull { (_, dueTime) -> dueTime <= now } ?: return
+            scheduledTasks.remove(task)
+            task.first.run()
+        }
+    }
+
+    private companion object {
+        const val TIMEOUT_MS = 5_000L
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+
+class LoadDeadlineTest {
+
+    private val handler: Handler = mock()
+
+    private var timeoutCount = 0
+
+    @Test
+    fun start_GivenPositiveTimeout_ScheduleIt() {
+        val deadline = LoadDeadline(handler, 1000) { timeoutCount++ }
+
+        deadline.start()
+
+        verify(handler).postDelayed(any(), eq(1000L))
+    }
+
+    @Test
+    fun start_GivenZeroTimeout_DoNotScheduleIt() {
+        val deadline = LoadDeadline(handler, 0) { timeoutCount++ }
+
+        deadline.start()
+
+        verify(handler, never()).postDelayed(any(), any())
+    }
+
+    @Test
+    fun tryFinish_GivenNotFinished_ReturnTrueOnlyOnceAndCancelTimeout() {
+        val deadline = LoadDeadline(handler, 1000) { timeoutCount++ }
+        deadline.start()
+
+        assertThat(deadline.tryFinish()).isTrue
+        assertThat(deadline.tryFinish()).isFalse
+        verify(handler).removeCallbacks(anyOrNull())
+    }
+
+    @Test
+    fun timeout_GivenNotFinished_NotifyItAndRejectLateFinish() {
+        val deadline = LoadDeadline(handler, 1000) { timeoutCount++ }
+        deadline.start()
+
+        givenExpiredDeadline()
+
+        assertThat(timeoutCount).isEqualTo(1)
+        assertThat(deadline.tryFinish()).isFalse
+    }
+
+    @Test
+    fun timeout_GivenAlreadyFinished_DoNotNotifyIt() {
+        val deadline = LoadDeadline(handler, 1000) { timeoutCount++ }
+        deadline.start()
+        deadline.tryFinish()
+
+        givenExpiredDeadline()
+
+        assertThat(timeoutCount).isZero
+    }
+
+    private fun givenExpiredDeadline() {
+        val timeoutCaptor = argumentCaptor<Runnable>()
+        verify(handler).postDelayed(timeoutCaptor.capture(), any())
+        timeoutCaptor.firstValue.run()
+    }
+}
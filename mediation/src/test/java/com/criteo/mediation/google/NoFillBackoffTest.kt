@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import com.criteo.publisher.model.NativeAdUnit
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class NoFillBackoffTest {
+
+    private var now = 0L
+
+    private val backoff = NoFillBackoff { now }
+
+    private val adUnit = NativeAdUnit("native")
+
+    private val parameters = ServerParameters(
+        "B-123456",
+        null,
+        "native",
+        noFillBackoffThreshold = 3,
+        noFillBackoffMs = 1_000,
+        maxNoFillBackoffMs = 3_000
+    )
+
+    @Test
+    fun isBackingOff_GivenUnknownAdUnit_ReturnFalse() {
+        assertThat(backoff.isBackingOff(adUnit)).isFalse
+    }
+
+    @Test
+    fun isBackingOff_GivenLessNoFillsThanThreshold_ReturnFalse() {
+        givenNoFills(2)
+
+        assertThat(backoff.isBackingOff(adUnit)).isFalse
+    }
+
+    @Test
+    fun isBackingOff_GivenThresholdOfNoFills_ReturnTrueUntilEndOfWindow() {
+        givenNoFills(3)
+
+        assertThat(backoff.isBackingOff(adUnit)).isTrue
+        assertThat(backoff.isBackingOff(NativeAdUnit("other"))).isFalse
+
+        now += 999
+        assertThat(backoff.isBackingOff(adUnit)).isTrue
+
+        now += 1
+        assertThat(backoff.isBackingOff(adUnit)).isFalse
+    }
+
+    @Test
+    fun isBackingOff_GivenNewStreaks_DoubleWindowUpToMax() {
+        assertThat(windowOfNextStreak()).isEqualTo(1_000)
+        assertThat(windowOfNextStreak()).isEqualTo(2_000)
+        assertThat(windowOfNextStreak()).isEqualTo(3_000)
+        assertThat(windowOfNextStreak()).isEqualTo(3_000)
+    }
+
+    @Test
+    fun isBackingOff_GivenFillAfterStreak_ResetEverything() {
+        windowOfNextStreak()
+        windowOfNextStreak()
+
+        backoff.onLoadFinished(adUnit, null, parameters)
+        givenNoFills(2)
+        assertThat(backoff.isBackingOff(adUnit)).isFalse
+
+        assertThat(windowOfNextStreak()).isEqualTo(1_000)
+    }
+
+    @Test
+    fun isBackingOff_GivenOtherErrorsBetweenNoFills_IgnoreThem() {
+        givenNoFills(2)
+        backoff.onLoadFinished(adUnit, loadTimeoutError(), parameters)
+        givenNoFills(1)
+
+        assertThat(backoff.isBackingOff(adUnit)).isTrue
+    }
+
+    @Test
+    fun isBackingOff_GivenDisabledThreshold_ReturnFalse() {
+        repeat(10) {
+            backoff.onLoadFinished(adUnit, noFillError(), parameters.copy(noFillBackoffThreshold = 0))
+        }
+
+        assertThat(backoff.isBackingOff(adUnit)).isFalse
+    }
+
+    private fun givenNoFills(count: Int) {
+        repeat(count) {
+            backoff.onLoadFinished(adUnit, noFillError(), parameters)
+        }
+    }
+
+    /**
+     * Trigger a new streak of no-fills at the end of the current window, and return the duration
+     * of the new window.
+     */
+    private fun windowOfNextStreak(): Long {
+        while (backoff.isBackingOff(adUnit)) {
+            now += 100
+        }
+        givenNoFills(3)
+        val start = now
+        while (backoff.isBackingOff(adUnit)) {
+            now += 100
+        }
+        return now - start
+    }
+}
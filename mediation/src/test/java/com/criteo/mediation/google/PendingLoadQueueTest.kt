@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.os.Handler
+import com.google.android.gms.ads.AdError
+import com.google.android.gms.ads.AdRequest
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.check
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.verifyNoInteractions
+
+class PendingLoadQueueTest {
+
+    private lateinit var handler: Handler
+
+    private lateinit var queue: PendingLoadQueue
+
+    @Before
+    fun setUp() {
+        handler = mock {
+            on { post(any()) } doAnswer {
+                it.getArgument<Runnable>(0).run()
+                true
+            }
+        }
+        queue = PendingLoadQueue(handler)
+    }
+
+    @Test
+    fun park_GivenNotReadyQueue_DoNotReplayAndScheduleTimeout() {
+        val replay: () -> Unit = mock()
+
+        queue.park(42, replay, mock())
+
+        verifyNoInteractions(replay)
+        verify(handler).postDelayed(any(), eq(42L))
+        assertThat(queue.size()).isEqualTo(1)
+    }
+
+    @Test
+    fun replayAll_GivenParkedLoads_ReplayThemInOrder() {
+        val replayed = mutableListOf<Int>()
+        queue.park(42, { replayed.add(1) }, mock())
+        queue.park(42, { replayed.add(2) }, mock())
+
+        queue.replayAll()
+
+        assertThat(replayed).containsExactly(1, 2)
+        assertThat(queue.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun park_GivenReadyQueue_ReplayDirectly() {
+        val replay: () -> Unit = mock()
+        queue.replayAll()
+
+        queue.park(42, replay, mock())
+
+        verify(replay).invoke()
+        verify(handler, never()).postDelayed(any(), eq(42L))
+    }
+
+    @Test
+    fun timeout_GivenParkedLoad_FailWithNoFillAndIgnoreReplay() {
+        val replay: () -> Unit = mock()
+        val fail: (AdError) -> Unit = mock()
+        queue.park(42, replay, fail)
+
+        val timeoutCaptor = argumentCaptor<Runnable>()
+        verify(handler).postDelayed(timeoutCaptor.capture(), eq(42L))
+        timeoutCaptor.firstValue.run()
+        queue.replayAll()
+
+        verify(fail).invoke(check {
+            assertThat(it.code).isEqualTo(AdRequest.ERROR_CODE_NO_FILL)
+        })
+        verifyNoInteractions(replay)
+    }
+
+    @Test
+    fun failAll_GivenParkedLoads_FailThemAndCancelTimeout() {
+        val replay: () -> Unit = mock()
+        val fail: (AdError) -> Unit = mock()
+        val error = adapterInitializationError()
+        queue.park(42, replay, fail)
+
+        queue.failAll(error)
+
+        verify(fail).invoke(error)
+        verify(handler).removeCallbacks(anyOrNull<Runnable>())
+        verifyNoInteractions(replay)
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatCode
+import org.json.JSONException
+import org.junit.Test
+
+class ServerParametersCacheTest {
+
+    private val parsedValues = mutableListOf<String>()
+
+    private val cache = ServerParametersCache(2) {
+        parsedValues.add(it)
+        if (it == INVALID) {
+            throw JSONException("invalid")
+        }
+        ServerParameters("cpId", null, it)
+    }
+
+    @Test
+    fun get_GivenSameParameterTwice_ParseOnlyOnceAndReturnSameInstance() {
+        val first = cache.get("adUnit1")
+        val second = cache.get("adUnit1")
+
+        assertThat(second).isSameAs(first)
+        assertThat(parsedValues).containsExactly("adUnit1")
+    }
+
+    @Test
+    fun get_GivenInvalidParameterTwice_ThrowTwiceButParseOnlyOnce() {
+        assertThatCode { cache.get(INVALID) }.isInstanceOf(JSONException::class.java)
+        assertThatCode { cache.get(INVALID) }.isInstanceOf(JSONException::class.java)
+
+        assertThat(parsedValues).containsExactly(INVALID)
+    }
+
+    @Test
+    fun get_GivenMoreParametersThanMaxSize_EvictLeastRecentlyUsed() {
+        cache.get("adUnit1")
+        cache.get("adUnit2")
+        cache.get("adUnit1")
+        cache.get("adUnit3")
+
+        cache.get("adUnit1")
+        cache.get("adUnit2")
+
+        assertThat(parsedValues).containsExactly("adUnit1", "adUnit2", "adUnit3", "adUnit2")
+    }
+
+    private companion object {
+        const val INVALID = "invalid"
+    }
+}
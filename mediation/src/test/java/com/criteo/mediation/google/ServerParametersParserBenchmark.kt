@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import java.lang.management.ManagementFactory
+import org.json.JSONObject
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Microbenchmark comparing [ServerParametersParser] with the previous [JSONObject] parsing.
+ *
+ * This is skipped by default. Run it with:
+ * `./gradlew testDebugUnitTest -Pbenchmark --tests '*ServerParametersParserBenchmark'`
+ *
+ * Note that on the JVM, the JSONObject implementation is the one from org.json and not the one
+ * from Android. Both are HashMap-backed, so the order of magnitude stays meaningful.
+ */
+class ServerParametersParserBenchmark {
+
+    private var blackhole = 0L
+
+    @Before
+    fun setUp() {
+        assumeTrue(System.getProperty("criteo.benchmark") == "true")
+    }
+
+    @Test
+    fun compareWithJSONObject() {
+        repeat(ROUNDS) {
+            val jsonObject = measure("JSONObject") { parseWithJSONObject(it) }
+            val parser = measure("ServerParametersParser") { ServerParametersParser.parse(it) }
+            println("Speedup: %.2fx".format(jsonObject / parser))
+        }
+        println("(ignore: $blackhole)")
+    }
+
+    private fun parseWithJSONObject(serverParameter: String): ServerParameters {
+        val parameters = JSONObject(serverParameter)
+        return ServerParameters(
+            parameters.getString("cpId"),
+            parameters.optString("inventoryGroupId"),
+            parameters.getString("adUnitId"),
+            parameters.optLong("initQueueTimeoutMs", ServerParameters.DEFAULT_INIT_QUEUE_TIMEOUT_MS)
+        )
+    }
+
+    /**
+     * Return the average duration in ns of one parsing.
+     */
+    private inline fun measure(name: String, parse: (String) -> ServerParameters): Double {
+        repeat(WARM_UP_ITERATIONS) {
+            blackhole += parse(SERVER_PARAMETER).adUnitId.length
+        }
+
+        val allocatedBefore = allocatedBytes()
+        val start = System.nanoTime()
+        repeat(ITERATIONS) {
+            blackhole += parse(SERVER_PARAMETER).adUnitId.length
+        }
+        val nsPerOp = (System.nanoTime() - start).toDouble() / ITERATIONS
+        val bytesPerOp = (allocatedBytes() - allocatedBefore).toDouble() / ITERATIONS
+
+        println("%-24s %8.1f ns/op %8.1f B/op".format(name, nsPerOp, bytesPerOp))
+        return nsPerOp
+    }
+
+    private fun allocatedBytes(): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean()
+        return if (threadMXBean is com.sun.management.ThreadMXBean) {
+            threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+        } else {
+            0
+        }
+    }
+
+    private companion object {
+        const val ROUNDS = 5
+        const val WARM_UP_ITERATIONS = 50_000
+        const val ITERATIONS = 500_000
+
+        const val SERVER_PARAMETER =
+            """{"cpId":"B-123456","inventoryGroupId":"myInventoryGroupId","adUnitId":"/140800857/Endeavour_Native"}"""
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatCode
+import org.json.JSONException
+import org.junit.Test
+
+class ServerParametersParserTest {
+
+    @Test
+    fun parse_GivenAllFields_ReturnThem() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","inventoryGroupId":"myInventoryGroupId","adUnitId":"myAdUnit","initQueueTimeoutMs":1500,"loadTimeoutMs":3000}"""
+        )
+
+        assertThat(parameters).isEqualTo(
+            ServerParameters("B-123456", "myInventoryGroupId", "myAdUnit", 1500, 3000)
+        )
+    }
+
+    @Test
+    fun parse_GivenOnlyMandatoryFields_ReturnDefaultValues() {
+        val parameters = ServerParametersParser.parse("""{"cpId":"B-123456","adUnitId":"myAdUnit"}""")
+
+        assertThat(parameters).isEqualTo(
+            ServerParameters(
+                "B-123456",
+                "",
+                "myAdUnit",
+                ServerParameters.DEFAULT_INIT_QUEUE_TIMEOUT_MS,
+                ServerParameters.DEFAULT_LOAD_TIMEOUT_MS
+            )
+        )
+    }
+
+    @Test
+    fun parse_GivenNullInventoryGroupId_ReturnNullStringAsJSONObjectOptString() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","inventoryGroupId":null,"adUnitId":"myAdUnit"}"""
+        )
+
+        assertThat(parameters.inventoryGroupId).isEqualTo("null")
+    }
+
+    @Test
+    fun parse_GivenMissingMandatoryField_ThrowJSONException() {
+        assertThatCode { ServerParametersParser.parse("""{"adUnitId":"myAdUnit"}""") }
+            .isInstanceOf(JSONException::class.java)
+
+        assertThatCode { ServerParametersParser.parse("""{"cpId":"B-123456"}""") }
+            .isInstanceOf(JSONException::class.java)
+    }
+
+    @Test
+    fun parse_GivenMalformedInput_ThrowJSONException() {
+        listOf(
+            "",
+            "   ",
+            "[]",
+            "\"cpId\"",
+            "{",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit"""",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit}""",
+            """{"cpId":"B-123456" "adUnitId":"myAdUnit"}""",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit",}""",
+            """{"cpId":"B-123456","adUnitId":"my\u12"}""",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","other":[1,2}""",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","other":NaN}""",
+            """{"cpId":"B-123456","adUnitId":"myAdUnit" /* unterminated comment }""",
+            """{1:"B-123456","adUnitId":"myAdUnit"}"""
+        ).forEach { input ->
+            assertThatCode { ServerParametersParser.parse(input) }
+                .describedAs(input)
+                .isInstanceOf(JSONException::class.java)
+        }
+    }
+
+    @Test
+    fun parse_GivenLenientSyntax_AcceptItAsJSONObject() {
+        val parameters = ServerParametersParser.parse(
+            """
+            // Comment
+            {
+              cpId: B-123456;
+              'adUnitId' => 'my\'AdUnit' # Comment
+              , "other": {"nested": [1, 2, {"deep": null},]} /* Comment */
+            } trailing
+            """
+        )
+
+        assertThat(parameters.criteoPublisherId).isEqualTo("B-123456")
+        assertThat(parameters.adUnitId).isEqualTo("my'AdUnit")
+    }
+
+    @Test
+    fun parse_GivenNonStringValues_ConvertThemAsJSONObject() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":0x10,"inventoryGroupId":1.50,"adUnitId":TRUE,"initQueueTimeoutMs":"1e3"}"""
+        )
+
+        assertThat(parameters).isEqualTo(ServerParameters("16", "1.5", "true", 1000))
+    }
+
+    @Test
+    fun parse_GivenNonNumericTimeout_ReturnDefaultValue() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","initQueueTimeoutMs":"fast"}"""
+        )
+
+        assertThat(parameters.initQueueTimeoutMs)
+            .isEqualTo(ServerParameters.DEFAULT_INIT_QUEUE_TIMEOUT_MS)
+    }
+
+    @Test
+    fun parse_GivenNoFillBackoffFields_ReturnThem() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","noFillBackoffThreshold":5,"noFillBackoffMs":"1000","maxNoFillBackoffMs":60000.0}"""
+        )
+
+        assertThat(parameters.noFillBackoffThreshold).isEqualTo(5)
+        assertThat(parameters.noFillBackoffMs).isEqualTo(1000)
+        assertThat(parameters.maxNoFillBackoffMs).isEqualTo(60000)
+    }
+
+    @Test
+    fun parse_GivenOutOfRangeNoFillBackoffThreshold_ClampIt() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","noFillBackoffThreshold":10000000000}"""
+        )
+
+        assertThat(parameters.noFillBackoffThreshold).isEqualTo(Int.MAX_VALUE)
+    }
+
+    @Test
+    fun parse_GivenPreloadBanners_ReturnIt() {
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","preloadBanners":true}"""
+            ).preloadBanners
+        ).isTrue
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","preloadBanners":"TRUE"}"""
+            ).preloadBanners
+        ).isTrue
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","preloadBanners":1}"""
+            ).preloadBanners
+        ).isFalse
+        assertThat(
+            ServerParametersParser.parse("""{"cpId":"B-123456","adUnitId":"myAdUnit"}""")
+                .preloadBanners
+        ).isFalse
+    }
+
+    @Test
+    fun parse_GivenCacheNativeImages_ReturnIt() {
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","cacheNativeImages":true}"""
+            ).cacheNativeImages
+        ).isTrue
+        assertThat(
+            ServerParametersParser.parse("""{"cpId":"B-123456","adUnitId":"myAdUnit"}""")
+                .cacheNativeImages
+        ).isFalse
+    }
+
+    @Test
+    fun parse_GivenInterstitialPoolFields_ReturnThem() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","interstitialPoolSize":2,"interstitialPoolTtlMs":"60000"}"""
+        )
+
+        assertThat(parameters.interstitialPoolSize).isEqualTo(2)
+        assertThat(parameters.interstitialPoolTtlMs).isEqualTo(60000)
+    }
+
+    @Test
+    fun parse_GivenOutOfRangeInterstitialPoolSize_ClampIt() {
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","interstitialPoolSize":100}"""
+            ).interstitialPoolSize
+        ).isEqualTo(ServerParameters.MAX_INTERSTITIAL_POOL_SIZE)
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","interstitialPoolSize":-1}"""
+            ).interstitialPoolSize
+        ).isZero
+    }
+
+    @Test
+    fun parse_GivenWebViewWarmUpCount_ReturnItBounded() {
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","webViewWarmUpCount":2}"""
+            ).webViewWarmUpCount
+        ).isEqualTo(2)
+        assertThat(
+            ServerParametersParser.parse(
+                """{"cpId":"B-123456","adUnitId":"myAdUnit","webViewWarmUpCount":10}"""
+            ).webViewWarmUpCount
+        ).isEqualTo(WebViewWarmUpPool.MAX_SIZE)
+    }
+
+    @Test
+    fun parse_GivenNonNumericLoadTimeout_ReturnDefaultValue() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"myAdUnit","loadTimeoutMs":null}"""
+        )
+
+        assertThat(parameters.loadTimeoutMs).isEqualTo(ServerParameters.DEFAULT_LOAD_TIMEOUT_MS)
+    }
+
+    @Test
+    fun parse_GivenDuplicatedKeys_KeepLastValue() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-123456","adUnitId":"first","adUnitId":"second"}"""
+        )
+
+        assertThat(parameters.adUnitId).isEqualTo("second")
+    }
+
+    @Test
+    fun parse_GivenEscapedStrings_UnescapeThem() {
+        val parameters = ServerParametersParser.parse(
+            """{"cpId":"B-\"123\"","adUnitId":"a\\b\/c\td"}"""
+        )
+
+        assertThat(parameters.criteoPublisherId).isEqualTo("B-\"123\"")
+        assertThat(parameters.adUnitId).isEqualTo("a\\b/c\td")
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.os.Handler
+import android.os.MessageQueue
+import android.webkit.WebView
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+
+class WebViewWarmUpPoolTest {
+
+    private val postedTasks = mutableListOf<Runnable>()
+
+    private val handler: Handler = mock {
+        on { post(any()) } doAnswer {
+            postedTasks += it.getArgument<Runnable>(0)
+            true
+        }
+    }
+
+    private val idleHandlers = mutableListOf<MessageQueue.IdleHandler>()
+
+    private val applicationContext: Context = mock()
+
+    private val context: Context = mock {
+        on { applicationContext } doReturn applicationContext
+    }
+
+    private val createdWebViews = mutableListOf<WebView>()
+
+    private var createWebView: (Context) -> WebView = {
+        assertThat(it).isSameAs(applicationContext)
+        mock<WebView>().also { webView -> createdWebViews += webView }
+    }
+
+    private val pool = WebViewWarmUpPool(handler, { idleHandlers += it }) { createWebView(it) }
+
+    @Test
+    fun start_CreateOneWebViewPerIdlePass() {
+        pool.start(context, 2)
+
+        assertThat(createdWebViews).isEmpty()
+        runMainThread()
+        assertThat(createdWebViews).isEmpty()
+
+        assertThat(runIdle()).isTrue
+        assertThat(createdWebViews).hasSize(1)
+        assertThat(runIdle()).isFalse
+        assertThat(createdWebViews).hasSize(2)
+        assertThat(pool.size()).isEqualTo(2)
+        verify(createdWebViews[0]).loadDataWithBaseURL(null, "", "text/html", "utf-8", null)
+    }
+
+    @Test
+    fun start_GivenZeroSize_DoNothing() {
+        pool.start(context, 0)
+
+        assertThat(postedTasks).isEmpty()
+    }
+
+    @Test
+    fun start_GivenTooBigSize_BoundIt() {
+        pool.start(context, 100)
+        runMainThread()
+
+        while (runIdle()) {
+            // Warm up everything
+        }
+
+        assertThat(pool.size()).isEqualTo(WebViewWarmUpPool.MAX_SIZE)
+    }
+
+    @Test
+    fun start_GivenFullPool_DoNotAddIdleHandler() {
+        pool.start(context, 1)
+        runMainThread()
+        runIdle()
+        idleHandlers.clear()
+
+        pool.start(context, 1)
+        runMainThread()
+
+        assertThat(idleHandlers).isEmpty()
+    }
+
+    @Test
+    fun onTrimMemory_GivenMemoryPressure_DestroyWebViews() {
+        pool.start(context, 1)
+        runMainThread()
+        runIdle()
+        val callbacks = argumentCaptor<ComponentCallbacks2>()
+        verify(applicationContext).registerComponentCallbacks(callbacks.capture())
+
+        callbacks.firstValue.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+        verify(createdWebViews.single(), never()).destroy()
+
+        callbacks.firstValue.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        verify(createdWebViews.single()).destroy()
+        assertThat(pool.size()).isZero
+
+        // Warm-up starts again only when asked
+        idleHandlers.clear()
+        pool.start(context, 1)
+        runMainThread()
+        assertThat(idleHandlers).hasSize(1)
+    }
+
+    @Test
+    fun warmUp_GivenMissingWebViewProvider_StopIt() {
+        createWebView = { throw IllegalStateException("No WebView installed") }
+        pool.start(context, 2)
+        runMainThread()
+
+        assertThat(runIdle()).isFalse
+        assertThat(pool.size()).isZero
+    }
+
+    private fun runMainThread() {
+        postedTasks.toList().forEach { it.run() }
+        postedTasks.clear()
+    }
+
+    /**
+     * Run the single idle handler, and remove it if it asks to.
+     */
+    private fun runIdle(): Boolean {
+        val idleHandler = idleHandlers.single()
+        val isKept = idleHandler.queueIdle()
+        if (!isKept) {
+            idleHandlers.clear()
+        }
+        return isKept
+    }
+}
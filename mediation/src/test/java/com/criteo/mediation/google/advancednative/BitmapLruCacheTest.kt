@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.graphics.Bitmap
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+
+class BitmapLruCacheTest {
+
+    private val cache = BitmapLruCache(maxBytes = 100)
+
+    @Test
+    fun get_GivenPutBitmap_ReturnIt() {
+        val bitmap = givenBitmap(10)
+
+        cache.put("key", bitmap)
+
+        assertThat(cache.get("key")).isSameAs(bitmap)
+        assertThat(cache.get("other")).isNull()
+        assertThat(cache.sizeInBytes()).isEqualTo(10)
+    }
+
+    @Test
+    fun put_GivenFullCache_EvictLeastRecentlyUsedBitmaps() {
+        cache.put("first", givenBitmap(40))
+        cache.put("second", givenBitmap(40))
+        cache.get("first")
+
+        cache.put("third", givenBitmap(40))
+
+        assertThat(cache.get("second")).isNull()
+        assertThat(cache.get("first")).isNotNull
+        assertThat(cache.get("third")).isNotNull
+        assertThat(cache.sizeInBytes()).isEqualTo(80)
+    }
+
+    @Test
+    fun put_GivenSameKey_ReplaceBitmap() {
+        cache.put("key", givenBitmap(40))
+        val bitmap = givenBitmap(30)
+
+        cache.put("key", bitmap)
+
+        assertThat(cache.get("key")).isSameAs(bitmap)
+        assertThat(cache.sizeInBytes()).isEqualTo(30)
+    }
+
+    @Test
+    fun put_GivenBitmapBiggerThanCache_IgnoreIt() {
+        cache.put("small", givenBitmap(10))
+
+        cache.put("big", givenBitmap(101))
+
+        assertThat(cache.get("big")).isNull()
+        assertThat(cache.get("small")).isNotNull
+    }
+
+    private fun givenBitmap(bytes: Int): Bitmap = mock {
+        on { byteCount } doReturn bytes
+    }
+}
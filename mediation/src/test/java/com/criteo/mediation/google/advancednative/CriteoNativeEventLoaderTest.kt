@@ -16,7 +16,10 @@
 
 package com.criteo.mediation.google.advancednative
 
+import android.os.Handler
+import com.criteo.mediation.google.ERROR_CODE_LOAD_TIMEOUT
 import com.criteo.publisher.CriteoErrorCode
+import com.criteo.publisher.advancednative.CriteoNativeLoader
 import com.criteo.publisher.model.NativeAdUnit
 import com.google.android.gms.ads.AdError
 import com.google.android.gms.ads.AdRequest
@@ -28,8 +31,12 @@ import org.junit.Before
 import org.junit.Test
 import org.mockito.ArgumentMatchers.any
 import org.mockito.Mock
+import org.mockito.Mockito
 import org.mockito.MockitoAnnotations
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.eq
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
 import org.mockito.kotlin.check
@@ -70,6 +77,48 @@ class CriteoNativeEventLoaderTest {
         })
     }
 
+    @Test
+    fun givenAdFailedToReceive_OnAdReceived_DoNotReportTwice() {
+        val finishedLoads = mutableListOf<AdError?>()
+        loader = CriteoNativeEventLoader(
+            mock(),
+            mediationAdLoadCallback,
+            NativeAdUnit("AdUnitId")
+        ) { finishedLoads += it }
+
+        loader.onAdFailedToReceive(CriteoErrorCode.ERROR_CODE_NO_FILL)
+        loader.onAdReceived(mock())
+
+        verify(mediationAdLoadCallback, never()).onSuccess(any())
+        assertThat(finishedLoads).hasSize(1)
+        assertThat(finishedLoads[0]?.code).isEqualTo(AdRequest.ERROR_CODE_NO_FILL)
+    }
+
+    @Test
+    fun givenExpiredDeadline_ReportTimeoutAndIgnoreLateAd() {
+        val handler: Handler = mock()
+        loader = CriteoNativeEventLoader(
+            mock(),
+            mediationAdLoadCallback,
+            NativeAdUnit("AdUnitId"),
+            1000,
+            handler = handler
+        )
+
+        Mockito.mockConstruction(CriteoNativeLoader::class.java).use {
+            loader.loadAd()
+        }
+        val timeoutCaptor = argumentCaptor<Runnable>()
+        verify(handler).postDelayed(timeoutCaptor.capture(), eq(1000L))
+        timeoutCaptor.firstValue.run()
+        loader.onAdReceived(mock())
+
+        verify(mediationAdLoadCallback).onFailure(check<AdError> {
+            assertThat(it.code).isEqualTo(ERROR_CODE_LOAD_TIMEOUT)
+        })
+        verify(mediationAdLoadCallback, never()).onSuccess(any())
+    }
+
     @Test
     fun onAdReceived_ReportToAdMobCallback() {
         loader.onAdReceived(mock())
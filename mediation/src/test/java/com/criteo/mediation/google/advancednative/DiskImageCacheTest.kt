@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class DiskImageCacheTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private var now = 1_000_000L
+
+    private val cache by lazy {
+        DiskImageCache(temporaryFolder.root.resolve("images"), maxBytes = 100) { now }
+    }
+
+    @Test
+    fun get_GivenPutContent_ReturnIt() {
+        cache.put("https://images.criteo.com/logo.png", ByteArray(10) { 1 })
+
+        assertThat(cache.get("https://images.criteo.com/logo.png")).isEqualTo(ByteArray(10) { 1 })
+        assertThat(cache.get("https://images.criteo.com/other.png")).isNull()
+        assertThat(cache.sizeInBytes()).isEqualTo(10)
+    }
+
+    @Test
+    fun put_GivenFullCache_EvictLeastRecentlyUsedContent() {
+        cache.put("first", ByteArray(40))
+        now += 1_000
+        cache.put("second", ByteArray(40))
+        now += 1_000
+        cache.get("first")
+        now += 1_000
+
+        cache.put("third", ByteArray(40))
+
+        assertThat(cache.get("second")).isNull()
+        assertThat(cache.get("first")).isNotNull
+        assertThat(cache.get("third")).isNotNull
+        assertThat(cache.sizeInBytes()).isEqualTo(80)
+    }
+
+    @Test
+    fun put_GivenSameKey_ReplaceContent() {
+        cache.put("key", ByteArray(40))
+
+        cache.put("key", ByteArray(30) { 2 })
+
+        assertThat(cache.get("key")).isEqualTo(ByteArray(30) { 2 })
+        assertThat(cache.sizeInBytes()).isEqualTo(30)
+    }
+
+    @Test
+    fun sizeInBytes_GivenExistingFiles_CountThem() {
+        cache.put("key", ByteArray(40))
+
+        val newCache = DiskImageCache(temporaryFolder.root.resolve("images"), maxBytes = 100)
+
+        assertThat(newCache.sizeInBytes()).isEqualTo(40)
+        assertThat(newCache.get("key")).hasSize(40)
+    }
+}
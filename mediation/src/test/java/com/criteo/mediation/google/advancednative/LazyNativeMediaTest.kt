@@ -0,0 +1,289 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.content.Context
+import android.graphics.drawable.Drawable
+import android.os.Handler
+import android.view.ViewGroup
+import android.widget.ImageView
+import com.criteo.publisher.advancednative.CriteoMedia
+import com.criteo.publisher.advancednative.CriteoMediaView
+import com.criteo.publisher.advancednative.CriteoNativeAd
+import com.criteo.publisher.advancednative.NativeInternalForAdMob
+import com.criteo.publisher.advancednative.RendererHelper
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+
+class LazyNativeMediaTest {
+
+    private val context: Context = mock()
+
+    private val productMedia: CriteoMedia = mock()
+
+    private val advertiserLogoMedia: CriteoMedia = mock()
+
+    private val nativeAd: CriteoNativeAd = mock {
+        on { productMedia } doReturn productMedia
+        on { advertiserLogoMedia } doReturn advertiserLogoMedia
+    }
+
+    private val helper: RendererHelper = mock()
+
+    private val imageCache: NativeImageCache = mock()
+
+    private val scheduledChecks = mutableListOf<Pair<Runnable, Long>>()
+
+    private val handler: Handler = mock {
+        on { postDelayed(any(), any()) } doAnswer {
+            scheduledChecks += it.getArgument<Runnable>(0) to it.getArgument<Long>(1)
+            true
+        }
+    }
+
+    private var logoDrawable: Drawable? = null
+
+    private val logoImageView: ImageView = mock {
+        on { drawable } doAnswer { logoDrawable }
+    }
+
+    private val onAdvertiserLogoChanged: Runnable = mock()
+
+    private var now = 0L
+
+    private val containers = Mockito.mockConstruction(LazyNativeMedia.MediaContainer::class.java)
+
+    private val nativeInternal = Mockito.mockStatic(NativeInternalForAdMob::class.java).apply {
+        `when`<ImageView> { NativeInternalForAdMob.getImageView(any()) }.thenReturn(logoImageView)
+    }
+
+    @After
+    fun tearDown() {
+        nativeInternal.close()
+        containers.close()
+    }
+
+    @Test
+    fun render_DoNotCreateMediaViews() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use { mediaViews ->
+            val lazyMedia = LazyNativeMedia(context, nativeAd, imageCache, handler)
+
+            lazyMedia.renderNativeView(helper, mock(), nativeAd)
+
+            assertThat(mediaViews.constructed()).isEmpty()
+            verify(imageCache, never()).load(any(), any(), any(), any(), any())
+        }
+    }
+
+    @Test
+    fun loadProductMedia_GivenRenderedAd_LoadItOnlyOnce() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use { mediaViews ->
+            val lazyMedia = givenRenderedLazyMedia()
+
+            lazyMedia.loadProductMedia()
+            lazyMedia.loadProductMedia()
+
+            val mediaView = mediaViews.constructed().single()
+            verify(imageCache).load(eq(context), eq(productMedia), eq(mediaView), any(), any())
+            verify(containers.constructed().single())
+                .addView(eq(mediaView), any<ViewGroup.LayoutParams>())
+        }
+    }
+
+    @Test
+    fun loadProductMedia_GivenNoImageCache_LoadItWithSdk() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use { mediaViews ->
+            val lazyMedia = givenRenderedLazyMedia(imageCache = null)
+
+            lazyMedia.loadProductMedia()
+
+            verify(helper).setMediaInView(productMedia, mediaViews.constructed().single())
+        }
+    }
+
+    @Test
+    fun loadProductMedia_GivenAdNotRendered_DoNothing() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use { mediaViews ->
+            val lazyMedia = LazyNativeMedia(context, nativeAd, imageCache, handler)
+
+            lazyMedia.loadProductMedia()
+
+            assertThat(mediaViews.constructed()).isEmpty()
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenRenderedAd_LoadItOnlyOnce() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use { mediaViews ->
+            val lazyMedia = givenRenderedLazyMedia()
+
+            val logoView = lazyMedia.loadAdvertiserLogo()
+
+            assertThat(lazyMedia.loadAdvertiserLogo()).isSameAs(logoView)
+            assertThat(mediaViews.constructed()).containsExactly(logoView)
+            verify(imageCache)
+                .load(eq(context), eq(advertiserLogoMedia), eq(logoView), any(), any())
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_RecordWhenLoadIsStarted() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            val lazyMedia = givenRenderedLazyMedia()
+            now = 42
+            assertThat(lazyMedia.advertiserLogoLoadStartNanos).isNull()
+
+            lazyMedia.loadAdvertiserLogo()
+            now = 1337
+            lazyMedia.loadAdvertiserLogo()
+
+            assertThat(lazyMedia.advertiserLogoLoadStartNanos).isEqualTo(42)
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenAdNotRendered_DoNotRecordLoadStart() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            val lazyMedia = LazyNativeMedia(context, nativeAd, imageCache, handler) { now }
+
+            lazyMedia.loadAdvertiserLogo()
+
+            assertThat(lazyMedia.advertiserLogoLoadStartNanos).isNull()
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenImageSetByCache_NotifyChangeWithoutScheduledCheck() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            val lazyMedia = givenRenderedLazyMedia()
+
+            lazyMedia.loadAdvertiserLogo()
+
+            val onImageSet = argumentCaptor<() -> Unit>()
+            verify(imageCache).load(any(), any(), any(), onImageSet.capture(), any())
+            verify(onAdvertiserLogoChanged, never()).run()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isFalse
+            onImageSet.firstValue()
+            verify(onAdvertiserLogoChanged).run()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isTrue
+            assertThat(scheduledChecks).isEmpty()
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenImageNotLoadedByCache_LoadItWithSdk() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            val lazyMedia = givenRenderedLazyMedia()
+
+            val logoView = lazyMedia.loadAdvertiserLogo()
+
+            val fallback = argumentCaptor<() -> Unit>()
+            verify(imageCache).load(any(), any(), any(), any(), fallback.capture())
+            verify(helper, never()).setMediaInView(any(), any())
+            fallback.firstValue()
+            verify(helper).setMediaInView(advertiserLogoMedia, logoView)
+            verify(onAdvertiserLogoChanged).run()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded)
+                .describedAs("The SDK only set its placeholder yet")
+                .isFalse
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenNoImageCache_LoadItWithSdkAndCheckForItsImage() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            logoDrawable = mock()
+            val lazyMedia = givenRenderedLazyMedia(imageCache = null)
+
+            val logoView = lazyMedia.loadAdvertiserLogo()
+
+            verify(helper).setMediaInView(advertiserLogoMedia, logoView)
+            verify(onAdvertiserLogoChanged).run()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isFalse
+            logoDrawable = mock()
+            runNextScheduledCheck()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isTrue
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenImageSetBySdk_NotifyChangeAndStopChecking() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            logoDrawable = mock()
+            val lazyMedia = givenLogoLoadedBySdk()
+
+            runNextScheduledCheck()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isFalse
+            logoDrawable = mock()
+            runNextScheduledCheck()
+
+            verify(onAdvertiserLogoChanged, times(2)).run()
+            assertThat(lazyMedia.isAdvertiserLogoLoaded).isTrue
+            assertThat(scheduledChecks).isEmpty()
+        }
+    }
+
+    @Test
+    fun loadAdvertiserLogo_GivenImageNeverSetBySdk_StopCheckingAfterFewChecks() {
+        Mockito.mockConstruction(CriteoMediaView::class.java).use {
+            givenLogoLoadedBySdk()
+
+            val delays = mutableListOf<Long>()
+            while (scheduledChecks.isNotEmpty()) {
+                delays += runNextScheduledCheck()
+            }
+
+            assertThat(delays).containsExactly(100, 200, 400, 800, 1600, 3200, 6400)
+            verify(onAdvertiserLogoChanged, times(1)).run()
+        }
+    }
+
+    private fun givenLogoLoadedBySdk(): LazyNativeMedia {
+        val lazyMedia = givenRenderedLazyMedia()
+        lazyMedia.loadAdvertiserLogo()
+        val fallback = argumentCaptor<() -> Unit>()
+        verify(imageCache).load(any(), any(), any(), any(), fallback.capture())
+        fallback.firstValue()
+        return lazyMedia
+    }
+
+    private fun runNextScheduledCheck(): Long {
+        val (check, delayMs) = scheduledChecks.removeAt(0)
+        check.run()
+        return delayMs
+    }
+
+    private fun givenRenderedLazyMedia(
+        imageCache: NativeImageCache? = this.imageCache
+    ): LazyNativeMedia {
+        val lazyMedia = LazyNativeMedia(context, nativeAd, imageCache, handler) { now }
+        lazyMedia.renderNativeView(helper, mock(), nativeAd)
+        lazyMedia.onAdvertiserLogoChanged = onAdvertiserLogoChanged
+        return lazyMedia
+    }
+}
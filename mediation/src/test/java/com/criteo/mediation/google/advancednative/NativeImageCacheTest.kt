@@ -0,0 +1,254 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.advancednative
+
+import android.content.Context
+import android.content.res.Resources
+import android.graphics.Bitmap
+import android.os.Handler
+import android.util.DisplayMetrics
+import android.widget.ImageView
+import com.criteo.publisher.advancednative.CriteoMedia
+import com.criteo.publisher.advancednative.CriteoMediaView
+import com.criteo.publisher.advancednative.NativeInternalForAdMob
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.MockedStatic
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import java.io.IOException
+import java.net.URL
+
+class NativeImageCacheTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val handler: Handler = mock {
+        on { post(any()) } doAnswer {
+            it.getArgument<Runnable>(0).run()
+            true
+        }
+    }
+
+    private val context: Context = mock {
+        val displayMetrics = DisplayMetrics()
+        displayMetrics.widthPixels = 720
+        displayMetrics.heightPixels = 1280
+        val resources: Resources = mock {
+            on { getDisplayMetrics() } doReturn displayMetrics
+        }
+        on { getResources() } doReturn resources
+    }
+
+    private val decodedMaxDimensions = mutableListOf<Int>()
+
+    private val pendingTasks = mutableListOf<Runnable>()
+
+    private val downloadedUrls = mutableListOf<URL>()
+
+    private var downloadedContent: ByteArray? = byteArrayOf(1, 2, 3)
+
+    private val bitmap: Bitmap = mock {
+        on { byteCount } doReturn 10
+    }
+
+    private val diskCache by lazy {
+        DiskImageCache(temporaryFolder.root, maxBytes = 1000)
+    }
+
+    private val imageCache by lazy {
+        NativeImageCache(
+            handler,
+            memoryCache = BitmapLruCache(1000),
+            createDiskCache = { diskCache },
+            executor = { pendingTasks += it },
+            download = {
+                downloadedUrls += it
+                downloadedContent ?: throw IOException()
+            },
+            decode = { _, maxDimension ->
+                decodedMaxDimensions += maxDimension
+                bitmap
+            }
+        )
+    }
+
+    private lateinit var nativeInternal: MockedStatic<NativeInternalForAdMob>
+
+    @Before
+    fun setUp() {
+        nativeInternal = Mockito.mockStatic(NativeInternalForAdMob::class.java)
+    }
+
+    @After
+    fun tearDown() {
+        nativeInternal.close()
+    }
+
+    @Test
+    fun load_GivenNewImage_DownloadItAndSetItInView() {
+        val media = givenMedia(LOGO_URL)
+        val (mediaView, imageView) = givenMediaView()
+        val onImageSet: () -> Unit = mock()
+        val fallback: () -> Unit = mock()
+
+        imageCache.load(context, media, mediaView, onImageSet, fallback)
+        verify(onImageSet, never()).invoke()
+        runPendingTasks()
+
+        verify(imageView).setImageBitmap(bitmap)
+        verify(onImageSet).invoke()
+        verify(fallback, never()).invoke()
+        assertThat(downloadedUrls).containsExactly(URL(LOGO_URL))
+        assertThat(diskCache.get(LOGO_URL)).isEqualTo(byteArrayOf(1, 2, 3))
+        assertThat(imageCache.stats().misses).isEqualTo(1)
+    }
+
+    @Test
+    fun load_GivenNewImage_DecodeItAtMostAtSmallerSideOfScreen() {
+        imageCache.load(context, givenMedia(LOGO_URL), givenMediaView().first, {}) {}
+        runPendingTasks()
+
+        assertThat(decodedMaxDimensions).containsExactly(720)
+    }
+
+    @Test
+    fun sampleSize_GivenImageSmallerThanMaxDimension_DoNotSampleIt() {
+        assertThat(NativeImageCache.sampleSize(600, 400, 720)).isEqualTo(1)
+        assertThat(NativeImageCache.sampleSize(720, 720, 720)).isEqualTo(1)
+    }
+
+    @Test
+    fun sampleSize_GivenImageBiggerThanMaxDimension_SampleItByPowerOfTwo() {
+        assertThat(NativeImageCache.sampleSize(721, 400, 720)).isEqualTo(2)
+        assertThat(NativeImageCache.sampleSize(1000, 3000, 720)).isEqualTo(8)
+        assertThat(NativeImageCache.sampleSize(4000, 4000, 1080)).isEqualTo(4)
+    }
+
+    @Test
+    fun load_GivenImageInMemory_SetItDirectlyWithoutBackgroundWork() {
+        val media = givenMedia(LOGO_URL)
+        imageCache.load(context, media, givenMediaView().first, {}) {}
+        runPendingTasks()
+        val (mediaView, imageView) = givenMediaView()
+        val onImageSet: () -> Unit = mock()
+
+        imageCache.load(context, media, mediaView, onImageSet) {}
+
+        verify(imageView).setImageBitmap(bitmap)
+        verify(onImageSet).invoke()
+        assertThat(pendingTasks).isEmpty()
+        assertThat(downloadedUrls).hasSize(1)
+        assertThat(imageCache.stats().memoryHits).isEqualTo(1)
+        assertThat(imageCache.stats().memoryBytes).isEqualTo(10)
+    }
+
+    @Test
+    fun load_GivenImageOnDisk_DecodeItWithoutDownloadingIt() {
+        diskCache.put(LOGO_URL, byteArrayOf(4, 5))
+        val (mediaView, imageView) = givenMediaView()
+
+        imageCache.load(context, givenMedia(LOGO_URL), mediaView, {}) {}
+        runPendingTasks()
+
+        verify(imageView).setImageBitmap(bitmap)
+        assertThat(downloadedUrls).isEmpty()
+        assertThat(imageCache.stats().diskHits).isEqualTo(1)
+        assertThat(imageCache.stats().misses).isZero
+    }
+
+    @Test
+    fun load_GivenConcurrentLoadsOfSameImage_DownloadItOnce() {
+        val (firstMediaView, firstImageView) = givenMediaView()
+        val (secondMediaView, secondImageView) = givenMediaView()
+
+        imageCache.load(context, givenMedia(LOGO_URL), firstMediaView, {}) {}
+        imageCache.load(context, givenMedia(LOGO_URL), secondMediaView, {}) {}
+        assertThat(pendingTasks).hasSize(1)
+        runPendingTasks()
+
+        verify(firstImageView).setImageBitmap(bitmap)
+        verify(secondImageView).setImageBitmap(bitmap)
+        assertThat(downloadedUrls).hasSize(1)
+    }
+
+    @Test
+    fun load_GivenDownloadError_InvokeFallback() {
+        downloadedContent = null
+        val (mediaView, imageView) = givenMediaView()
+        val onImageSet: () -> Unit = mock()
+        val fallback: () -> Unit = mock()
+
+        imageCache.load(context, givenMedia(LOGO_URL), mediaView, onImageSet, fallback)
+        runPendingTasks()
+
+        verify(fallback).invoke()
+        verify(onImageSet, never()).invoke()
+        verify(imageView, never()).setImageBitmap(any())
+        assertThat(diskCache.get(LOGO_URL)).isNull()
+    }
+
+    @Test
+    fun load_GivenViewReusedForAnotherImage_IgnoreResultOfPreviousLoad() {
+        val (mediaView, imageView) = givenMediaView()
+        imageCache.load(context, givenMedia(LOGO_URL), mediaView, {}) {}
+        imageCache.load(context, givenMedia(PRODUCT_URL), mediaView, {}) {}
+
+        pendingTasks.removeAt(0).run()
+        verify(imageView, never()).setImageBitmap(any())
+
+        runPendingTasks()
+        verify(imageView).setImageBitmap(bitmap)
+        assertThat(downloadedUrls).containsExactly(URL(LOGO_URL), URL(PRODUCT_URL))
+    }
+
+    private fun runPendingTasks() {
+        while (pendingTasks.isNotEmpty()) {
+            pendingTasks.removeAt(0).run()
+        }
+    }
+
+    private fun givenMedia(url: String): CriteoMedia {
+        val media: CriteoMedia = mock()
+        nativeInternal.`when`<URL> { NativeInternalForAdMob.getImageUrl(media) }
+            .thenReturn(URL(url))
+        return media
+    }
+
+    private fun givenMediaView(): Pair<CriteoMediaView, ImageView> {
+        val mediaView: CriteoMediaView = mock()
+        val imageView: ImageView = mock()
+        nativeInternal.`when`<ImageView> { NativeInternalForAdMob.getImageView(mediaView) }
+            .thenReturn(imageView)
+        return mediaView to imageView
+    }
+
+    private companion object {
+        const val LOGO_URL = "https://images.criteo.com/logo.png"
+        const val PRODUCT_URL = "https://images.criteo.com/product.png"
+    }
+}
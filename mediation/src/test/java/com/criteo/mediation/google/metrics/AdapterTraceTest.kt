@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import android.os.Trace
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatCode
+import org.junit.Test
+import org.mockito.Mockito
+
+class AdapterTraceTest {
+
+    @Test
+    fun section_GivenBlock_ReturnItsResultInsideSection() {
+        Mockito.mockStatic(Trace::class.java).use { trace ->
+            val result = AdapterTrace.section("name") {
+                trace.verify { Trace.beginSection("name") }
+                trace.verifyNoMoreInteractions()
+                42
+            }
+
+            assertThat(result).isEqualTo(42)
+            trace.verify { Trace.endSection() }
+        }
+    }
+
+    @Test
+    fun section_GivenThrowingBlock_EndSection() {
+        Mockito.mockStatic(Trace::class.java).use { trace ->
+            assertThatCode {
+                AdapterTrace.section("name") { throw IllegalStateException() }
+            }.isInstanceOf(IllegalStateException::class.java)
+
+            trace.verify { Trace.beginSection("name") }
+            trace.verify { Trace.endSection() }
+        }
+    }
+
+    @Test
+    fun beginAsyncSection_ReturnDistinctCookies() {
+        val cookie1 = AdapterTrace.beginAsyncSection("name")
+        val cookie2 = AdapterTrace.beginAsyncSection("name")
+
+        assertThat(cookie1).isNotEqualTo(cookie2)
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+    private val histogram = LatencyHistogram()
+
+    @Test
+    fun bucketOf_GivenDurations_ReturnBucketByPowerOfTwo() {
+        assertThat(LatencyHistogram.bucketOf(0)).isEqualTo(0)
+        assertThat(LatencyHistogram.bucketOf(1)).isEqualTo(1)
+        assertThat(LatencyHistogram.bucketOf(2)).isEqualTo(2)
+        assertThat(LatencyHistogram.bucketOf(3)).isEqualTo(2)
+        assertThat(LatencyHistogram.bucketOf(1024)).isEqualTo(11)
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE)).isEqualTo(63)
+    }
+
+    @Test
+    fun upperBoundOf_GivenBucket_ReturnExclusiveUpperBoundOfItsDurations() {
+        for (duration in listOf(0L, 1L, 3L, 1023L, 1024L, 123_456_789L)) {
+            val bucket = LatencyHistogram.bucketOf(duration)
+            assertThat(duration).isLessThan(LatencyHistogram.upperBoundOf(bucket))
+        }
+        assertThat(LatencyHistogram.upperBoundOf(63)).isEqualTo(Long.MAX_VALUE)
+    }
+
+    @Test
+    fun snapshot_GivenNothingRecorded_ReturnEmptySnapshot() {
+        val snapshot = histogram.snapshot(Format.BANNER, null, Phase.BID_ROUND_TRIP)
+
+        assertThat(histogram.isEmpty()).isTrue
+        assertThat(snapshot.count).isZero
+        assertThat(snapshot.meanNanos).isZero
+        assertThat(snapshot.percentileNanos(50.0)).isZero
+    }
+
+    @Test
+    fun snapshot_GivenRecordedDurations_ReturnAggregates() {
+        histogram.record(100)
+        histogram.record(300)
+        histogram.record(-5)
+
+        val snapshot = histogram.snapshot(Format.NATIVE, "adUnit", Phase.MAP_NATIVE_AD)
+
+        assertThat(snapshot.format).isEqualTo(Format.NATIVE)
+        assertThat(snapshot.adUnitId).isEqualTo("adUnit")
+        assertThat(snapshot.phase).isEqualTo(Phase.MAP_NATIVE_AD)
+        assertThat(snapshot.count).isEqualTo(3)
+        assertThat(snapshot.totalNanos).isEqualTo(400)
+        assertThat(snapshot.meanNanos).isEqualTo(133)
+        assertThat(snapshot.maxNanos).isEqualTo(300)
+    }
+
+    @Test
+    fun percentileNanos_GivenRecordedDurations_ReturnUpperBoundOfBucketCappedByMax() {
+        repeat(99) { histogram.record(1_000) }
+        histogram.record(1_000_000)
+
+        val snapshot = histogram.snapshot(Format.BANNER, null, Phase.BID_ROUND_TRIP)
+
+        assertThat(snapshot.percentileNanos(50.0)).isEqualTo(1024)
+        assertThat(snapshot.percentileNanos(99.0)).isEqualTo(1024)
+        assertThat(snapshot.percentileNanos(100.0)).isEqualTo(1_000_000)
+        assertThat(snapshot.percentileNanos(0.0)).isEqualTo(1024)
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *    Copyright 2020 Criteo
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.criteo.mediation.google.metrics
+
+import com.criteo.publisher.CriteoErrorCode
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doThrow
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.verifyNoInteractions
+import org.mockito.kotlin.verifyNoMoreInteractions
+
+class LoadMetricsTest {
+
+    @Before
+    fun setUp() {
+        LoadMetrics.clear()
+    }
+
+    @After
+    fun tearDown() {
+        LoadMetrics.clear()
+    }
+
+    @Test
+    fun record_GivenAdUnit_RecordPerFormatAndPerAdUnit() {
+        LoadMetrics.record(Format.BANNER, "adUnit1", Phase.BID_ROUND_TRIP, 10)
+        LoadMetrics.record(Format.BANNER, "adUnit2", Phase.BID_ROUND_TRIP, 20)
+        LoadMetrics.record(Format.BANNER, null, Phase.PARSE_SERVER_PARAMETERS, 30)
+
+        val snapshots = LoadMetrics.snapshot().map {
+            listOf(it.format, it.adUnitId, it.phase, it.count, it.totalNanos)
+        }
+
+        assertThat(snapshots).containsExactlyInAnyOrder(
+            listOf(Format.BANNER, null, Phase.PARSE_SERVER_PARAMETERS, 1L, 30L),
+            listOf(Format.BANNER, null, Phase.BID_ROUND_TRIP, 2L, 30L),
+            listOf(Format.BANNER, "adUnit1", Phase.BID_ROUND_TRIP, 1L, 10L),
+            listOf(Format.BANNER, "adUnit2", Phase.BID_ROUND_TRIP, 1L, 20L)
+        )
+    }
+
+    @Test
+    fun record_GivenSameAdUnitIdInDifferentFormats_KeepThemSeparated() {
+        LoadMetrics.record(Format.BANNER, "adUnit", Phase.BID_ROUND_TRIP, 10)
+        LoadMetrics.record(Format.NATIVE, "adUnit", Phase.BID_ROUND_TRIP, 20)
+
+        val snapshots = LoadMetrics.snapshot().filter { it.adUnitId == "adUnit" }
+
+        assertThat(snapshots.map { it.format to it.totalNanos })
+            .containsExactlyInAnyOrder(Format.BANNER to 10L, Format.NATIVE to 20L)
+    }
+
+    @Test
+    fun record_GivenTooManyAdUnits_OnlyRecordThemPerFormat() {
+        repeat(100) {
+            LoadMetrics.record(Format.INTERSTITIAL, "adUnit$it", Phase.NOTIFY_SUCCESS, 1)
+        }
+
+        val snapshots = LoadMetrics.snapshot()
+
+        assertThat(snapshots.filter { it.adUnitId != null }).hasSize(64)
+        assertThat(snapshots.single { it.adUnitId == null }.count).isEqualTo(100)
+    }
+
+    @Test
+    fun measure_GivenBlock_ReturnItsResultAndRecordItsDuration() {
+        val result = LoadMetrics.measure(Format.NATIVE, "adUnit", Phase.CREATE_AD_UNIT) { 42 }
+
+        assertThat(result).isEqualTo(42)
+        assertThat(LoadMetrics.snapshot().filter { it.phase == Phase.CREATE_AD_UNIT })
+            .hasSize(2)
+            .allSatisfy { assertThat(it.count).isEqualTo(1) }
+    }
+
+    @Test
+    fun getLatencies_ReturnRecordedLatencies() {
+        LoadMetrics.record(Format.NATIVE, null, Phase.LOAD_NATIVE_IMAGE, 10)
+
+        assertThat(CriteoAdapterMetrics.getLatencies().map { it.phase })
+            .containsExactly(Phase.LOAD_NATIVE_IMAGE)
+    }
+
+    @Test
+    fun record_GivenSink_ForwardLatency() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+
+        LoadMetrics.record(Format.BANNER, "adUnit", Phase.BID_ROUND_TRIP, 42)
+
+        verify(sink).onLatency(Format.BANNER, "adUnit", Phase.BID_ROUND_TRIP, 42)
+        verifyNoMoreInteractions(sink)
+    }
+
+    @Test
+    fun count_GivenSink_ForwardCounter() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+
+        LoadMetrics.count(Format.NATIVE, "adUnit", Counter.PREFETCHED_BID_USED)
+
+        verify(sink).onCount(Format.NATIVE, "adUnit", Counter.PREFETCHED_BID_USED)
+        verifyNoMoreInteractions(sink)
+    }
+
+    @Test
+    fun countFailure_GivenNoFill_CountNoFillAndErrorCode() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+
+        LoadMetrics.countFailure(Format.BANNER, "adUnit", CriteoErrorCode.ERROR_CODE_NO_FILL)
+
+        verify(sink).onCount(Format.BANNER, "adUnit", Counter.NO_FILL)
+        verify(sink).onError(Format.BANNER, "adUnit", CriteoErrorCode.ERROR_CODE_NO_FILL)
+        verifyNoMoreInteractions(sink)
+    }
+
+    @Test
+    fun countFailure_GivenOtherError_CountErrorAndErrorCode() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+
+        LoadMetrics.countFailure(Format.BANNER, "adUnit", CriteoErrorCode.ERROR_CODE_NETWORK_ERROR)
+
+        verify(sink).onCount(Format.BANNER, "adUnit", Counter.ERROR)
+        verify(sink).onError(Format.BANNER, "adUnit", CriteoErrorCode.ERROR_CODE_NETWORK_ERROR)
+        verifyNoMoreInteractions(sink)
+    }
+
+    @Test
+    fun count_GivenFailingSink_DoNotThrow() {
+        val sink: MetricsSink = mock {
+            on { onCount(any(), any(), any()) } doThrow IllegalStateException()
+        }
+        CriteoAdapterMetrics.setSink(sink)
+
+        LoadMetrics.count(Format.BANNER, "adUnit", Counter.LOAD)
+
+        verify(sink).onCount(Format.BANNER, "adUnit", Counter.LOAD)
+    }
+
+    @Test
+    fun count_GivenUnregisteredSink_DoNotForward() {
+        val sink: MetricsSink = mock()
+        CriteoAdapterMetrics.setSink(sink)
+        CriteoAdapterMetrics.setSink(null)
+
+        LoadMetrics.count(Format.BANNER, "adUnit", Counter.LOAD)
+        LoadMetrics.record(Format.BANNER, "adUnit", Phase.BID_ROUND_TRIP, 42)
+
+        verifyNoInteractions(sink)
+    }
+}